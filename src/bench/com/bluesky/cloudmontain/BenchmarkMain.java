@@ -0,0 +1,29 @@
+package bench.com.bluesky.cloudmontain;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** runs the benchmarks of this package, with gc profiler on, so that
+ *  gc.alloc.rate.norm, i.e. bytes allocated per frame, is reported along with the time.
+ *
+ *  usual jmh options apply, e.g. to run the fan-out only:
+ *      java -cp ... bench.com.bluesky.cloudmontain.BenchmarkMain RepeatorBenchmark
+ *
+ *  needs jmh-core and jmh-generator-annprocess (1.37) on the classpath, with annotation
+ *  processing on when compiling src/bench, see TrunkBench module, which keeps jmh off
+ *  the production module.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .include(BenchmarkMain.class.getPackage().getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,72 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.CallProcessor;
+import com.bluesky.cloudmontain.repeator.HashedWheelTimer;
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import com.bluesky.cloudmontain.repeator.Repeator;
+import com.bluesky.cloudmontain.repeator.RxPacket;
+import com.bluesky.common.XLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** CallProcessor.packetReceived(), per state, for a group of 16 online members
+ *  - the cp's timer is never started, so no tick moves the cp out of the state under test
+ *  - frames are replayed from packets which are never recycled, i.e. the receiver is excluded
+ *  - IDLE_CALL_DATA: call data without call, discarded
+ *  - INIT_CALL_INIT: caller's call init, decoded and repeated
+ *  - TXING_CALL_DATA: caller's voice frame, forwarded raw, the common case
+ *  - TXING_STRANGER: voice frame from another address, discarded
+ *  - HANG_CALL_DATA: late voice frame in call hang, forwarded raw
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallProcessorBenchmark {
+    @Param({"IDLE_CALL_DATA", "INIT_CALL_INIT", "TXING_CALL_DATA", "TXING_STRANGER", "HANG_CALL_DATA"})
+    public String state;
+
+    @Param({"16"})
+    public int members;
+
+    CallProcessor mCp;
+    RxPacket mPacket;
+
+    @Setup
+    public void setup(Blackhole bh){
+        HashedWheelTimer timer = new HashedWheelTimer("bench");
+        Repeator rptr = new Repeator(new Frames.BlackholeSender(bh));
+        OnlineGroups.View view = OnlineGroups.View.of(Frames.GRP, Frames.members(members));
+        mCp = new CallProcessor(Frames.GRP, Frames.SU, rptr, view, timer, new XLog());
+
+        RxPacket callInit = Frames.packetOf(Frames.callInit(), Frames.SU_ADDR);
+        RxPacket callData = Frames.packetOf(Frames.callData(), Frames.SU_ADDR);
+        if("IDLE_CALL_DATA".equals(state)){
+            mPacket = callData;
+        } else if("INIT_CALL_INIT".equals(state)){
+            mCp.packetReceived(callInit);
+            mPacket = callInit;
+        } else if("TXING_CALL_DATA".equals(state)){
+            mCp.packetReceived(callInit);
+            mCp.packetReceived(callData);
+            mPacket = callData;
+        } else if("TXING_STRANGER".equals(state)){
+            mCp.packetReceived(callInit);
+            mCp.packetReceived(callData);
+            mPacket = Frames.packetOf(Frames.callData(), Frames.STRANGER_ADDR);
+        } else {
+            mCp.packetReceived(callInit);
+            mCp.packetReceived(Frames.packetOf(Frames.callTerm(), Frames.SU_ADDR));
+            mPacket = callData;
+        }
+    }
+
+    @Benchmark
+    public void packetReceived(){
+        mCp.packetReceived(mPacket);
+    }
+}
@@ -0,0 +1,66 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.CpExecutorFactory;
+import com.bluesky.common.XLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/** hand-off of one frame to each of n cps, per execution mode, see CpExecutorFactory
+ *  - an operation is one task through one cp's executor, from submit to completion
+ *  - VIRTUAL_THREAD needs java 21+
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CpExecutionBenchmark {
+    @Param({"LANES", "PLATFORM_THREAD", "VIRTUAL_THREAD"})
+    public String mode;
+
+    public static final int CPS = 1000;
+
+    CpExecutorFactory mFactory;
+    Executor[] mExecs;
+    Task[] mTasks;
+
+    @Setup
+    public void setup(){
+        mFactory = CpExecutorFactory.create(CpExecutorFactory.Mode.valueOf(mode),
+                Runtime.getRuntime().availableProcessors(), new XLog());
+        mExecs = new Executor[CPS];
+        mTasks = new Task[CPS];
+        for(int i = 0; i < CPS; ++i){
+            mExecs[i] = mFactory.newExecutor(i);
+            mTasks[i] = new Task();
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        mFactory.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CPS)
+    public void handOff() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(CPS);
+        for(int i = 0; i < CPS; ++i){
+            mTasks[i].mDone = done;
+            mExecs[i].execute(mTasks[i]);
+        }
+        done.await();
+    }
+
+    static class Task implements Runnable {
+        @Override
+        public void run(){
+            mDone.countDown();
+        }
+        volatile CountDownLatch mDone;
+    }
+}
@@ -0,0 +1,89 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.PacketSender;
+import com.bluesky.cloudmontain.repeator.RxPacket;
+import com.bluesky.common.GlobalConstants;
+import com.bluesky.common.SubscriberDatabase;
+import com.bluesky.protocol.CallData;
+import com.bluesky.protocol.CallInit;
+import com.bluesky.protocol.CallTerm;
+import com.bluesky.protocol.ProtocolBase;
+import com.bluesky.protocol.Registration;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** frames and fixtures shared by benchmarks */
+final class Frames {
+    static final long GRP = 100;
+    static final long SU = 10;
+    static final InetSocketAddress SU_ADDR = new InetSocketAddress("127.0.0.1", 30000);
+    static final InetSocketAddress STRANGER_ADDR = new InetSocketAddress("127.0.0.1", 30001);
+
+    static byte[] serialize(ProtocolBase proto){
+        ByteBuffer buf = ByteBuffer.allocate(proto.getSize());
+        proto.serialize(buf);
+        return buf.array();
+    }
+
+    static byte[] callInit(){
+        return serialize(new CallInit(GRP, SU, (short)1));
+    }
+
+    /** call data, carrying 20ms of compressed audio */
+    static byte[] callData(){
+        ByteBuffer audio = ByteBuffer.allocate(GlobalConstants.COMPRESSED_20MS_AUDIO_SIZE);
+        return serialize(new CallData(GRP, SU, (short)1, audio));
+    }
+
+    static byte[] callTerm(){
+        return serialize(new CallTerm(GRP, SU, (short)1, GlobalConstants.CALL_HANG_COUNTDOWN));
+    }
+
+    static byte[] registration(long su_id){
+        return serialize(new Registration(GlobalConstants.SUID_TRUNK_MANAGER, su_id, (short)1));
+    }
+
+    /** @return packet as received from given address, it's never recycled, so can be replayed */
+    static RxPacket packetOf(byte[] frame, InetSocketAddress from){
+        RxPacket packet = RxPacket.allocate(frame.length);
+        ByteBuffer buf = packet.getBuffer();
+        buf.clear();
+        buf.put(frame);
+        buf.flip();
+        packet.getPacket().setLength(frame.length);
+        packet.getPacket().setSocketAddress(from);
+        return packet;
+    }
+
+    /** n online members of GRP, SU being the first one */
+    static List<SubscriberDatabase.OnlineRecord> members(int n){
+        List<SubscriberDatabase.OnlineRecord> members = new ArrayList<SubscriberDatabase.OnlineRecord>(n);
+        members.add(new SubscriberDatabase.OnlineRecord(SU, SU_ADDR));
+        for(int i = 1; i < n; ++i){
+            members.add(new SubscriberDatabase.OnlineRecord(SU + i, new InetSocketAddress("127.0.0.1", 40000 + i)));
+        }
+        return members;
+    }
+
+    /** sender which sends nothing, so fan-out is measured without the socket */
+    static class BlackholeSender implements PacketSender {
+        BlackholeSender(Blackhole bh){
+            mBh = bh;
+        }
+
+        @Override
+        public void send(InetSocketAddress addr, ByteBuffer payload){
+            mBh.consume(addr);
+            mBh.consume(payload.remaining());
+        }
+
+        private final Blackhole mBh;
+    }
+
+    private Frames(){
+    }
+}
@@ -0,0 +1,114 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.repeator.CpRegistry;
+import com.bluesky.cloudmontain.repeator.HashedWheelTimer;
+import com.bluesky.cloudmontain.repeator.LaneScheduler;
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import com.bluesky.cloudmontain.repeator.Repeator;
+import com.bluesky.cloudmontain.repeator.ThreadedCP;
+import com.bluesky.common.SubscriberDatabase;
+import com.bluesky.common.XLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** per frame lookup of TrunkManager.findCallProcessor(): membership check, then cp by group
+ *  - SnapshotDatabase of 100k subscribers, each in GROUPS_PER_SU of the groups, as Main
+ *    loads it, and the CpRegistry of TrunkManager
+ *  - boxedLookup is the former HashMap<Long, ..> registry, as a reference
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LookupBenchmark {
+    @Param({"100000"})
+    public int subscribers;
+
+    @Param({"1000"})
+    public int groups;
+
+    SnapshotDatabase mDatabase;
+    CpRegistry mRegistry;
+    HashMap<Long, ThreadedCP> mBoxed;
+    LaneScheduler mScheduler;
+    long[] mSources;
+    long[] mTargets;
+    int mNext;
+
+    @Setup
+    public void setup(Blackhole bh) throws Exception {
+        Random random = new Random(1);
+        SubscriberSnapshot.Builder builder = new SubscriberSnapshot.Builder();
+        for(int g = 0; g < groups; ++g){
+            builder.addGroup(GRP_BASE + g);
+        }
+        mSources = new long[SAMPLES];
+        mTargets = new long[SAMPLES];
+        long[] belongs = new long[GROUPS_PER_SU];
+        for(int s = 0; s < subscribers; ++s){
+            long su_id = SU_BASE + s;
+            for(int k = 0; k < GROUPS_PER_SU; ++k){
+                belongs[k] = GRP_BASE + random.nextInt(groups);
+            }
+            builder.addSubscriber(su_id, belongs);
+            if(s < SAMPLES){
+                mSources[s] = su_id;
+                mTargets[s] = belongs[0];
+            }
+        }
+        mDatabase = new SnapshotDatabase(SubscriberSnapshot.wrap(builder.build(null)));
+
+        HashedWheelTimer timer = new HashedWheelTimer("bench");
+        Repeator rptr = new Repeator(new Frames.BlackholeSender(bh));
+        mScheduler = new LaneScheduler(1, new XLog());
+        mRegistry = new CpRegistry();
+        mBoxed = new HashMap<Long, ThreadedCP>();
+        for(int g = 0; g < groups; ++g){
+            long grp_id = GRP_BASE + g;
+            OnlineGroups.View view = OnlineGroups.View.of(grp_id, Collections.<SubscriberDatabase.OnlineRecord>emptyList());
+            ThreadedCP cp = new ThreadedCP(mScheduler.newLane(), grp_id, SU_BASE, rptr, view, timer, new XLog());
+            mRegistry.putIfAbsent(grp_id, cp);
+            mBoxed.put(grp_id, cp);
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        mScheduler.shutdown();
+    }
+
+    @Benchmark
+    public Object findCallProcessor(){
+        int i = mNext++ & (SAMPLES - 1);
+        if(!mDatabase.isGroupMember(mSources[i], mTargets[i])){
+            return null;
+        }
+        return mRegistry.get(mTargets[i]);
+    }
+
+    @Benchmark
+    public boolean isGroupMember(){
+        int i = mNext++ & (SAMPLES - 1);
+        return mDatabase.isGroupMember(mSources[i], mTargets[i]);
+    }
+
+    @Benchmark
+    public Object boxedLookup(){
+        int i = mNext++ & (SAMPLES - 1);
+        return mBoxed.get(new Long(mTargets[i]));
+    }
+
+    static final long SU_BASE = 1000000;
+    static final long GRP_BASE = 9000000;
+    static final int GROUPS_PER_SU = 4;
+    static final int SAMPLES = 4096;
+}
@@ -0,0 +1,52 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.PacketHeader;
+import com.bluesky.protocol.ProtocolFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** decode cost of a received frame: full decode by ProtocolFactory, vs header peep */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolDecodeBenchmark {
+    @Param({"CALL_INIT", "CALL_DATA", "CALL_TERM"})
+    public String frame;
+
+    DatagramPacket mPacket;
+    ByteBuffer mBuffer;
+
+    @Setup
+    public void setup(){
+        byte[] data;
+        if("CALL_INIT".equals(frame)){
+            data = Frames.callInit();
+        } else if("CALL_DATA".equals(frame)){
+            data = Frames.callData();
+        } else {
+            data = Frames.callTerm();
+        }
+        mPacket = new DatagramPacket(data, data.length);
+        mPacket.setSocketAddress(Frames.SU_ADDR);
+        mBuffer = ByteBuffer.wrap(data);
+    }
+
+    @Benchmark
+    public Object decode(){
+        return ProtocolFactory.getProtocol(mPacket);
+    }
+
+    @Benchmark
+    public void peep(Blackhole bh){
+        bh.consume(PacketHeader.peepType(mBuffer));
+        bh.consume(PacketHeader.peepSource(mBuffer));
+        bh.consume(PacketHeader.peepTarget(mBuffer));
+    }
+}
@@ -0,0 +1,92 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import com.bluesky.cloudmontain.repeator.PresenceLeases;
+import com.bluesky.cloudmontain.repeator.RegistrationBatch;
+import com.bluesky.cloudmontain.repeator.RxPacket;
+import com.bluesky.common.XLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** registration handling, as done by TrunkManager's message thread, socket excluded:
+ *  RegistrationBatch decodes and validates each registration, then brings the batch
+ *  online, patches views of active groups, refreshes leases, and serializes acks
+ *  - SnapshotDatabase of 100k subscribers, each in GROUPS_PER_SU of the groups, with a
+ *    view held for each of the active groups, as cps would
+ *  - time is per registration
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegistrationBenchmark {
+    @Param({"100000"})
+    public int subscribers;
+
+    @Param({"1000"})
+    public int groups;
+
+    @Param({"10", "1000"})
+    public int activeGroups;
+
+    RegistrationBatch mBatch;
+    RxPacket[] mPackets;
+    int mNext;
+
+    @Setup
+    public void setup(Blackhole bh) throws Exception {
+        Random random = new Random(1);
+        SubscriberSnapshot.Builder builder = new SubscriberSnapshot.Builder();
+        for(int g = 0; g < groups; ++g){
+            builder.addGroup(GRP_BASE + g);
+        }
+        long[] belongs = new long[GROUPS_PER_SU];
+        for(int s = 0; s < subscribers; ++s){
+            for(int k = 0; k < GROUPS_PER_SU; ++k){
+                belongs[k] = GRP_BASE + random.nextInt(groups);
+            }
+            builder.addSubscriber(SU_BASE + s, belongs);
+        }
+        SnapshotDatabase database = new SnapshotDatabase(SubscriberSnapshot.wrap(builder.build(null)));
+        OnlineGroups onlineGroups = new OnlineGroups(database);
+        for(int g = 0; g < activeGroups; ++g){
+            onlineGroups.viewOf(GRP_BASE + g);
+        }
+        PresenceLeases leases = new PresenceLeases(LEASE_MS, 1000);
+        mBatch = new RegistrationBatch(database, onlineGroups, leases, new Frames.BlackholeSender(bh),
+                BATCH, new Log(new XLog()));
+
+        mPackets = new RxPacket[SAMPLES];
+        for(int i = 0; i < SAMPLES; ++i){
+            long su_id = SU_BASE + random.nextInt(subscribers);
+            mPackets[i] = Frames.packetOf(Frames.registration(su_id),
+                    new InetSocketAddress("127.0.0.1", 20000 + i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int registrationBatch(){
+        for(int i = 0; i < BATCH; ++i){
+            mBatch.add(mPackets[mNext++ & (SAMPLES - 1)]);
+        }
+        return mBatch.flush();
+    }
+
+    static final long SU_BASE = 1000000;
+    static final long GRP_BASE = 9000000;
+    static final int GROUPS_PER_SU = 4;
+    /** as TrunkManager drains its queue */
+    static final int BATCH = 256;
+    static final int SAMPLES = 4096;
+    static final long LEASE_MS = 10 * 60 * 1000;
+}
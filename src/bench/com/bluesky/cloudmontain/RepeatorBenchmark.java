@@ -0,0 +1,57 @@
+package bench.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import com.bluesky.cloudmontain.repeator.Repeator;
+import com.bluesky.common.CallInformation;
+import com.bluesky.common.GlobalConstants;
+import com.bluesky.common.SubscriberDatabase;
+import com.bluesky.protocol.CallData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** fan-out of one frame to n group members, socket excluded
+ *  - repeat: serialize a decoded frame once, then send
+ *  - forward: send a received frame as it is
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RepeatorBenchmark {
+    @Param({"1", "16", "128"})
+    public int members;
+
+    Repeator mRptr;
+    List<SubscriberDatabase.OnlineRecord> mMembers;
+    CallInformation mCallInfo;
+    CallData mCallData;
+    ByteBuffer mRaw;
+
+    @Setup
+    public void setup(Blackhole bh){
+        mRptr = new Repeator(new Frames.BlackholeSender(bh));
+        mMembers = OnlineGroups.View.of(Frames.GRP, Frames.members(members)).members();
+        mCallInfo = new CallInformation();
+        mCallInfo.mSourceId = Frames.SU;
+        mCallInfo.mTargetId = Frames.GRP;
+        ByteBuffer audio = ByteBuffer.allocate(GlobalConstants.COMPRESSED_20MS_AUDIO_SIZE);
+        mCallData = new CallData(Frames.GRP, Frames.SU, (short)1, audio);
+        mRaw = ByteBuffer.wrap(Frames.callData());
+    }
+
+    @Benchmark
+    public void repeat(){
+        mRptr.repeat(mMembers, mCallInfo, mCallData);
+    }
+
+    @Benchmark
+    public void forward(){
+        mRptr.forward(mMembers, mCallInfo, mRaw);
+    }
+}
@@ -0,0 +1,450 @@
+package com.bluesky.cloudmontain.cdr;
+
+import com.bluesky.cloudmontain.metrics.Counter;
+import com.bluesky.cloudmontain.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** append-only call detail records, a record per call, of who talked on which group,
+ *  when, for how long, and how many frames
+ *  - cps hand records over through a bounded ring of preallocated slots, see
+ *    AsyncAppender, nothing is allocated, a record is dropped and counted if it's full,
+ *    so a voice thread never waits on disk
+ *  - one writer thread appends drained records in batches, into fixed-size segment
+ *    files, memory-mapped, a segment's record count is committed once per batch
+ *  - records of a segment are in order of when they're logged, i.e. call end, every
+ *    INDEX_INTERVAL-th time is kept as a sparse index, a query looks up the segments and
+ *    blocks it needs, and scans only those
+ *  - segments beyond retention are deleted, as new ones are created
+ *
+ *  segment, cdr-<first time>.log, big endian:
+ *      header      magic, version, record count
+ *      records     grp_id, su_id, start, end, logged at, frames, synthesized frames
+ */
+public class CdrLog implements Runnable {
+    public static class Configuration {
+        /** directory of segment files */
+        public File dir;
+        /** records pending for writer, dropped beyond, rounded up to power of 2 */
+        public int ringSize         = 4096;
+        /** records per segment file */
+        public int segmentRecords   = 256 * 1024;
+        /** segments older than this are deleted, 0 to keep them all */
+        public long retentionMs     = TimeUnit.DAYS.toMillis(30);
+    }
+
+    /** a call, as logged, times are wall clock in ms */
+    public static final class CallRecord {
+        public CallRecord(long grp_id, long su_id, long start, long end, int frames, int synthesized){
+            mGrpId = grp_id;
+            mSuId = su_id;
+            mStart = start;
+            mEnd = end;
+            mFrames = frames;
+            mSynthesized = synthesized;
+        }
+
+        public long duration(){
+            return mEnd - mStart;
+        }
+
+        @Override
+        public String toString(){
+            return "grp=" + mGrpId + ", su=" + mSuId + ", start=" + mStart + ", " + duration() + "ms, frames="
+                    + mFrames + "/" + mSynthesized;
+        }
+
+        public final long mGrpId;
+        public final long mSuId;
+        public final long mStart;
+        public final long mEnd;
+        /** frames relayed from caller */
+        public final int mFrames;
+        /** frames synthesized on behalf of caller */
+        public final int mSynthesized;
+    }
+
+    /** open log in config.dir, segments there already are queried, and appended to
+     * @throws IOException if dir can't be created, or a segment can't be mapped
+     */
+    public CdrLog(Configuration config) throws IOException {
+        mDir = config.dir;
+        mSegmentRecords = config.segmentRecords;
+        mRetentionMs = config.retentionMs;
+        if(!mDir.isDirectory() && !mDir.mkdirs()){
+            throw new IOException("failed to create " + mDir);
+        }
+        String[] names = mDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        // names are zero padded, i.e. in order of time
+        Arrays.sort(names);
+        for(String name : names){
+            Segment segment = Segment.open(new File(mDir, name));
+            if(segment != null){
+                mSegments.add(segment);
+                if(segment.mCount > 0){
+                    mLastAt = Math.max(mLastAt, segment.atOf(segment.mCount - 1));
+                }
+            }
+        }
+
+        int size = 1;
+        while(size < config.ringSize){
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mRing = new long[size * SLOT_LONGS];
+        mSequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; ++i){
+            mSequences.set(i, i);
+        }
+        mThread = new Thread(this, TAG);
+        mThread.setDaemon(true);
+    }
+
+    public void start(){
+        mThread.start();
+    }
+
+    /** stop writer, pending records are written first */
+    public void close(){
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** log a call, never blocks, called from cp context
+     * @param start wall clock time call started, ms
+     * @param end   wall clock time call ended, ms
+     * @return false if it's dropped, ring is full
+     */
+    public boolean record(long grp_id, long su_id, long start, long end, int frames, int synthesized){
+        long pos;
+        while(true){
+            pos = mTail.get();
+            long seq = mSequences.get((int)pos & mMask);
+            if(seq == pos){
+                if(mTail.compareAndSet(pos, pos + 1)){
+                    break;
+                }
+            } else if(seq < pos){
+                // full, writer is a lap behind
+                DROPPED.inc();
+                return false;
+            }
+        }
+        int slot = (int)pos & mMask;
+        int at = slot * SLOT_LONGS;
+        mRing[at] = grp_id;
+        mRing[at + 1] = su_id;
+        mRing[at + 2] = start;
+        mRing[at + 3] = end;
+        mRing[at + 4] = ((long)frames << 32) | (synthesized & 0xffffffffL);
+        mSequences.set(slot, pos + 1);
+        return true;
+    }
+
+    /** @return calls logged in [from, to), wall clock ms, i.e. ended then, unless clock
+     *  stepped back, in order of logging
+     */
+    public List<CallRecord> query(long from, long to){
+        Segment[] segments;
+        synchronized (mSegments){
+            segments = mSegments.toArray(new Segment[mSegments.size()]);
+        }
+        List<CallRecord> records = new ArrayList<CallRecord>();
+        for(Segment segment : segments){
+            segment.query(from, to, records);
+        }
+        return records;
+    }
+
+    @Override
+    public void run(){
+        while(mRunning){
+            if(!drain()){
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+        drain();
+    }
+
+    /** @return true if anything was drained */
+    private boolean drain(){
+        Segment dirty = null;
+        while(true){
+            int slot = (int)mHead & mMask;
+            if(mSequences.get(slot) != mHead + 1){
+                break;
+            }
+            int at = slot * SLOT_LONGS;
+            try {
+                Segment segment = append(mRing[at], mRing[at + 1], mRing[at + 2], mRing[at + 3], mRing[at + 4]);
+                if(segment != dirty && dirty != null){
+                    dirty.commit();
+                }
+                dirty = segment;
+            } catch (IOException e){
+                // record is lost, writer goes on with next segment
+                DROPPED.inc();
+            }
+            mSequences.set(slot, mHead + mMask + 1);
+            ++mHead;
+        }
+        if(dirty != null){
+            dirty.commit();
+            return true;
+        }
+        return false;
+    }
+
+    /** @return segment record is appended to, uncommitted */
+    private Segment append(long grp_id, long su_id, long start, long end, long frames) throws IOException {
+        // logged time never goes back, it's what segments are indexed by
+        long at = Math.max(end, mLastAt);
+        if(mCurrent == null){
+            mCurrent = lastWritable();
+        }
+        if(mCurrent == null || mCurrent.isFull()){
+            if(mCurrent != null){
+                mCurrent.commit();
+            }
+            mCurrent = Segment.create(newSegmentFile(at), mSegmentRecords);
+            synchronized (mSegments){
+                mSegments.add(mCurrent);
+            }
+            deleteExpired(at);
+        }
+        mCurrent.append(grp_id, su_id, start, end, at, frames);
+        mLastAt = at;
+        WRITTEN.inc();
+        return mCurrent;
+    }
+
+    /** @return last segment, mapped for writing, if it has room, null otherwise */
+    private Segment lastWritable() throws IOException {
+        Segment last;
+        synchronized (mSegments){
+            last = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        }
+        if(last == null || last.isFull()){
+            return null;
+        }
+        Segment writable = Segment.openForAppend(last);
+        synchronized (mSegments){
+            mSegments.set(mSegments.size() - 1, writable);
+        }
+        return writable;
+    }
+
+    private void deleteExpired(long now){
+        if(mRetentionMs <= 0){
+            return;
+        }
+        List<Segment> expired = new ArrayList<Segment>();
+        synchronized (mSegments){
+            // the last one is being written
+            while(mSegments.size() > 1){
+                Segment oldest = mSegments.get(0);
+                if(oldest.mCount > 0 && now - oldest.atOf(oldest.mCount - 1) < mRetentionMs){
+                    break;
+                }
+                expired.add(mSegments.remove(0));
+            }
+        }
+        for(Segment segment : expired){
+            // a query still holding it reads on, the mapping outlives the file
+            segment.mFile.delete();
+        }
+    }
+
+    /** @return file of a segment starting at given time, named after it, or right after
+     *  it, if a segment started in the same ms */
+    private File newSegmentFile(long at){
+        File file = new File(mDir, nameOf(at));
+        while(file.exists()){
+            file = new File(mDir, nameOf(++at));
+        }
+        return file;
+    }
+
+    private static String nameOf(long at){
+        return PREFIX + String.format("%013d", at) + SUFFIX;
+    }
+
+    /** a segment file, mapped, appended by writer, queried by any thread */
+    private static final class Segment {
+        static Segment create(File file, int capacity) throws IOException {
+            MappedByteBuffer buf = map(file, FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long)capacity * RECORD_SIZE);
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putInt(COUNT_POS, 0);
+            return new Segment(file, buf, capacity, 0);
+        }
+
+        /** @return segment, null if file is not a segment */
+        static Segment open(File file) throws IOException {
+            long size = file.length();
+            if(size < HEADER_SIZE){
+                return null;
+            }
+            MappedByteBuffer buf = map(file, FileChannel.MapMode.READ_ONLY, size);
+            if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION){
+                return null;
+            }
+            int capacity = (int)((size - HEADER_SIZE) / RECORD_SIZE);
+            int count = Math.max(0, Math.min(buf.getInt(COUNT_POS), capacity));
+            return new Segment(file, buf, capacity, count);
+        }
+
+        /** same segment, mapped for writing */
+        static Segment openForAppend(Segment segment) throws IOException {
+            MappedByteBuffer buf = map(segment.mFile, FileChannel.MapMode.READ_WRITE, segment.mFile.length());
+            return new Segment(segment.mFile, buf, segment.mCapacity, segment.mCount);
+        }
+
+        private Segment(File file, MappedByteBuffer buf, int capacity, int count){
+            mFile = file;
+            mBuf = buf;
+            mCapacity = capacity;
+            mIndex = new long[(capacity + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+            for(int i = 0; i < count; i += INDEX_INTERVAL){
+                mIndex[i / INDEX_INTERVAL] = atOf(i);
+            }
+            mPending = count;
+            mCount = count;
+        }
+
+        boolean isFull(){
+            return mPending == mCapacity;
+        }
+
+        void append(long grp_id, long su_id, long start, long end, long at, long frames){
+            int pos = HEADER_SIZE + mPending * RECORD_SIZE;
+            mBuf.putLong(pos, grp_id);
+            mBuf.putLong(pos + 8, su_id);
+            mBuf.putLong(pos + 16, start);
+            mBuf.putLong(pos + 24, end);
+            mBuf.putLong(pos + 32, at);
+            mBuf.putLong(pos + 40, frames);
+            if(mPending % INDEX_INTERVAL == 0){
+                mIndex[mPending / INDEX_INTERVAL] = at;
+            }
+            ++mPending;
+        }
+
+        /** records appended so far become visible, to queries and after a crash */
+        void commit(){
+            mBuf.putInt(COUNT_POS, mPending);
+            mCount = mPending;
+        }
+
+        long atOf(int i){
+            return mBuf.getLong(HEADER_SIZE + i * RECORD_SIZE + 32);
+        }
+
+        void query(long from, long to, List<CallRecord> out){
+            int count = mCount;
+            if(count == 0 || atOf(0) >= to || atOf(count - 1) < from){
+                return;
+            }
+            // last indexed block starting before from, records of from may start in it
+            int blocks = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+            int lo = 0, hi = blocks - 1;
+            while(lo < hi){
+                int mid = (lo + hi + 1) >>> 1;
+                if(mIndex[mid] < from){
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            for(int i = lo * INDEX_INTERVAL; i < count; ++i){
+                long at = atOf(i);
+                if(at >= to){
+                    break;
+                }
+                if(at >= from){
+                    int pos = HEADER_SIZE + i * RECORD_SIZE;
+                    long frames = mBuf.getLong(pos + 40);
+                    out.add(new CallRecord(mBuf.getLong(pos), mBuf.getLong(pos + 8), mBuf.getLong(pos + 16),
+                            mBuf.getLong(pos + 24), (int)(frames >>> 32), (int)frames));
+                }
+            }
+        }
+
+        final File mFile;
+        final MappedByteBuffer mBuf;
+        final int mCapacity;
+        /** logged time of every INDEX_INTERVAL-th record, written before mCount publishes it */
+        final long[] mIndex;
+        /** appended by writer, not committed yet */
+        int mPending;
+        volatile int mCount;
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            // mapping stays valid after close
+            raf.close();
+        }
+    }
+
+    private final File mDir;
+    private final int mSegmentRecords;
+    private final long mRetentionMs;
+    /** in order of time, guarded by itself */
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    /** owned by writer */
+    private Segment mCurrent;
+    private long mLastAt = Long.MIN_VALUE;
+
+    private final long[] mRing;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong(0);
+    /** owned by writer */
+    private long mHead = 0;
+    private volatile boolean mRunning = true;
+    private final Thread mThread;
+
+    private static final Counter WRITTEN = MetricsRegistry.global().counter("trunk_cdr_records_total", "call detail records written");
+    private static final Counter DROPPED = MetricsRegistry.global().counter("trunk_cdr_dropped_total", "call detail records dropped, ring full or write failed");
+
+    /** grp_id, su_id, start, end, frames | synthesized */
+    private static final int SLOT_LONGS = 5;
+    /** "TCDR" */
+    private static final int MAGIC = 0x54434452;
+    private static final int VERSION = 1;
+    private static final int COUNT_POS = 8;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 48;
+    static final int INDEX_INTERVAL = 128;
+    private static final String PREFIX = "cdr-";
+    private static final String SUFFIX = ".log";
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final String TAG = "CdrLog";
+}
@@ -0,0 +1,59 @@
+package com.bluesky.cloudmontain.database;
+
+import java.nio.LongBuffer;
+
+/** read only index of distinct long ids to their positions, open addressing with linear
+ *  probing, see LongObjectMap
+ *  - built once, get() allocates nothing and touches two primitive arrays, safe for any
+ *    number of threads once published
+ */
+final class LongIntIndex {
+    /** index ids[i] -> i, ids are distinct */
+    static LongIntIndex of(LongBuffer ids){
+        int n = ids.limit();
+        int cap = MIN_CAPACITY;
+        while(cap * LOAD_FACTOR < n){
+            cap <<= 1;
+        }
+        LongIntIndex index = new LongIntIndex(cap);
+        int mask = cap - 1;
+        for(int j = 0; j < n; ++j){
+            long key = ids.get(j);
+            int i = slotOf(key, mask);
+            while(index.mRows[i] != 0){
+                i = (i + 1) & mask;
+            }
+            index.mKeys[i] = key;
+            index.mRows[i] = j + 1;
+        }
+        return index;
+    }
+
+    /** @return position of key, -1 if it's not indexed */
+    int get(long key){
+        int mask = mKeys.length - 1;
+        for(int i = slotOf(key, mask); ; i = (i + 1) & mask){
+            int row = mRows[i];
+            if(row == 0 || mKeys[i] == key){
+                return row - 1;
+            }
+        }
+    }
+
+    private LongIntIndex(int capacity){
+        mKeys = new long[capacity];
+        mRows = new int[capacity];
+    }
+
+    private static int slotOf(long key, int mask){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    private final long[] mKeys;
+    /** position + 1, 0 is a free slot */
+    private final int[] mRows;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+}
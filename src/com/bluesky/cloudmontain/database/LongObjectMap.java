@@ -0,0 +1,164 @@
+package com.bluesky.cloudmontain.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** map keyed by primitive long, open addressing with linear probing
+ *  - no boxing of keys, get() allocates nothing
+ *  - null values are not allowed, a null slot is a free slot
+ *  - not thread safe, a copy which is no longer modified can be read by any thread, once
+ *    published, e.g. through a volatile
+ */
+public class LongObjectMap<V> {
+    public LongObjectMap(){
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize){
+        int cap = MIN_CAPACITY;
+        while(cap * LOAD_FACTOR < expectedSize){
+            cap <<= 1;
+        }
+        allocate(cap);
+    }
+
+    /** copy of other */
+    public LongObjectMap(LongObjectMap<V> other){
+        mKeys = other.mKeys.clone();
+        mValues = other.mValues.clone();
+        mSize = other.mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key){
+        int mask = mKeys.length - 1;
+        for(int i = slotOf(key, mask); ; i = (i + 1) & mask){
+            Object v = mValues[i];
+            if(v == null){
+                return null;
+            }
+            if(mKeys[i] == key){
+                return (V)v;
+            }
+        }
+    }
+
+    public boolean containsKey(long key){
+        return get(key) != null;
+    }
+
+    /** @return previous value, or null */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value){
+        if(value == null){
+            throw new IllegalArgumentException("null value");
+        }
+        int mask = mKeys.length - 1;
+        int i = slotOf(key, mask);
+        for(; mValues[i] != null; i = (i + 1) & mask){
+            if(mKeys[i] == key){
+                V prev = (V)mValues[i];
+                mValues[i] = value;
+                return prev;
+            }
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        if(++mSize > mKeys.length * LOAD_FACTOR){
+            rehash(mKeys.length << 1);
+        }
+        return null;
+    }
+
+    /** @return removed value, or null */
+    @SuppressWarnings("unchecked")
+    public V remove(long key){
+        int mask = mKeys.length - 1;
+        int i = slotOf(key, mask);
+        for(; mValues[i] != null; i = (i + 1) & mask){
+            if(mKeys[i] == key){
+                V prev = (V)mValues[i];
+                shiftBack(i, mask);
+                --mSize;
+                return prev;
+            }
+        }
+        return null;
+    }
+
+    public int size(){
+        return mSize;
+    }
+
+    /** @return copy of all values, in no particular order */
+    @SuppressWarnings("unchecked")
+    public List<V> values(){
+        List<V> values = new ArrayList<V>(mSize);
+        for(Object v : mValues){
+            if(v != null){
+                values.add((V)v);
+            }
+        }
+        return values;
+    }
+
+    public void clear(){
+        allocate(MIN_CAPACITY);
+    }
+
+    /** close the gap at a removed slot, so that no probe chain is broken */
+    private void shiftBack(int gap, int mask){
+        int i = gap;
+        while(true){
+            i = (i + 1) & mask;
+            if(mValues[i] == null){
+                break;
+            }
+            int home = slotOf(mKeys[i], mask);
+            // move i into gap, unless its home lies cyclically in (gap, i]
+            boolean stay = (gap <= i) ? (gap < home && home <= i) : (gap < home || home <= i);
+            if(!stay){
+                mKeys[gap] = mKeys[i];
+                mValues[gap] = mValues[i];
+                gap = i;
+            }
+        }
+        mValues[gap] = null;
+    }
+
+    private void rehash(int capacity){
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for(int j = 0; j < keys.length; ++j){
+            if(values[j] != null){
+                int i = slotOf(keys[j], mask);
+                while(mValues[i] != null){
+                    i = (i + 1) & mask;
+                }
+                mKeys[i] = keys[j];
+                mValues[i] = values[j];
+                ++mSize;
+            }
+        }
+    }
+
+    private void allocate(int capacity){
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mSize = 0;
+    }
+
+    private static int slotOf(long key, int mask){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+}
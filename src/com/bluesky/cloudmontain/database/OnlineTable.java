@@ -0,0 +1,367 @@
+package com.bluesky.cloudmontain.database;
+
+import com.bluesky.common.SubscriberDatabase;
+
+import java.net.InetSocketAddress;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** online SUs in flat primitive arrays, a fixed-width row per SU
+ *  - a row holds su_id, address bytes (IPv4 or IPv6), port and last-seen time, in column
+ *    arrays, plus the socket address to send to, which is created once per registration,
+ *    as the socket api wants one anyway
+ *  - a row keeps its index while the SU is online, so a group is a list of row indexes,
+ *    see Members, and fan-out iterates rows without materializing a record per member
+ *  - rows are recycled once an SU goes offline, a reader holding stale indexes checks
+ *    su_id of the row, and skips it if it's been taken by another SU
+ *  - written by one thread at a time, e.g. under OnlineGroups lock, read by any thread,
+ *    a new row reaches readers through the Members holding it, which is published after
+ *    the row is written, columns are replaced as a whole on growth
+ *  - su_id and socket address columns are atomic, as fan-out reads them racing with a
+ *    row being recycled, see Members.address(); other columns are read by the writer,
+ *    or for warm state only
+ */
+public class OnlineTable {
+    public OnlineTable(){
+        this(16);
+    }
+
+    public OnlineTable(int expectedSize){
+        mColumns = new Columns(Math.max(expectedSize, MIN_ROWS));
+        int cap = MIN_ROWS;
+        while(cap * LOAD_FACTOR < expectedSize){
+            cap <<= 1;
+        }
+        mIndexKeys = new long[cap];
+        mIndexRows = new int[cap];
+        mFree = new int[MIN_ROWS];
+    }
+
+    /** su goes online, or moves to another address
+     * @param now last-seen time, e.g. System.nanoTime()
+     * @return row of the su
+     */
+    public int online(long su_id, InetSocketAddress addr, long now){
+        int row = rowOf(su_id);
+        if(row < 0){
+            row = allocateRow();
+            indexPut(su_id, row);
+        }
+        Columns c = mColumns;
+        byte[] ip = addr.getAddress().getAddress();
+        System.arraycopy(ip, 0, c.mAddrs, row * ADDR_WIDTH, ip.length);
+        c.mAddrLens[row] = (byte)ip.length;
+        c.mPorts[row] = addr.getPort();
+        c.mLastSeen[row] = now;
+        if(!addr.equals(c.mSockAddrs.get(row))){
+            c.mSockAddrs.set(row, addr);
+        }
+        // last, it publishes the row
+        c.mSuIds.set(row, su_id);
+        return row;
+    }
+
+    /** @return row of the su gone offline, -1 if it wasn't online */
+    public int offline(long su_id){
+        int row = indexRemove(su_id);
+        if(row < 0){
+            return -1;
+        }
+        Columns c = mColumns;
+        // first, so a reader who sees an address of the next owner sees the row is gone
+        c.mSuIds.set(row, NO_SU);
+        c.mSockAddrs.set(row, null);
+        if(mFreeSize == mFree.length){
+            int[] grown = new int[mFreeSize * 2];
+            System.arraycopy(mFree, 0, grown, 0, mFreeSize);
+            mFree = grown;
+        }
+        mFree[mFreeSize++] = row;
+        return row;
+    }
+
+    /** @return row of su, -1 if it's not online */
+    public int rowOf(long su_id){
+        int mask = mIndexKeys.length - 1;
+        for(int i = slotOf(su_id, mask); ; i = (i + 1) & mask){
+            int row = mIndexRows[i] - 1;
+            if(row < 0){
+                return -1;
+            }
+            if(mIndexKeys[i] == su_id){
+                return row;
+            }
+        }
+    }
+
+    public int size(){
+        return mIndexSize;
+    }
+
+    /** @return rows ever used, online sus are in rows below it, free ones have no address */
+    public int rowLimit(){
+        return mNextRow;
+    }
+
+    public long suIdAt(int row){
+        return mColumns.mSuIds.get(row);
+    }
+
+    /** @return address to send to, null if row is free */
+    public InetSocketAddress addressAt(int row){
+        return mColumns.mSockAddrs.get(row);
+    }
+
+    public int portAt(int row){
+        return mColumns.mPorts[row];
+    }
+
+    public long lastSeenAt(int row){
+        return mColumns.mLastSeen[row];
+    }
+
+    /** copy address bytes of row into dst, from 0
+     * @return number of bytes, 4 for IPv4, 16 for IPv6
+     */
+    public int addressBytesAt(int row, byte[] dst){
+        Columns c = mColumns;
+        int len = c.mAddrLens[row];
+        System.arraycopy(c.mAddrs, row * ADDR_WIDTH, dst, 0, len);
+        return len;
+    }
+
+    /** members of a group, as rows of a table, copy-on-write, never modified once built
+     *  - fan-out goes through suId()/address(), iterating as a List materializes records,
+     *    that's kept for callers which want SubscriberDatabase.OnlineRecord
+     */
+    public static final class Members extends AbstractList<SubscriberDatabase.OnlineRecord> implements RandomAccess {
+        public Members(OnlineTable table){
+            this(table, new long[0], new int[0]);
+        }
+
+        private Members(OnlineTable table, long[] sus, int[] rows){
+            mTable = table;
+            mSus = sus;
+            mRows = rows;
+        }
+
+        @Override
+        public int size(){
+            return mSus.length;
+        }
+
+        public long suId(int i){
+            return mSus[i];
+        }
+
+        /** @return address of member i, null if it's gone offline since
+         *  - su_id is read again after the address, as the row may be recycled meanwhile,
+         *    offline() clears su_id before the next owner's address is written, so if the
+         *    address read is the next owner's, the second read can't see this member
+         */
+        public InetSocketAddress address(int i){
+            Columns c = mTable.mColumns;
+            int row = mRows[i];
+            long su_id = mSus[i];
+            if(c.mSuIds.get(row) != su_id){
+                return null;
+            }
+            InetSocketAddress addr = c.mSockAddrs.get(row);
+            return c.mSuIds.get(row) == su_id ? addr : null;
+        }
+
+        @Override
+        public SubscriberDatabase.OnlineRecord get(int i){
+            return new SubscriberDatabase.OnlineRecord(mSus[i], address(i));
+        }
+
+        public int indexOfSu(long su_id){
+            for(int i = 0; i < mSus.length; ++i){
+                if(mSus[i] == su_id){
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** @return members with su at row, this if it's there already */
+        public Members with(long su_id, int row){
+            int idx = indexOfSu(su_id);
+            if(idx >= 0 && mRows[idx] == row){
+                return this;
+            }
+            long[] sus;
+            int[] rows;
+            if(idx >= 0){
+                sus = mSus.clone();
+                rows = mRows.clone();
+            } else {
+                idx = mSus.length;
+                sus = new long[idx + 1];
+                rows = new int[idx + 1];
+                System.arraycopy(mSus, 0, sus, 0, idx);
+                System.arraycopy(mRows, 0, rows, 0, idx);
+            }
+            sus[idx] = su_id;
+            rows[idx] = row;
+            return new Members(mTable, sus, rows);
+        }
+
+        /** @return members without su, this if it's not there */
+        public Members without(long su_id){
+            int idx = indexOfSu(su_id);
+            if(idx < 0){
+                return this;
+            }
+            int n = mSus.length;
+            long[] sus = new long[n - 1];
+            int[] rows = new int[n - 1];
+            System.arraycopy(mSus, 0, sus, 0, idx);
+            System.arraycopy(mSus, idx + 1, sus, idx, n - idx - 1);
+            System.arraycopy(mRows, 0, rows, 0, idx);
+            System.arraycopy(mRows, idx + 1, rows, idx, n - idx - 1);
+            return new Members(mTable, sus, rows);
+        }
+
+        private final OnlineTable mTable;
+        private final long[] mSus;
+        private final int[] mRows;
+    }
+
+    /** row columns, replaced as a whole on growth */
+    private static final class Columns {
+        Columns(int rows){
+            mRows = rows;
+            mSuIds = new AtomicLongArray(rows);
+            for(int row = 0; row < rows; ++row){
+                mSuIds.lazySet(row, NO_SU);
+            }
+            mAddrs = new byte[rows * ADDR_WIDTH];
+            mAddrLens = new byte[rows];
+            mPorts = new int[rows];
+            mLastSeen = new long[rows];
+            mSockAddrs = new AtomicReferenceArray<InetSocketAddress>(rows);
+        }
+
+        Columns grow(int rows){
+            Columns c = new Columns(rows);
+            int n = mRows;
+            for(int row = 0; row < n; ++row){
+                c.mSuIds.lazySet(row, mSuIds.get(row));
+                c.mSockAddrs.lazySet(row, mSockAddrs.get(row));
+            }
+            System.arraycopy(mAddrs, 0, c.mAddrs, 0, n * ADDR_WIDTH);
+            System.arraycopy(mAddrLens, 0, c.mAddrLens, 0, n);
+            System.arraycopy(mPorts, 0, c.mPorts, 0, n);
+            System.arraycopy(mLastSeen, 0, c.mLastSeen, 0, n);
+            return c;
+        }
+
+        final int mRows;
+        /** written last by online(), first by offline() */
+        final AtomicLongArray mSuIds;
+        final byte[] mAddrs;
+        final byte[] mAddrLens;
+        final int[] mPorts;
+        final long[] mLastSeen;
+        final AtomicReferenceArray<InetSocketAddress> mSockAddrs;
+    }
+
+    private int allocateRow(){
+        if(mFreeSize > 0){
+            return mFree[--mFreeSize];
+        }
+        Columns c = mColumns;
+        if(mNextRow == c.mRows){
+            mColumns = c.grow(c.mRows * 2);
+        }
+        return mNextRow++;
+    }
+
+    /////////////////////////// su_id -> row index, open addressing //////////////////
+    private void indexPut(long su_id, int row){
+        int mask = mIndexKeys.length - 1;
+        int i = slotOf(su_id, mask);
+        while(mIndexRows[i] != 0){
+            i = (i + 1) & mask;
+        }
+        mIndexKeys[i] = su_id;
+        mIndexRows[i] = row + 1;
+        if(++mIndexSize > mIndexKeys.length * LOAD_FACTOR){
+            rehash(mIndexKeys.length << 1);
+        }
+    }
+
+    private int indexRemove(long su_id){
+        int mask = mIndexKeys.length - 1;
+        for(int i = slotOf(su_id, mask); mIndexRows[i] != 0; i = (i + 1) & mask){
+            if(mIndexKeys[i] == su_id){
+                int row = mIndexRows[i] - 1;
+                shiftBack(i, mask);
+                --mIndexSize;
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /** close the gap at a removed slot, see LongObjectMap */
+    private void shiftBack(int gap, int mask){
+        int i = gap;
+        while(true){
+            i = (i + 1) & mask;
+            if(mIndexRows[i] == 0){
+                break;
+            }
+            int home = slotOf(mIndexKeys[i], mask);
+            boolean stay = (gap <= i) ? (gap < home && home <= i) : (gap < home || home <= i);
+            if(!stay){
+                mIndexKeys[gap] = mIndexKeys[i];
+                mIndexRows[gap] = mIndexRows[i];
+                gap = i;
+            }
+        }
+        mIndexRows[gap] = 0;
+    }
+
+    private void rehash(int capacity){
+        long[] keys = mIndexKeys;
+        int[] rows = mIndexRows;
+        mIndexKeys = new long[capacity];
+        mIndexRows = new int[capacity];
+        int mask = capacity - 1;
+        for(int j = 0; j < keys.length; ++j){
+            if(rows[j] != 0){
+                int i = slotOf(keys[j], mask);
+                while(mIndexRows[i] != 0){
+                    i = (i + 1) & mask;
+                }
+                mIndexKeys[i] = keys[j];
+                mIndexRows[i] = rows[j];
+            }
+        }
+    }
+
+    private static int slotOf(long key, int mask){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    private volatile Columns mColumns;
+    private int mNextRow = 0;
+    private int[] mFree;
+    private int mFreeSize = 0;
+    private long[] mIndexKeys;
+    /** row + 1 per slot, 0 for a free slot */
+    private int[] mIndexRows;
+    private int mIndexSize = 0;
+
+    /** su_id of a free row */
+    static final long NO_SU = Long.MIN_VALUE;
+    /** bytes of address column per row, big enough for IPv6 */
+    static final int ADDR_WIDTH = 16;
+    private static final int MIN_ROWS = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+}
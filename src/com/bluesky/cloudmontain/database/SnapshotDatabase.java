@@ -0,0 +1,103 @@
+package com.bluesky.cloudmontain.database;
+
+import com.bluesky.common.SubscriberDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/** subscriber database backed by a memory-mapped SubscriberSnapshot
+ *  - subscribers, groups and membership come from the snapshot, nothing is loaded, lookups
+ *    go through its primitive hash indexes, nothing is boxed per frame
+ *  - online addresses are kept here, by su_id
+ *  - snapshot can be replaced while running, see reload()
+ */
+public class SnapshotDatabase extends SubscriberDatabase {
+    public SnapshotDatabase(SubscriberSnapshot snapshot){
+        mSnapshot = snapshot;
+    }
+
+    /** @throws IOException if file is not a valid snapshot */
+    public static SnapshotDatabase open(File file) throws IOException {
+        return new SnapshotDatabase(SubscriberSnapshot.open(file));
+    }
+
+    public SubscriberSnapshot snapshot(){
+        return mSnapshot;
+    }
+
+    /** replace snapshot, lookups see the new one right away, subscribers which are gone
+     *  are dropped from online ones
+     * @return what has changed
+     */
+    public SnapshotDiff reload(SubscriberSnapshot next){
+        return reload(next, SnapshotDiff.between(mSnapshot, next));
+    }
+
+    /** replace snapshot, by a diff computed beforehand, e.g. off a latency sensitive thread
+     * @param diff from current snapshot to next
+     * @return diff
+     */
+    public SnapshotDiff reload(SubscriberSnapshot next, SnapshotDiff diff){
+        mSnapshot = next;
+        long[] removed = diff.removedSubscribers();
+        synchronized (mOnline){
+            for(long su_id : removed){
+                mOnline.remove(su_id);
+            }
+        }
+        return diff;
+    }
+
+    @Override
+    public boolean hasSubscriber(long su_id){
+        return mSnapshot.hasSubscriber(su_id);
+    }
+
+    @Override
+    public boolean hasGroup(long grp_id){
+        return mSnapshot.hasGroup(grp_id);
+    }
+
+    @Override
+    public boolean isGroupMember(long su_id, long grp_id){
+        return mSnapshot.isGroupMember(su_id, grp_id);
+    }
+
+    @Override
+    public void online(long su_id, InetSocketAddress addr){
+        if(!mSnapshot.hasSubscriber(su_id)){
+            return;
+        }
+        synchronized (mOnline){
+            mOnline.put(su_id, addr);
+        }
+    }
+
+    @Override
+    public void offline(long su_id){
+        synchronized (mOnline){
+            mOnline.remove(su_id);
+        }
+    }
+
+    @Override
+    public List<OnlineRecord> getOnlineMembers(long grp_id){
+        long[] sus = mSnapshot.membersOf(grp_id);
+        List<OnlineRecord> members = new ArrayList<OnlineRecord>();
+        synchronized (mOnline){
+            for(long su_id : sus){
+                InetSocketAddress addr = mOnline.get(su_id);
+                if(addr != null){
+                    members.add(new OnlineRecord(su_id, addr));
+                }
+            }
+        }
+        return members;
+    }
+
+    private volatile SubscriberSnapshot mSnapshot;
+    private final LongObjectMap<InetSocketAddress> mOnline = new LongObjectMap<InetSocketAddress>();
+}
@@ -0,0 +1,160 @@
+package com.bluesky.cloudmontain.database;
+
+import java.util.Arrays;
+
+/** difference between two subscriber snapshots, what a hot reload has to patch
+ *  - computed by walking sorted ids of both snapshots side by side, so it costs one pass,
+ *    and nothing is indexed again
+ *  - memberships of added or removed subscribers are counted as added or removed too
+ */
+public class SnapshotDiff {
+    public static SnapshotDiff between(SubscriberSnapshot from, SubscriberSnapshot to){
+        SnapshotDiff diff = new SnapshotDiff();
+        diff.diffGroups(from, to);
+        diff.diffSubscribers(from, to);
+        return diff;
+    }
+
+    public boolean isEmpty(){
+        return mAddedSubs.mSize == 0 && mRemovedSubs.mSize == 0
+                && mAddedGroups.mSize == 0 && mRemovedGroups.mSize == 0
+                && mJoinedSus.mSize == 0 && mLeftSus.mSize == 0;
+    }
+
+    public long[] addedSubscribers(){
+        return mAddedSubs.toArray();
+    }
+
+    public long[] removedSubscribers(){
+        return mRemovedSubs.toArray();
+    }
+
+    public long[] addedGroups(){
+        return mAddedGroups.toArray();
+    }
+
+    public long[] removedGroups(){
+        return mRemovedGroups.toArray();
+    }
+
+    /** number of memberships added, see joinedSu()/joinedGroup() */
+    public int joinCount(){
+        return mJoinedSus.mSize;
+    }
+
+    public long joinedSu(int i){
+        return mJoinedSus.mIds[i];
+    }
+
+    public long joinedGroup(int i){
+        return mJoinedGroups.mIds[i];
+    }
+
+    /** number of memberships removed, see leftSu()/leftGroup() */
+    public int leaveCount(){
+        return mLeftSus.mSize;
+    }
+
+    public long leftSu(int i){
+        return mLeftSus.mIds[i];
+    }
+
+    public long leftGroup(int i){
+        return mLeftGroups.mIds[i];
+    }
+
+    @Override
+    public String toString(){
+        return "subscribers +" + mAddedSubs.mSize + "/-" + mRemovedSubs.mSize
+                + ", groups +" + mAddedGroups.mSize + "/-" + mRemovedGroups.mSize
+                + ", memberships +" + mJoinedSus.mSize + "/-" + mLeftSus.mSize;
+    }
+
+    private void diffGroups(SubscriberSnapshot from, SubscriberSnapshot to){
+        long[] a = from.groups();
+        long[] b = to.groups();
+        int i = 0, j = 0;
+        while(i < a.length || j < b.length){
+            if(j == b.length || (i < a.length && a[i] < b[j])){
+                mRemovedGroups.add(a[i++]);
+            } else if(i == a.length || b[j] < a[i]){
+                mAddedGroups.add(b[j++]);
+            } else {
+                ++i;
+                ++j;
+            }
+        }
+    }
+
+    private void diffSubscribers(SubscriberSnapshot from, SubscriberSnapshot to){
+        long[] a = from.subscribers();
+        long[] b = to.subscribers();
+        int i = 0, j = 0;
+        while(i < a.length || j < b.length){
+            if(j == b.length || (i < a.length && a[i] < b[j])){
+                long su = a[i++];
+                mRemovedSubs.add(su);
+                diffMemberships(su, from.groupsOf(su), NONE);
+            } else if(i == a.length || b[j] < a[i]){
+                long su = b[j++];
+                mAddedSubs.add(su);
+                diffMemberships(su, NONE, to.groupsOf(su));
+            } else {
+                long su = a[i];
+                diffMemberships(su, from.groupsOf(su), to.groupsOf(su));
+                ++i;
+                ++j;
+            }
+        }
+    }
+
+    /** @param a groups of su before, ascending, b groups after */
+    private void diffMemberships(long su, long[] a, long[] b){
+        if(Arrays.equals(a, b)){
+            return;
+        }
+        int i = 0, j = 0;
+        while(i < a.length || j < b.length){
+            if(j == b.length || (i < a.length && a[i] < b[j])){
+                mLeftSus.add(su);
+                mLeftGroups.add(a[i++]);
+            } else if(i == a.length || b[j] < a[i]){
+                mJoinedSus.add(su);
+                mJoinedGroups.add(b[j++]);
+            } else {
+                ++i;
+                ++j;
+            }
+        }
+    }
+
+    /** growable array of ids */
+    private static class Ids {
+        void add(long id){
+            if(mSize == mIds.length){
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+
+        long[] toArray(){
+            return Arrays.copyOf(mIds, mSize);
+        }
+
+        long[] mIds = new long[16];
+        int mSize = 0;
+    }
+
+    private final Ids mAddedSubs = new Ids();
+    private final Ids mRemovedSubs = new Ids();
+    private final Ids mAddedGroups = new Ids();
+    private final Ids mRemovedGroups = new Ids();
+    /** memberships added, su and group at the same index */
+    private final Ids mJoinedSus = new Ids();
+    private final Ids mJoinedGroups = new Ids();
+    /** memberships removed, su and group at the same index */
+    private final Ids mLeftSus = new Ids();
+    private final Ids mLeftGroups = new Ids();
+
+    private static final long[] NONE = new long[0];
+}
@@ -0,0 +1,385 @@
+package com.bluesky.cloudmontain.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/** streaming loader of json subscriber config, into a SubscriberSnapshot
+ *  - config is read token by token, ids go straight into primitive arrays of a
+ *    SubscriberSnapshot.Builder, no document tree, no boxing
+ *  - membership index is built in parallel partitions on a fork-join pool, for large
+ *    configs, see SubscriberSnapshot.Builder
+ *  - load time and peak heap of last load are kept, for startup report
+ *
+ *  config layout:
+ *      { "groups":      [ { "id": 1000, ... }, ... ],
+ *        "subscribers": [ { "id": 100, "belongs": [1000, ...], ... }, ... ] }
+ *  other keys are skipped, wherever they are
+ */
+public class SubscriberLoader {
+    /** @param pool to build membership index with, null to build on the calling thread */
+    public SubscriberLoader(ForkJoinPool pool){
+        mPool = pool;
+    }
+
+    /** @throws IOException if config can't be read, or is malformed */
+    public SnapshotDatabase load(File json) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(json), "UTF-8");
+        try {
+            return load(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public SnapshotDatabase load(Reader reader) throws IOException {
+        return new SnapshotDatabase(SubscriberSnapshot.wrap(build(reader)));
+    }
+
+    /** convert config into a snapshot file, see SnapshotConverter */
+    public void convert(File json, File snapshot) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(json), "UTF-8");
+        try {
+            parse(reader).write(snapshot, mPool);
+        } finally {
+            reader.close();
+        }
+        finishReport();
+    }
+
+    /** @return time taken by last load, in ms */
+    public long loadMs(){
+        return mLoadMs;
+    }
+
+    /** @return peak heap during last load, in bytes, an upper bound, as it sums peaks of
+     *  heap pools, -1 if it's not known */
+    public long peakHeapBytes(){
+        return mPeakHeap;
+    }
+
+    private ByteBuffer build(Reader reader) throws IOException {
+        ByteBuffer snapshot = parse(reader).build(mPool);
+        finishReport();
+        return snapshot;
+    }
+
+    private SubscriberSnapshot.Builder parse(Reader reader) throws IOException {
+        mStart = System.nanoTime();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP && pool.isValid()){
+                pool.resetPeakUsage();
+            }
+        }
+        mIn = reader;
+        mPos = mLimit = 0;
+        mLine = 1;
+        SubscriberSnapshot.Builder builder = new SubscriberSnapshot.Builder();
+
+        expect('{');
+        if(!tryNext('}')){
+            do {
+                readKey();
+                if(KEY_GROUPS.contentEquals(mKey)){
+                    readGroups(builder);
+                } else if(KEY_SUBSCRIBERS.contentEquals(mKey)){
+                    readSubscribers(builder);
+                } else {
+                    skipValue();
+                }
+            } while(tryNext(','));
+            expect('}');
+        }
+        mIn = null;
+        return builder;
+    }
+
+    private void finishReport(){
+        mLoadMs = (System.nanoTime() - mStart) / 1000000;
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null){
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        mPeakHeap = peak > 0 ? peak : -1;
+    }
+
+    private void readGroups(SubscriberSnapshot.Builder builder) throws IOException {
+        expect('[');
+        if(tryNext(']')){
+            return;
+        }
+        do {
+            long id = NO_ID;
+            expect('{');
+            if(!tryNext('}')){
+                do {
+                    readKey();
+                    if(KEY_ID.contentEquals(mKey)){
+                        id = readLong();
+                    } else {
+                        skipValue();
+                    }
+                } while(tryNext(','));
+                expect('}');
+            }
+            if(id == NO_ID){
+                throw error("group without " + KEY_ID);
+            }
+            builder.addGroup(id);
+        } while(tryNext(','));
+        expect(']');
+    }
+
+    private void readSubscribers(SubscriberSnapshot.Builder builder) throws IOException {
+        expect('[');
+        if(tryNext(']')){
+            return;
+        }
+        do {
+            long id = NO_ID;
+            int belongs = 0;
+            expect('{');
+            if(!tryNext('}')){
+                do {
+                    readKey();
+                    if(KEY_ID.contentEquals(mKey)){
+                        id = readLong();
+                    } else if(KEY_BELONGS.contentEquals(mKey)){
+                        belongs = readBelongs();
+                    } else {
+                        skipValue();
+                    }
+                } while(tryNext(','));
+                expect('}');
+            }
+            if(id == NO_ID){
+                throw error("subscriber without " + KEY_ID);
+            }
+            builder.addSubscriber(id, mBelongs, belongs);
+        } while(tryNext(','));
+        expect(']');
+    }
+
+    /** @return number of groups read into mBelongs */
+    private int readBelongs() throws IOException {
+        expect('[');
+        if(tryNext(']')){
+            return 0;
+        }
+        int n = 0;
+        do {
+            if(n == mBelongs.length){
+                mBelongs = Arrays.copyOf(mBelongs, n * 2);
+            }
+            mBelongs[n++] = readLong();
+        } while(tryNext(','));
+        expect(']');
+        return n;
+    }
+
+    /////////////////////////// tokens //////////////////////////////////////////////
+    /** read "key" : into mKey */
+    private void readKey() throws IOException {
+        expect('"');
+        mKey.setLength(0);
+        readString(mKey);
+        expect(':');
+    }
+
+    /** read rest of a string, after its opening quote, into sb, null to skip it */
+    private void readString(StringBuilder sb) throws IOException {
+        while(true){
+            int c = read();
+            if(c == '"'){
+                return;
+            }
+            if(c == '\\'){
+                c = read();
+                switch (c){
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        c = 0;
+                        for(int i = 0; i < 4; ++i){
+                            int d = Character.digit(read(), 16);
+                            if(d < 0){
+                                throw error("bad unicode escape");
+                            }
+                            c = (c << 4) | d;
+                        }
+                        break;
+                    default:
+                        // '"', '\\', '/'
+                        if(c < 0){
+                            throw error("unterminated string");
+                        }
+                        break;
+                }
+            } else if(c < 0){
+                throw error("unterminated string");
+            }
+            if(sb != null){
+                sb.append((char)c);
+            }
+        }
+    }
+
+    /** read an integer, ids are never fractions */
+    private long readLong() throws IOException {
+        int c = next();
+        boolean negative = c == '-';
+        if(negative){
+            c = read();
+        }
+        if(c < '0' || c > '9'){
+            throw error("number expected");
+        }
+        long v = 0;
+        do {
+            long d = c - '0';
+            if(v > (Long.MAX_VALUE - d) / 10){
+                throw error("number out of range");
+            }
+            v = v * 10 + d;
+            c = read();
+        } while(c >= '0' && c <= '9');
+        if(c == '.' || c == 'e' || c == 'E'){
+            throw error("integer expected");
+        }
+        unread();
+        return negative ? -v : v;
+    }
+
+    private void skipValue() throws IOException {
+        int c = next();
+        switch (c){
+            case '"':
+                readString(null);
+                break;
+            case '{':
+                if(!tryNext('}')){
+                    do {
+                        expect('"');
+                        readString(null);
+                        expect(':');
+                        skipValue();
+                    } while(tryNext(','));
+                    expect('}');
+                }
+                break;
+            case '[':
+                if(!tryNext(']')){
+                    do {
+                        skipValue();
+                    } while(tryNext(','));
+                    expect(']');
+                }
+                break;
+            default:
+                if(c < 0){
+                    throw error("unexpected end");
+                }
+                // number, true, false or null
+                while(c >= 0 && c != ',' && c != '}' && c != ']' && !isSpace(c)){
+                    c = read();
+                }
+                unread();
+                break;
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = next();
+        if(c != expected){
+            throw error("'" + expected + "' expected, got " + (c < 0 ? "end" : "'" + (char)c + "'"));
+        }
+    }
+
+    /** @return true if next token is c, consumed then */
+    private boolean tryNext(char expected) throws IOException {
+        if(next() == expected){
+            return true;
+        }
+        unread();
+        return false;
+    }
+
+    /** @return next char which is not white space, -1 at end */
+    private int next() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while(isSpace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        if(mPos == mLimit){
+            mLimit = mIn.read(mBuf, 0, mBuf.length);
+            mPos = 0;
+            if(mLimit <= 0){
+                mLimit = 0;
+                mEof = true;
+                return -1;
+            }
+        }
+        mEof = false;
+        char c = mBuf[mPos++];
+        if(c == '\n'){
+            ++mLine;
+        }
+        return c;
+    }
+
+    /** push back last char read, once */
+    private void unread(){
+        if(!mEof){
+            if(mBuf[--mPos] == '\n'){
+                --mLine;
+            }
+        }
+    }
+
+    private static boolean isSpace(int c){
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException error(String msg){
+        return new IOException("line " + mLine + ": " + msg);
+    }
+
+    private final ForkJoinPool mPool;
+
+    private Reader mIn;
+    private final char[] mBuf = new char[BUFFER_SIZE];
+    private int mPos;
+    private int mLimit;
+    private boolean mEof;
+    private int mLine;
+    private final StringBuilder mKey = new StringBuilder();
+    private long[] mBelongs = new long[16];
+
+    private long mStart;
+    private long mLoadMs = 0;
+    private long mPeakHeap = -1;
+
+    private static final long NO_ID = Long.MIN_VALUE;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String KEY_GROUPS      = "groups";
+    private static final String KEY_SUBSCRIBERS = "subscribers";
+    private static final String KEY_BELONGS     = "belongs";
+    private static final String KEY_ID          = "id";
+}
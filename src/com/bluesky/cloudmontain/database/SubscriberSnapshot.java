@@ -0,0 +1,561 @@
+package com.bluesky.cloudmontain.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** compiled subscriber database, a binary file which is memory-mapped and used as it is
+ *  - subscribers and groups are sorted id arrays, membership is kept both ways, as
+ *    sorted id arrays sliced by offsets
+ *  - subscribers and groups are found by primitive hash indexes built on the heap at open,
+ *    see LongIntIndex, membership is then a binary search in the few groups of an su,
+ *    nothing is boxed nor allocated per lookup
+ *  - opening it costs a header check and building the indexes, 12 bytes per slot at
+ *    half load, nothing else is parsed nor copied onto the heap, pages are faulted in as
+ *    they're touched
+ *  - read only, safe for any number of threads
+ *
+ *  layout, big endian, sections 8 bytes aligned:
+ *      header       magic, version, subscriber count, group count, membership count
+ *      subIds       long[subscribers]
+ *      subOffsets   int[subscribers + 1], into subGroups
+ *      subGroups    long[memberships]
+ *      groupIds     long[groups]
+ *      groupOffsets int[groups + 1], into groupMembers
+ *      groupMembers long[memberships]
+ */
+public class SubscriberSnapshot {
+    /** @return true if file starts as a snapshot */
+    public static boolean isSnapshot(File file){
+        byte[] magic = new byte[4];
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                if(in.read(magic) != magic.length){
+                    return false;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e){
+            return false;
+        }
+        return ByteBuffer.wrap(magic).getInt() == MAGIC;
+    }
+
+    /** map snapshot file
+     * @throws IOException if it's not a valid snapshot
+     */
+    public static SubscriberSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SubscriberSnapshot(map, file.getPath());
+        } finally {
+            // mapping stays valid after close
+            raf.close();
+        }
+    }
+
+    /** snapshot in memory, e.g. built from json, see Builder.build()
+     * @throws IOException if it's not a valid snapshot
+     */
+    public static SubscriberSnapshot wrap(ByteBuffer buffer) throws IOException {
+        return new SubscriberSnapshot(buffer.slice(), "buffer");
+    }
+
+    private SubscriberSnapshot(ByteBuffer map, String file) throws IOException {
+        if(map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC){
+            throw new IOException(file + " is not a subscriber snapshot");
+        }
+        if(map.getInt(4) != VERSION){
+            throw new IOException(file + ": unsupported snapshot version " + map.getInt(4));
+        }
+        int subs = map.getInt(8);
+        int groups = map.getInt(12);
+        long memberships = map.getLong(16);
+        long size = sizeOf(subs, groups, memberships);
+        if(subs < 0 || groups < 0 || memberships < 0 || memberships > Integer.MAX_VALUE || size != map.capacity()){
+            throw new IOException(file + ": corrupted snapshot, size " + map.capacity() + ", exp " + size);
+        }
+        int m = (int)memberships;
+
+        int pos = HEADER_SIZE;
+        mSubIds = longs(map, pos, subs);
+        pos += align(subs * 8L);
+        mSubOffsets = ints(map, pos, subs + 1);
+        pos += align((subs + 1) * 4L);
+        mSubGroups = longs(map, pos, m);
+        pos += align(m * 8L);
+        mGroupIds = longs(map, pos, groups);
+        pos += align(groups * 8L);
+        mGroupOffsets = ints(map, pos, groups + 1);
+        pos += align((groups + 1) * 4L);
+        mGroupMembers = longs(map, pos, m);
+        mSubIndex = LongIntIndex.of(mSubIds);
+        mGroupIndex = LongIntIndex.of(mGroupIds);
+    }
+
+    public int subscriberCount(){
+        return mSubIds.limit();
+    }
+
+    public int groupCount(){
+        return mGroupIds.limit();
+    }
+
+    public boolean hasSubscriber(long su_id){
+        return mSubIndex.get(su_id) >= 0;
+    }
+
+    public boolean hasGroup(long grp_id){
+        return mGroupIndex.get(grp_id) >= 0;
+    }
+
+    /** groups of an su are searched, rather than members of a group, they're far fewer */
+    public boolean isGroupMember(long su_id, long grp_id){
+        int sub = mSubIndex.get(su_id);
+        if(sub < 0){
+            return false;
+        }
+        return search(mSubGroups, mSubOffsets.get(sub), mSubOffsets.get(sub + 1), grp_id) >= 0;
+    }
+
+    /** @return number of members of group, 0 if there's no such group */
+    public int memberCount(long grp_id){
+        int grp = mGroupIndex.get(grp_id);
+        return grp < 0 ? 0 : mGroupOffsets.get(grp + 1) - mGroupOffsets.get(grp);
+    }
+
+    /** @return members of group, ascending */
+    public long[] membersOf(long grp_id){
+        int grp = mGroupIndex.get(grp_id);
+        if(grp < 0){
+            return new long[0];
+        }
+        int from = mGroupOffsets.get(grp);
+        long[] members = new long[mGroupOffsets.get(grp + 1) - from];
+        for(int i = 0; i < members.length; ++i){
+            members[i] = mGroupMembers.get(from + i);
+        }
+        return members;
+    }
+
+    /** @return groups su belongs to, ascending */
+    public long[] groupsOf(long su_id){
+        int sub = mSubIndex.get(su_id);
+        if(sub < 0){
+            return new long[0];
+        }
+        int from = mSubOffsets.get(sub);
+        long[] groups = new long[mSubOffsets.get(sub + 1) - from];
+        for(int i = 0; i < groups.length; ++i){
+            groups[i] = mSubGroups.get(from + i);
+        }
+        return groups;
+    }
+
+    /** @return all subscriber ids, ascending */
+    public long[] subscribers(){
+        long[] ids = new long[mSubIds.limit()];
+        for(int i = 0; i < ids.length; ++i){
+            ids[i] = mSubIds.get(i);
+        }
+        return ids;
+    }
+
+    /** @return all group ids, ascending */
+    public long[] groups(){
+        long[] ids = new long[mGroupIds.limit()];
+        for(int i = 0; i < ids.length; ++i){
+            ids[i] = mGroupIds.get(i);
+        }
+        return ids;
+    }
+
+    /** builds a snapshot, e.g. from json config, see SubscriberLoader
+     *  - membership index is built in partitions of subscribers, in parallel if a pool is
+     *    given, each partition counts and fills its own share of every group
+     */
+    public static class Builder {
+        public Builder addGroup(long grp_id){
+            mGroups = grow(mGroups, mGroupCount, 1);
+            mGroups[mGroupCount++] = grp_id;
+            return this;
+        }
+
+        /** @param belongs groups of subscriber, unknown groups are ignored at build */
+        public Builder addSubscriber(long su_id, long[] belongs){
+            return addSubscriber(su_id, belongs, belongs.length);
+        }
+
+        /** @param n number of groups in belongs */
+        public Builder addSubscriber(long su_id, long[] belongs, int n){
+            mSubs = grow(mSubs, mSubCount, 1);
+            mSubs[mSubCount] = su_id;
+            mBelongs = grow(mBelongs, mBelongSize, n);
+            System.arraycopy(belongs, 0, mBelongs, mBelongSize, n);
+            mBelongSize += n;
+            if(mBelongEnds.length == mSubCount){
+                mBelongEnds = Arrays.copyOf(mBelongEnds, mSubCount * 2);
+            }
+            mBelongEnds[mSubCount++] = mBelongSize;
+            return this;
+        }
+
+        public int subscriberCount(){
+            return mSubCount;
+        }
+
+        public int groupCount(){
+            return mGroupCount;
+        }
+
+        /** write snapshot file, built on the calling thread */
+        public void write(File file) throws IOException {
+            write(file, null);
+        }
+
+        /** @param pool to build membership index with, null to build on the calling thread */
+        public void write(File file, ForkJoinPool pool) throws IOException {
+            ByteBuffer out = build(pool);
+            // write to a temp file, then move, a crash never leaves a half snapshot
+            File tmp = new File(file.getPath() + ".tmp");
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                raf.setLength(0);
+                FileChannel channel = raf.getChannel();
+                while(out.hasRemaining()){
+                    channel.write(out);
+                }
+                channel.force(true);
+            } finally {
+                raf.close();
+            }
+            if(!tmp.renameTo(file)){
+                if(!file.delete() || !tmp.renameTo(file)){
+                    throw new IOException("failed to move " + tmp + " to " + file);
+                }
+            }
+        }
+
+        /** build snapshot in memory, see SubscriberSnapshot.wrap()
+         * @param pool to build membership index with, null to build on the calling thread
+         * @throws IOException if a subscriber is defined twice
+         */
+        public ByteBuffer build(ForkJoinPool pool) throws IOException {
+            final long[] groupIds = distinct(sorted(mGroups, mGroupCount));
+            final int n = mSubCount;
+            final int[] order = sortedOrder(mSubs, n);
+            for(int k = 1; k < n; ++k){
+                if(mSubs[order[k]] == mSubs[order[k - 1]]){
+                    throw new IOException("duplicated subscriber " + mSubs[order[k]]);
+                }
+            }
+
+            int parts = 1;
+            if(pool != null && n >= PARALLEL_THRESHOLD){
+                parts = Math.max(1, Math.min(pool.getParallelism(), n / MIN_PARTITION));
+            }
+            final Partition[] partitions = new Partition[parts];
+            for(int p = 0; p < parts; ++p){
+                partitions[p] = new Partition((int)((long)n * p / parts), (int)((long)n * (p + 1) / parts));
+            }
+
+            // each partition resolves groups of its subscribers, and counts its share of groups
+            forEach(pool, partitions, new PartitionTask() {
+                @Override
+                public void run(Partition part) {
+                    part.resolve(order, groupIds);
+                }
+            });
+
+            // lay partitions out one after another, in every group as well
+            int memberships = 0;
+            for(Partition part : partitions){
+                part.mBase = memberships;
+                memberships += part.mSize;
+            }
+            final int[] groupOffsets = new int[groupIds.length + 1];
+            for(int g = 0; g < groupIds.length; ++g){
+                int pos = groupOffsets[g];
+                for(Partition part : partitions){
+                    int count = part.mGroupCounts[g];
+                    part.mGroupCounts[g] = pos;
+                    pos += count;
+                }
+                groupOffsets[g + 1] = pos;
+            }
+
+            final ByteBuffer out = ByteBuffer.allocate((int)sizeOf(n, groupIds.length, memberships));
+            out.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(groupIds.length).putLong(memberships);
+            final int subIdsPos = HEADER_SIZE;
+            final int subOffsetsPos = subIdsPos + align(n * 8L);
+            final int subGroupsPos = subOffsetsPos + align((n + 1) * 4L);
+            final int groupIdsPos = subGroupsPos + align(memberships * 8L);
+            final int groupOffsetsPos = groupIdsPos + align(groupIds.length * 8L);
+            final int membersPos = groupOffsetsPos + align((groupIds.length + 1) * 4L);
+
+            // partitions write disjoint parts of the buffer, absolute puts only
+            forEach(pool, partitions, new PartitionTask() {
+                @Override
+                public void run(Partition part) {
+                    int at = part.mBase;
+                    int next = 0;
+                    for(int k = part.mFrom; k < part.mTo; ++k){
+                        long su_id = mSubs[order[k]];
+                        out.putLong(subIdsPos + k * 8, su_id);
+                        out.putInt(subOffsetsPos + k * 4, at);
+                        for(int end = next + part.mKnown[k - part.mFrom]; next < end; ++next, ++at){
+                            int g = part.mGroupIdx[next];
+                            out.putLong(subGroupsPos + at * 8, groupIds[g]);
+                            out.putLong(membersPos + (part.mGroupCounts[g]++) * 8, su_id);
+                        }
+                    }
+                }
+            });
+            out.putInt(subOffsetsPos + n * 4, memberships);
+            for(int g = 0; g < groupIds.length; ++g){
+                out.putLong(groupIdsPos + g * 8, groupIds[g]);
+            }
+            for(int g = 0; g <= groupIds.length; ++g){
+                out.putInt(groupOffsetsPos + g * 4, groupOffsets[g]);
+            }
+            out.clear();
+            return out;
+        }
+
+        /** subscribers [from, to) of sorted order */
+        private class Partition {
+            Partition(int from, int to){
+                mFrom = from;
+                mTo = to;
+            }
+
+            /** sort, dedup and filter groups of each subscriber, into group indexes */
+            void resolve(int[] order, long[] groupIds){
+                int raw = 0;
+                for(int k = mFrom; k < mTo; ++k){
+                    int i = order[k];
+                    raw += mBelongEnds[i] - belongStart(i);
+                }
+                mGroupIdx = new int[raw];
+                mKnown = new int[mTo - mFrom];
+                mGroupCounts = new int[groupIds.length];
+                long[] scratch = new long[16];
+                for(int k = mFrom; k < mTo; ++k){
+                    int i = order[k];
+                    int from = belongStart(i);
+                    int len = mBelongEnds[i] - from;
+                    scratch = grow(scratch, 0, len);
+                    System.arraycopy(mBelongs, from, scratch, 0, len);
+                    Arrays.sort(scratch, 0, len);
+                    int known = 0;
+                    for(int j = 0; j < len; ++j){
+                        if(j > 0 && scratch[j] == scratch[j - 1]){
+                            continue;
+                        }
+                        int g = Arrays.binarySearch(groupIds, scratch[j]);
+                        if(g >= 0){
+                            mGroupIdx[mSize++] = g;
+                            ++mGroupCounts[g];
+                            ++known;
+                        }
+                    }
+                    mKnown[k - mFrom] = known;
+                }
+            }
+
+            final int mFrom;
+            final int mTo;
+            /** groups of partition's subscribers, one after another */
+            int[] mGroupIdx;
+            int mSize = 0;
+            /** known groups per subscriber */
+            int[] mKnown;
+            /** members per group, then where partition's members of a group start */
+            int[] mGroupCounts;
+            /** where partition's memberships start */
+            int mBase;
+        }
+
+        private interface PartitionTask {
+            void run(Partition part);
+        }
+
+        private static void forEach(ForkJoinPool pool, final Partition[] parts, final PartitionTask task){
+            if(pool == null || parts.length == 1){
+                for(Partition part : parts){
+                    task.run(part);
+                }
+                return;
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<RecursiveAction> actions = new ArrayList<RecursiveAction>(parts.length);
+                    for(final Partition part : parts){
+                        actions.add(new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                task.run(part);
+                            }
+                        });
+                    }
+                    invokeAll(actions);
+                }
+            });
+        }
+
+        private int belongStart(int i){
+            return i == 0 ? 0 : mBelongEnds[i - 1];
+        }
+
+        private static long[] grow(long[] ids, int size, int more){
+            if(size + more <= ids.length){
+                return ids;
+            }
+            return Arrays.copyOf(ids, Math.max(size + more, Math.max(16, ids.length * 2)));
+        }
+
+        private static long[] sorted(long[] ids, int n){
+            long[] copy = Arrays.copyOf(ids, n);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        private static long[] distinct(long[] sorted){
+            int n = 0;
+            for(int i = 0; i < sorted.length; ++i){
+                if(n == 0 || sorted[n - 1] != sorted[i]){
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+        }
+
+        /** @return indexes of keys[0, n), in ascending order of keys, by merge sort, no boxing */
+        private static int[] sortedOrder(long[] keys, int n){
+            int[] order = new int[n];
+            for(int i = 0; i < n; ++i){
+                order[i] = i;
+            }
+            // configs are mostly written in order already
+            boolean sorted = true;
+            for(int i = 1; i < n && sorted; ++i){
+                sorted = keys[i - 1] <= keys[i];
+            }
+            if(!sorted){
+                mergeSort(keys, order, new int[n], 0, n);
+            }
+            return order;
+        }
+
+        private static void mergeSort(long[] keys, int[] order, int[] tmp, int from, int to){
+            if(to - from <= 16){
+                for(int i = from + 1; i < to; ++i){
+                    int idx = order[i];
+                    int j = i - 1;
+                    while(j >= from && keys[order[j]] > keys[idx]){
+                        order[j + 1] = order[j];
+                        --j;
+                    }
+                    order[j + 1] = idx;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(keys, order, tmp, from, mid);
+            mergeSort(keys, order, tmp, mid, to);
+            System.arraycopy(order, from, tmp, from, to - from);
+            for(int i = from, l = from, r = mid; i < to; ++i){
+                if(r >= to || (l < mid && keys[tmp[l]] <= keys[tmp[r]])){
+                    order[i] = tmp[l++];
+                } else {
+                    order[i] = tmp[r++];
+                }
+            }
+        }
+
+        private long[] mGroups = new long[16];
+        private int mGroupCount = 0;
+        private long[] mSubs = new long[16];
+        private int mSubCount = 0;
+        /** groups of all subscribers, one after another, ends of each subscriber's */
+        private long[] mBelongs = new long[16];
+        private int mBelongSize = 0;
+        private int[] mBelongEnds = new int[16];
+
+        /** fewer subscribers are indexed on the calling thread */
+        private static final int PARALLEL_THRESHOLD = 64 * 1024;
+        private static final int MIN_PARTITION = 16 * 1024;
+    }
+
+    private static long sizeOf(int subs, int groups, long memberships){
+        return HEADER_SIZE
+                + align(subs * 8L) + align((subs + 1) * 4L) + align(memberships * 8L)
+                + align(groups * 8L) + align((groups + 1) * 4L) + align(memberships * 8L);
+    }
+
+    private static int align(long size){
+        return (int)((size + 7) & ~7L);
+    }
+
+    private static LongBuffer longs(ByteBuffer map, int pos, int count){
+        ByteBuffer dup = map.duplicate();
+        dup.position(pos);
+        dup.limit(pos + count * 8);
+        return dup.slice().asLongBuffer();
+    }
+
+    private static IntBuffer ints(ByteBuffer map, int pos, int count){
+        ByteBuffer dup = map.duplicate();
+        dup.position(pos);
+        dup.limit(pos + count * 4);
+        return dup.slice().asIntBuffer();
+    }
+
+    /** binary search of key in ids[from, to), absolute gets only, so it's thread safe */
+    private static int search(LongBuffer ids, int from, int to, long key){
+        int lo = from;
+        int hi = to - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            long id = ids.get(mid);
+            if(id < key){
+                lo = mid + 1;
+            } else if(id > key){
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private final LongBuffer mSubIds;
+    private final IntBuffer mSubOffsets;
+    private final LongBuffer mSubGroups;
+    private final LongBuffer mGroupIds;
+    private final IntBuffer mGroupOffsets;
+    private final LongBuffer mGroupMembers;
+    private final LongIntIndex mSubIndex;
+    private final LongIntIndex mGroupIndex;
+
+    /** "TSNP" */
+    static final int MAGIC = 0x54534E50;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+}
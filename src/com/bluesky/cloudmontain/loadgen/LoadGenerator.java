@@ -0,0 +1,370 @@
+package com.bluesky.cloudmontain.loadgen;
+
+import com.bluesky.cloudmontain.repeator.PacketHeader;
+import com.bluesky.common.GlobalConstants;
+import com.bluesky.common.OLog;
+import com.bluesky.common.XLog;
+import com.bluesky.protocol.CallData;
+import com.bluesky.protocol.CallInit;
+import com.bluesky.protocol.CallTerm;
+import com.bluesky.protocol.ProtocolBase;
+import com.bluesky.protocol.Registration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** load generator, simulating PTT radios on loopback against a running trunk center
+ *  - every su gets its own udp port, and registers first
+ *  - su i is member of group grpBase + i % groups; su/group ids have to be provisioned in
+ *    the trunk center's database
+ *  - each active group runs calls back to back: a random member sends call init preamble,
+ *    call data every 20ms for callMs, then call terms, and pauses for the call hang + pauseMs
+ *  - call data carries its send time in the audio, every receiving member measures forward
+ *    latency, and rfc3550 interarrival jitter of the stream; loss is what was expected at
+ *    all other members of the group, but never arrived
+ *
+ *  e.g. java -Dloadgen.subscribers=5000 -Dloadgen.groups=100 ... loadgen.LoadGenerator
+ */
+public class LoadGenerator {
+    public static class Configuration {
+        public InetSocketAddress trunk = new InetSocketAddress("127.0.0.1", GlobalConstants.TRUNK_CENTER_PORT);
+        public int subscribers      = 1000;
+        public int groups           = 50;
+        /** groups running calls, the others just listen */
+        public int activeGroups     = 50;
+        public long suBase          = 1000;
+        public long grpBase         = 100;
+        public long callMs          = 5000;
+        public long pauseMs         = 1000;
+        public long durationMs      = 60 * 1000;
+        public int registrationsPerSecond = 2000;
+    }
+
+    public LoadGenerator(Configuration config, OLog logger){
+        mConfig = config;
+        mLogger = logger;
+    }
+
+    /** run load for configured duration, then print summary */
+    public void run() throws IOException {
+        openSus();
+        Receiver receiver = new Receiver();
+        Thread rxThread = new Thread(receiver, "loadgen-rx");
+        rxThread.setDaemon(true);
+        rxThread.start();
+        try {
+            register();
+            runCalls();
+        } finally {
+            receiver.stop();
+            for(SimulatedSu su : mSus){
+                su.close();
+            }
+        }
+        mLogger.i(TAG, "summary: " + report());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration config = new Configuration();
+        String trunk = System.getProperty("loadgen.trunk");
+        if(trunk != null){
+            int colon = trunk.lastIndexOf(':');
+            config.trunk = new InetSocketAddress(trunk.substring(0, colon), Integer.parseInt(trunk.substring(colon + 1)));
+        }
+        config.subscribers = Integer.getInteger("loadgen.subscribers", config.subscribers);
+        config.groups = Integer.getInteger("loadgen.groups", config.groups);
+        config.activeGroups = Integer.getInteger("loadgen.activeGroups", Math.min(config.activeGroups, config.groups));
+        config.suBase = Long.getLong("loadgen.suBase", config.suBase);
+        config.grpBase = Long.getLong("loadgen.grpBase", config.grpBase);
+        config.callMs = Long.getLong("loadgen.callMs", config.callMs);
+        config.pauseMs = Long.getLong("loadgen.pauseMs", config.pauseMs);
+        config.durationMs = Long.getLong("loadgen.durationMs", config.durationMs);
+        new LoadGenerator(config, new XLog()).run();
+    }
+
+    ////////////////////////////// su setup ///////////////////////////////////
+    private void openSus() throws IOException {
+        for(int i = 0; i < mConfig.subscribers; ++i){
+            mSus.add(new SimulatedSu(mConfig.suBase + i, mConfig.grpBase + i % mConfig.groups));
+        }
+        mLogger.i(TAG, mSus.size() + " sus opened");
+    }
+
+    private void register() throws IOException {
+        long gap = TimeUnit.SECONDS.toNanos(1) / mConfig.registrationsPerSecond;
+        long next = System.nanoTime();
+        short seq = 0;
+        for(SimulatedSu su : mSus){
+            Registration reg = new Registration(GlobalConstants.SUID_TRUNK_MANAGER, su.mSuId, ++seq);
+            ByteBuffer frame = ByteBuffer.allocate(reg.getSize());
+            reg.serialize(frame);
+            frame.flip();
+            su.send(frame, mConfig.trunk);
+            next += gap;
+            parkUntil(next);
+        }
+        // let replies settle
+        parkUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        mLogger.i(TAG, "registered, replies=" + mReplies.get() + "/" + mSus.size());
+    }
+
+    ////////////////////////////// call pattern ///////////////////////////////
+
+    /** calls of a group, back to back, driven every packet interval */
+    private class GroupCall {
+        GroupCall(int grpIndex){
+            mGrpIndex = grpIndex;
+            mGrpId = mConfig.grpBase + grpIndex;
+            // members are grpIndex, grpIndex + groups, ...
+            mMembers = (mConfig.subscribers - grpIndex + mConfig.groups - 1) / mConfig.groups;
+            // stagger groups, so they don't all key up at once
+            mPhase = PHASE_PAUSE;
+            mFramesLeft = mRandom.nextInt((int)(mConfig.pauseMs / GlobalConstants.CALL_PACKET_INTERVAL) + 1);
+        }
+
+        void step() throws IOException {
+            switch (mPhase){
+                case PHASE_PAUSE:
+                    if(--mFramesLeft <= 0){
+                        startCall();
+                    }
+                    break;
+                case PHASE_PREAMBLE:
+                    send(mInit);
+                    if(--mFramesLeft <= 0){
+                        mPhase = PHASE_DATA;
+                        mFramesLeft = (int)(mConfig.callMs / GlobalConstants.CALL_PACKET_INTERVAL);
+                    }
+                    break;
+                case PHASE_DATA:
+                    mData.putLong(STAMP_OFFSET, System.nanoTime());
+                    send(mData);
+                    mDataSent.incrementAndGet();
+                    mDataExpected.addAndGet(mMembers - 1);
+                    if(--mFramesLeft <= 0){
+                        mPhase = PHASE_TERM;
+                        mFramesLeft = GlobalConstants.CALL_TERM_NUMBER;
+                    }
+                    break;
+                case PHASE_TERM:
+                    PacketHeader.putCountdown(mTerm, (short)mFramesLeft);
+                    send(mTerm);
+                    if(--mFramesLeft <= 0){
+                        mPhase = PHASE_PAUSE;
+                        mFramesLeft = (int)((GlobalConstants.CALL_HANG_PERIOD_MS + mConfig.pauseMs)
+                                / GlobalConstants.CALL_PACKET_INTERVAL);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void startCall(){
+            int member = mRandom.nextInt(mMembers);
+            mTalker = mSus.get(mGrpIndex + member * mConfig.groups);
+            mInit = frameOf(new CallInit(mGrpId, mTalker.mSuId, mSeq));
+            ByteBuffer audio = ByteBuffer.allocate(GlobalConstants.COMPRESSED_20MS_AUDIO_SIZE);
+            mData = frameOf(new CallData(mGrpId, mTalker.mSuId, mSeq, audio));
+            mTerm = frameOf(new CallTerm(mGrpId, mTalker.mSuId, mSeq, (short)0));
+            mPhase = PHASE_PREAMBLE;
+            mFramesLeft = GlobalConstants.CALL_PREAMBLE_NUMBER;
+            mCalls.incrementAndGet();
+        }
+
+        private void send(ByteBuffer frame) throws IOException {
+            PacketHeader.putSequence(frame, ++mSeq);
+            mTalker.send(frame, mConfig.trunk);
+        }
+
+        final int mGrpIndex;
+        final long mGrpId;
+        final int mMembers;
+        SimulatedSu mTalker;
+        ByteBuffer mInit, mData, mTerm;
+        int mPhase;
+        int mFramesLeft;
+        short mSeq;
+    }
+
+    private void runCalls() throws IOException {
+        List<GroupCall> calls = new ArrayList<GroupCall>();
+        for(int g = 0; g < mConfig.activeGroups; ++g){
+            calls.add(new GroupCall(g));
+        }
+        long interval = TimeUnit.MILLISECONDS.toNanos(GlobalConstants.CALL_PACKET_INTERVAL);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(mConfig.durationMs);
+        long nextReport = start + REPORT_PERIOD_NS;
+        for(long frameTime = start; frameTime - end < 0; frameTime += interval){
+            parkUntil(frameTime);
+            for(GroupCall call : calls){
+                call.step();
+            }
+            if(frameTime - nextReport >= 0){
+                mLogger.i(TAG, report());
+                nextReport += REPORT_PERIOD_NS;
+            }
+        }
+        // let the last frames arrive
+        parkUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GlobalConstants.CALL_HANG_PERIOD_MS));
+    }
+
+    ////////////////////////////// receive side ///////////////////////////////
+    private class Receiver implements Runnable {
+        Receiver() throws IOException {
+            mSelector = Selector.open();
+            for(SimulatedSu su : mSus){
+                su.mChannel.register(mSelector, SelectionKey.OP_READ, su);
+            }
+        }
+
+        @Override
+        public void run(){
+            ByteBuffer buf = ByteBuffer.allocate(RX_BUFFER_SIZE);
+            try {
+                while(mRunning){
+                    mSelector.select(100);
+                    Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+                    while(it.hasNext()){
+                        SelectionKey key = it.next();
+                        it.remove();
+                        SimulatedSu su = (SimulatedSu)key.attachment();
+                        buf.clear();
+                        while(su.mChannel.receive(buf) != null){
+                            buf.flip();
+                            received(su, buf);
+                            buf.clear();
+                        }
+                    }
+                }
+            } catch (IOException e){
+                if(mRunning) {
+                    mLogger.w(TAG, "receiver exp: " + e);
+                }
+            }
+        }
+
+        void stop(){
+            mRunning = false;
+            try {
+                mSelector.close();
+            } catch (IOException e){
+                mLogger.w(TAG, "exp: " + e);
+            }
+        }
+
+        private final Selector mSelector;
+        private volatile boolean mRunning = true;
+    }
+
+    private void received(SimulatedSu su, ByteBuffer frame){
+        if(!PacketHeader.hasHeader(frame)){
+            return;
+        }
+        switch (PacketHeader.peepType(frame)){
+            case ProtocolBase.PTYPE_CALL_DATA:
+                long transit = System.nanoTime() - frame.getLong(STAMP_OFFSET);
+                su.onStreamFrame(PacketHeader.peepSource(frame), transit);
+                mDataReceived.incrementAndGet();
+                mLatencySum.addAndGet(transit);
+                updateMax(mLatencyMax, transit);
+                mJitterSum.addAndGet(su.mJitter);
+                updateMax(mJitterMax, su.mJitter);
+                break;
+            case ProtocolBase.PTYPE_CALL_INIT:
+            case ProtocolBase.PTYPE_CALL_TERM:
+                mControlReceived.incrementAndGet();
+                break;
+            default:
+                mReplies.incrementAndGet();
+                break;
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value){
+        long cur = max.get();
+        while(value > cur && !max.compareAndSet(cur, value)){
+            cur = max.get();
+        }
+    }
+
+    private String report(){
+        long sent = mDataSent.get();
+        long expected = mDataExpected.get();
+        long received = mDataReceived.get();
+        long avgLatencyUs = received == 0 ? 0 : mLatencySum.get() / received / 1000;
+        long avgJitterUs = received == 0 ? 0 : mJitterSum.get() / received / 1000;
+        double loss = expected == 0 ? 0 : 100.0 * (expected - received) / expected;
+        return "calls=" + mCalls.get()
+                + ", data sent=" + sent + " expected=" + expected + " received=" + received
+                + String.format(", loss=%.3f%%", loss)
+                + ", latency avg=" + avgLatencyUs + "us max=" + mLatencyMax.get() / 1000 + "us"
+                + ", jitter avg=" + avgJitterUs + "us max=" + mJitterMax.get() / 1000 + "us"
+                + ", init/term received=" + mControlReceived.get();
+    }
+
+    private static void parkUntil(long deadline){
+        long left;
+        while((left = deadline - System.nanoTime()) > 0){
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private static ByteBuffer frameOf(ProtocolBase proto){
+        ByteBuffer frame = ByteBuffer.allocate(proto.getSize());
+        proto.serialize(frame);
+        frame.flip();
+        return frame;
+    }
+
+    /** locate audio of call data, where the send time goes */
+    private static int locateStamp(){
+        ByteBuffer audio = ByteBuffer.allocate(GlobalConstants.COMPRESSED_20MS_AUDIO_SIZE);
+        audio.putLong(0, PROBE_STAMP);
+        ByteBuffer frame = frameOf(new CallData(1, 2, (short)3, audio));
+        for(int i = 0; i + 8 <= frame.limit(); ++i){
+            if(frame.getLong(i) == PROBE_STAMP){
+                return i;
+            }
+        }
+        throw new IllegalStateException("call data layout unknown");
+    }
+
+    private final Configuration mConfig;
+    private final OLog mLogger;
+    private final List<SimulatedSu> mSus = new ArrayList<SimulatedSu>();
+    private final Random mRandom = new Random();
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mDataSent = new AtomicLong();
+    private final AtomicLong mDataExpected = new AtomicLong();
+    private final AtomicLong mDataReceived = new AtomicLong();
+    private final AtomicLong mControlReceived = new AtomicLong();
+    private final AtomicLong mReplies = new AtomicLong();
+    private final AtomicLong mLatencySum = new AtomicLong();
+    private final AtomicLong mLatencyMax = new AtomicLong();
+    private final AtomicLong mJitterSum = new AtomicLong();
+    private final AtomicLong mJitterMax = new AtomicLong();
+
+    private static final int PHASE_PAUSE = 0;
+    private static final int PHASE_PREAMBLE = 1;
+    private static final int PHASE_DATA = 2;
+    private static final int PHASE_TERM = 3;
+
+    private static final long PROBE_STAMP = 0x1B2C3D4E5F607182L;
+    private static final int STAMP_OFFSET = locateStamp();
+    private static final int RX_BUFFER_SIZE = 1500;
+    private static final long REPORT_PERIOD_NS = TimeUnit.SECONDS.toNanos(5);
+    private static final String TAG = "LoadGen";
+}
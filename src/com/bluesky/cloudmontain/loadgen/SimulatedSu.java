@@ -0,0 +1,60 @@
+package com.bluesky.cloudmontain.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/** a simulated subscriber unit, i.e. a radio with its own loopback port
+ *  - sent by the sender thread, received by the receiver thread, DatagramChannel is
+ *    safe for that
+ *  - receive side state is touched by the receiver thread only
+ */
+class SimulatedSu {
+    SimulatedSu(long su_id, long grp_id) throws IOException {
+        mSuId = su_id;
+        mGrpId = grp_id;
+        mChannel = DatagramChannel.open();
+        mChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+        mChannel.configureBlocking(false);
+    }
+
+    /** send frame, from 0 to its limit, position is left at 0, so the frame can be patched again */
+    void send(ByteBuffer frame, InetSocketAddress trunk) throws IOException {
+        frame.position(0);
+        mChannel.send(frame, trunk);
+        frame.position(0);
+    }
+
+    /** update interarrival jitter of the stream being received, as rfc3550 does
+     * @param source    su transmitting the stream
+     * @param transit   arrival time - send time, nano seconds
+     */
+    void onStreamFrame(long source, long transit){
+        if(source == mRxSource){
+            long d = Math.abs(transit - mLastTransit);
+            mJitter += (d - mJitter) / 16;
+        } else {
+            mRxSource = source;
+            mJitter = 0;
+        }
+        mLastTransit = transit;
+    }
+
+    void close(){
+        try {
+            mChannel.close();
+        } catch (IOException e){
+            // closing anyway
+        }
+    }
+
+    final long mSuId;
+    final long mGrpId;
+    final DatagramChannel mChannel;
+
+    /** receive side, receiver thread only */
+    long mRxSource = -1;
+    long mLastTransit;
+    long mJitter;
+}
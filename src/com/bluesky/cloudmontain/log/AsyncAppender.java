@@ -0,0 +1,156 @@
+package com.bluesky.cloudmontain.log;
+
+import com.bluesky.common.OLog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** appender over a bounded ring of preallocated entries, drained by one background thread
+ *  - producers claim a slot by cas on tail, fill it and publish it by its sequence, nothing
+ *    is allocated, and nothing waits on the sink's I/O
+ *  - if ring is full, the message is dropped and counted, voice threads never block on log
+ *  - drainer formats the message and writes it to sink, it polls when ring is empty, so
+ *    producers don't have to wake it up
+ */
+class AsyncAppender extends Log.Appender implements Runnable {
+    AsyncAppender(OLog sink, int capacity){
+        super(sink);
+        int size = 1;
+        while(size < capacity){
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mEntries = new Entry[size];
+        mSequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; ++i){
+            mEntries[i] = new Entry();
+            mSequences.set(i, i);
+        }
+        mThread = new Thread(this, TAG);
+        mThread.setDaemon(true);
+    }
+
+    void start(){
+        mThread.start();
+    }
+
+    @Override
+    void append(int level, String tag, String pattern, int argc,
+                Object a, Object b, Object c, long la, long lb, long lc, int longs){
+        long pos;
+        while(true){
+            pos = mTail.get();
+            long seq = mSequences.get((int)pos & mMask);
+            if(seq == pos){
+                if(mTail.compareAndSet(pos, pos + 1)){
+                    break;
+                }
+            } else if(seq < pos){
+                // full, drainer is a lap behind
+                mDropped.incrementAndGet();
+                return;
+            }
+            // else, slot taken by another producer, retry
+        }
+
+        int slot = (int)pos & mMask;
+        Entry entry = mEntries[slot];
+        entry.level = level;
+        entry.tag = tag;
+        entry.pattern = pattern;
+        entry.argc = argc;
+        entry.a = a;
+        entry.b = b;
+        entry.c = c;
+        entry.la = la;
+        entry.lb = lb;
+        entry.lc = lc;
+        entry.longs = longs;
+        mSequences.set(slot, pos + 1);
+    }
+
+    @Override
+    void close(){
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return messages dropped so far, for ring being full */
+    long dropped(){
+        return mDropped.get();
+    }
+
+    @Override
+    public void run(){
+        while(mRunning){
+            if(!drain()){
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+        drain();
+    }
+
+    /** @return true if anything was drained */
+    private boolean drain(){
+        boolean drained = false;
+        while(true){
+            int slot = (int)mHead & mMask;
+            if(mSequences.get(slot) != mHead + 1){
+                break;
+            }
+            Entry entry = mEntries[slot];
+            String msg = Log.format(entry.pattern, entry.argc, entry.a, entry.b, entry.c,
+                    entry.la, entry.lb, entry.lc, entry.longs);
+            int level = entry.level;
+            String tag = entry.tag;
+            // drop references, so arguments don't linger in ring
+            entry.a = entry.b = entry.c = null;
+            mSequences.set(slot, mHead + mEntries.length);
+            ++mHead;
+            drained = true;
+
+            try {
+                write(level, tag, msg);
+            } catch (RuntimeException e){
+                // sink failure must not kill the drainer
+            }
+        }
+
+        long dropped = mDropped.getAndSet(0);
+        if(dropped > 0){
+            write(Log.WARN, TAG, dropped + " messages dropped, log ring full");
+        }
+        return drained;
+    }
+
+    private static class Entry {
+        int level;
+        String tag;
+        String pattern;
+        int argc;
+        Object a, b, c;
+        long la, lb, lc;
+        int longs;
+    }
+
+    private final Entry[] mEntries;
+    /** per slot, pos if free for producer at pos, pos+1 if published for drainer */
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    /** owned by drainer */
+    private long mHead = 0;
+    private final Thread mThread;
+    private volatile boolean mRunning = true;
+
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final String TAG = "Log";
+}
@@ -0,0 +1,206 @@
+package com.bluesky.cloudmontain.log;
+
+import com.bluesky.common.OLog;
+
+/** level-checked, parameterized logging over an OLog
+ *  - a message is a pattern with {} placeholders, formatted only if its level is enabled,
+ *    so a disabled d() costs a volatile read, no string is built
+ *  - long arguments have their own overloads, so they're not boxed either
+ *  - formatting happens in the appender, see AsyncAppender, arguments have to be immutable,
+ *    or at least not change after the call, e.g. never pass a pooled packet
+ *  - level is process wide, set once from configuration
+ */
+public class Log implements OLog {
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+
+    /** log straight to sink, in caller's thread */
+    public Log(OLog sink){
+        this(new Appender(sink));
+    }
+
+    Log(Appender appender){
+        mAppender = appender;
+    }
+
+    /** log through a ring buffer, sink is called in a background thread
+     * @param capacity number of pending messages, rounded up to power of 2, the rest is dropped
+     */
+    public static Log async(OLog sink, int capacity){
+        AsyncAppender appender = new AsyncAppender(sink, capacity);
+        appender.start();
+        return new Log(appender);
+    }
+
+    /** @return logger as it is, if it's a Log, otherwise a synchronous Log over it */
+    public static Log of(OLog logger){
+        return logger instanceof Log ? (Log)logger : new Log(logger);
+    }
+
+    public static void setLevel(int level){
+        sLevel = level;
+    }
+
+    /** @param name one of DEBUG/INFO/WARN/ERROR, case ignored */
+    public static int parseLevel(String name){
+        String[] names = {"DEBUG", "INFO", "WARN", "ERROR"};
+        for(int level = 0; level < names.length; ++level){
+            if(names[level].equalsIgnoreCase(name.trim())){
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("unknown log level: " + name);
+    }
+
+    public static boolean isEnabled(int level){
+        return level >= sLevel;
+    }
+
+    public static boolean isDebugEnabled(){
+        return DEBUG >= sLevel;
+    }
+
+    /** flush pending messages and stop background thread, if any */
+    public void close(){
+        mAppender.close();
+    }
+
+    ///////////////////////////// OLog, message already built /////////////////////
+    @Override
+    public void d(String tag, String msg){
+        log(DEBUG, tag, msg, 0, null, null, null, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void i(String tag, String msg){
+        log(INFO, tag, msg, 0, null, null, null, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void w(String tag, String msg){
+        log(WARN, tag, msg, 0, null, null, null, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void e(String tag, String msg){
+        log(ERROR, tag, msg, 0, null, null, null, 0, 0, 0, 0);
+    }
+
+    ///////////////////////////// parameterized ///////////////////////////////////
+    public void d(String tag, String pattern, Object a){
+        log(DEBUG, tag, pattern, 1, a, null, null, 0, 0, 0, 0);
+    }
+
+    public void d(String tag, String pattern, long a){
+        log(DEBUG, tag, pattern, 1, null, null, null, a, 0, 0, 1);
+    }
+
+    public void d(String tag, String pattern, Object a, Object b){
+        log(DEBUG, tag, pattern, 2, a, b, null, 0, 0, 0, 0);
+    }
+
+    public void d(String tag, String pattern, Object a, long b){
+        log(DEBUG, tag, pattern, 2, a, null, null, 0, b, 0, 2);
+    }
+
+    public void d(String tag, String pattern, long a, long b){
+        log(DEBUG, tag, pattern, 2, null, null, null, a, b, 0, 3);
+    }
+
+    public void d(String tag, String pattern, Object a, Object b, Object c){
+        log(DEBUG, tag, pattern, 3, a, b, c, 0, 0, 0, 0);
+    }
+
+    public void d(String tag, String pattern, Object a, long b, long c){
+        log(DEBUG, tag, pattern, 3, a, null, null, 0, b, c, 6);
+    }
+
+    public void i(String tag, String pattern, Object a){
+        log(INFO, tag, pattern, 1, a, null, null, 0, 0, 0, 0);
+    }
+
+    public void i(String tag, String pattern, Object a, Object b){
+        log(INFO, tag, pattern, 2, a, b, null, 0, 0, 0, 0);
+    }
+
+    public void w(String tag, String pattern, Object a){
+        log(WARN, tag, pattern, 1, a, null, null, 0, 0, 0, 0);
+    }
+
+    public void w(String tag, String pattern, Object a, Object b){
+        log(WARN, tag, pattern, 2, a, b, null, 0, 0, 0, 0);
+    }
+
+    /** @param longs bit i set if argument i is taken from the long slots */
+    private void log(int level, String tag, String pattern, int argc,
+                     Object a, Object b, Object c, long la, long lb, long lc, int longs){
+        if(level < sLevel){
+            return;
+        }
+        mAppender.append(level, tag, pattern, argc, a, b, c, la, lb, lc, longs);
+    }
+
+    /** synchronous appender, formats and writes in caller's thread */
+    static class Appender {
+        Appender(OLog sink){
+            mSink = sink;
+        }
+
+        void append(int level, String tag, String pattern, int argc,
+                    Object a, Object b, Object c, long la, long lb, long lc, int longs){
+            write(level, tag, format(pattern, argc, a, b, c, la, lb, lc, longs));
+        }
+
+        void close(){
+        }
+
+        void write(int level, String tag, String msg){
+            switch (level){
+                case DEBUG:
+                    mSink.d(tag, msg);
+                    break;
+                case INFO:
+                    mSink.i(tag, msg);
+                    break;
+                case WARN:
+                    mSink.w(tag, msg);
+                    break;
+                default:
+                    mSink.e(tag, msg);
+                    break;
+            }
+        }
+
+        final OLog mSink;
+    }
+
+    /** replace {} of pattern by arguments in order, extra {} are left as they are */
+    static String format(String pattern, int argc, Object a, Object b, Object c,
+                         long la, long lb, long lc, int longs){
+        if(argc == 0){
+            return pattern;
+        }
+        StringBuilder sb = new StringBuilder(pattern.length() + 32);
+        int from = 0;
+        for(int i = 0; i < argc; ++i){
+            int at = pattern.indexOf("{}", from);
+            if(at < 0){
+                break;
+            }
+            sb.append(pattern, from, at);
+            if((longs & (1 << i)) != 0){
+                sb.append(i == 0 ? la : i == 1 ? lb : lc);
+            } else {
+                sb.append(i == 0 ? a : i == 1 ? b : c);
+            }
+            from = at + 2;
+        }
+        sb.append(pattern, from, pattern.length());
+        return sb.toString();
+    }
+
+    private final Appender mAppender;
+    private static volatile int sLevel = INFO;
+}
@@ -0,0 +1,81 @@
+package com.bluesky.cloudmontain.main;
+
+import com.bluesky.cloudmontain.database.SubscriberLoader;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.cloudmontain.repeator.TrunkManager;
+
+import java.io.File;
+import java.io.IOException;
+
+/** watches subscriber config, json or snapshot, and hot reloads trunk manager once it
+ *  changes, see TrunkManager.reload()
+ *  - polled by modification time and size, a config which fails to load is reported and
+ *    skipped, the running one stays
+ *  - the diff of a reload is computed in this thread, see TrunkManager.reload()
+ *  - a snapshot should be replaced by rename, as SnapshotConverter does, a mapping of the
+ *    old file stays valid then
+ */
+public class ConfigWatcher implements Runnable {
+    public ConfigWatcher(File config, TrunkManager trunkManager, long periodMs){
+        mConfig = config;
+        mTrunkManager = trunkManager;
+        mLogger = trunkManager.logger();
+        mPeriodMs = periodMs;
+        mLastModified = config.lastModified();
+        mLastLength = config.length();
+    }
+
+    public void start(){
+        Thread thread = new Thread(this, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run(){
+        while(true){
+            try {
+                Thread.sleep(mPeriodMs);
+            } catch (InterruptedException e){
+                return;
+            }
+            checkOnce();
+        }
+    }
+
+    /** reload if config has changed since last check */
+    void checkOnce(){
+        long modified = mConfig.lastModified();
+        long length = mConfig.length();
+        if(modified == mLastModified && length == mLastLength){
+            return;
+        }
+        mLastModified = modified;
+        mLastLength = length;
+
+        SubscriberSnapshot next;
+        try {
+            if(SubscriberSnapshot.isSnapshot(mConfig)){
+                next = SubscriberSnapshot.open(mConfig);
+            } else {
+                next = new SubscriberLoader(null).load(mConfig).snapshot();
+            }
+        } catch (IOException e){
+            mLogger.w(TAG, "failed to reload " + mConfig + ": " + e.getMessage());
+            return;
+        }
+        mLogger.i(TAG, "reloading " + mConfig + ", " + next.subscriberCount() + " subscribers, "
+                + next.groupCount() + " groups");
+        mTrunkManager.reload(next);
+    }
+
+    private final File mConfig;
+    private final TrunkManager mTrunkManager;
+    private final Log mLogger;
+    private final long mPeriodMs;
+    private long mLastModified;
+    private long mLastLength;
+
+    private static final String TAG = "ConfigWatcher";
+}
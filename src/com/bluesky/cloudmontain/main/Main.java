@@ -1,10 +1,18 @@
 package com.bluesky.cloudmontain.main;
 
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SubscriberLoader;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.cloudmontain.repeator.CpExecutorFactory;
 import com.bluesky.cloudmontain.repeator.TrunkManager;
 import com.bluesky.common.SubscriberDatabase;
 import com.bluesky.common.SubscriberDatabaseHelper;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.Thread;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Trunk Center, the repeator for PTTApp, responsible for
@@ -24,20 +32,41 @@ public class Main {
 
     public static void main(String[] args) {
         if( args.length != 1){
-            System.err.println("trunk-mgr [config.json]");
+            System.err.println("trunk-mgr [config.json | snapshot]");
             System.exit(-1);
         }
 
         System.out.println("start integration test... " + args[0]);
-        SubscriberDatabase database = SubscriberDatabaseHelper.createDatabaseFromJson(args[0]);
+        SubscriberDatabase database = createDatabase(args[0]);
         if(database == null){
             System.err.println("invalid database");
             System.exit(-1);
         }
 
-        System.out.println("Trunking Control Manager started.");
-        TrunkManager trunkManager = new TrunkManager(database);
+        TrunkManager.Configuration config;
+        try {
+            config = createConfiguration();
+        } catch (IllegalArgumentException e){
+            System.err.println("invalid configuration: " + e.getMessage());
+            System.exit(-1);
+            return;
+        }
+
+        System.out.println("Trunking Control Manager started, cp execution: " + config.cpExecution);
+        TrunkManager trunkManager;
+        try {
+            trunkManager = new TrunkManager(database, config);
+        } catch (IllegalStateException e){
+            System.err.println("failed to create trunk manager: " + e.getMessage());
+            System.exit(-1);
+            return;
+        }
         trunkManager.start();
+
+        long reloadMs = Long.getLong(PROP_DB_RELOAD_MS, DEFAULT_DB_RELOAD_MS);
+        if(reloadMs > 0 && database instanceof SnapshotDatabase){
+            new ConfigWatcher(new File(args[0]), trunkManager, reloadMs).start();
+        }
         while(true){
             try {
                 Thread.sleep(1000);
@@ -46,4 +75,86 @@ public class Main {
             }
         }
     }
+
+    /** map database from snapshot, see SnapshotConverter, or stream it from json
+     * @return null if it's invalid
+     */
+    private static SubscriberDatabase createDatabase(String path){
+        File file = new File(path);
+        if(SubscriberSnapshot.isSnapshot(file)){
+            try {
+                return SnapshotDatabase.open(file);
+            } catch (IOException e){
+                System.err.println("failed to open snapshot: " + e.getMessage());
+                return null;
+            }
+        }
+        if(Boolean.getBoolean(PROP_DB_LEGACY_JSON)){
+            return SubscriberDatabaseHelper.createDatabaseFromJson(path);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            SubscriberLoader loader = new SubscriberLoader(pool);
+            SubscriberDatabase database = loader.load(file);
+            System.out.println("database loaded in " + loader.loadMs() + "ms, peak heap "
+                    + loader.peakHeapBytes() / (1024 * 1024) + "MB");
+            return database;
+        } catch (IOException e){
+            System.err.println("failed to load " + path + ": " + e.getMessage());
+            return null;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** trunk manager configuration, from system properties, e.g.
+     *      -Dtrunk.cp.execution=VIRTUAL_THREAD
+     */
+    private static TrunkManager.Configuration createConfiguration(){
+        TrunkManager.Configuration config = new TrunkManager.Configuration();
+        String execution = System.getProperty(PROP_CP_EXECUTION);
+        if(execution != null){
+            config.cpExecution = CpExecutorFactory.Mode.valueOf(execution.trim().toUpperCase());
+        }
+        config.cpWorkers = Integer.getInteger(PROP_CP_WORKERS, config.cpWorkers);
+        config.rxThreads = Integer.getInteger(PROP_RX_THREADS, config.rxThreads);
+        config.nioService = Boolean.parseBoolean(System.getProperty(PROP_NIO_SERVICE, String.valueOf(config.nioService)));
+        config.cpIdleEvictMs = Long.getLong(PROP_CP_IDLE_EVICT_MS, config.cpIdleEvictMs);
+        config.statsDumpMs = Long.getLong(PROP_STATS_DUMP_MS, config.statsDumpMs);
+        config.metricsPort = Integer.getInteger(PROP_METRICS_PORT, config.metricsPort);
+        config.regQueueCapacity = Integer.getInteger(PROP_REG_QUEUE, config.regQueueCapacity);
+        config.regIntervalMs = Long.getLong(PROP_REG_INTERVAL_MS, config.regIntervalMs);
+        config.regBurst = Integer.getInteger(PROP_REG_BURST, config.regBurst);
+        config.presenceLeaseMs = Long.getLong(PROP_PRESENCE_LEASE_MS, config.presenceLeaseMs);
+        config.warmStatePath = System.getProperty(PROP_WARM_PATH, config.warmStatePath);
+        config.warmStateMs = Long.getLong(PROP_WARM_PERIOD_MS, config.warmStateMs);
+        config.cdrDir = System.getProperty(PROP_CDR_DIR, config.cdrDir);
+        String level = System.getProperty(PROP_LOG_LEVEL);
+        if(level != null){
+            config.logLevel = Log.parseLevel(level);
+        }
+        return config;
+    }
+
+    private static final String PROP_CP_EXECUTION   = "trunk.cp.execution";
+    private static final String PROP_CP_WORKERS     = "trunk.cp.workers";
+    private static final String PROP_NIO_SERVICE    = "trunk.nio";
+    private static final String PROP_RX_THREADS     = "trunk.rx.threads";
+    private static final String PROP_CP_IDLE_EVICT_MS   = "trunk.cp.idleEvictMs";
+    private static final String PROP_STATS_DUMP_MS      = "trunk.stats.dumpMs";
+    private static final String PROP_METRICS_PORT       = "trunk.metrics.port";
+    private static final String PROP_LOG_LEVEL          = "trunk.log.level";
+    private static final String PROP_REG_QUEUE          = "trunk.reg.queue";
+    private static final String PROP_REG_INTERVAL_MS    = "trunk.reg.intervalMs";
+    private static final String PROP_REG_BURST          = "trunk.reg.burst";
+    private static final String PROP_PRESENCE_LEASE_MS  = "trunk.presence.leaseMs";
+    private static final String PROP_WARM_PATH          = "trunk.warm.path";
+    private static final String PROP_WARM_PERIOD_MS     = "trunk.warm.periodMs";
+    private static final String PROP_CDR_DIR            = "trunk.cdr.dir";
+    /** load json through SubscriberDatabaseHelper, a document tree, instead of streaming it */
+    private static final String PROP_DB_LEGACY_JSON     = "trunk.db.legacyJson";
+    /** period to check config for hot reload, 0 to disable, see ConfigWatcher */
+    private static final String PROP_DB_RELOAD_MS       = "trunk.db.reloadMs";
+    private static final long DEFAULT_DB_RELOAD_MS      = 5000;
 }
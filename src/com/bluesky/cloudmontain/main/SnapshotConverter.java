@@ -0,0 +1,33 @@
+package com.bluesky.cloudmontain.main;
+
+import com.bluesky.cloudmontain.database.SubscriberLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/** compiles json subscriber config into a SubscriberSnapshot, which trunk manager maps
+ *  at startup instead of parsing the json, e.g.
+ *      snapshot-converter subscribers.json subscribers.snap
+ */
+public class SnapshotConverter {
+
+    public static void main(String[] args) {
+        if( args.length != 2){
+            System.err.println("snapshot-converter [config.json] [snapshot]");
+            System.exit(-1);
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        SubscriberLoader loader = new SubscriberLoader(pool);
+        try {
+            loader.convert(new File(args[0]), new File(args[1]));
+        } catch (IOException e){
+            System.err.println("failed to convert " + args[0] + ": " + e.getMessage());
+            System.exit(-1);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("snapshot " + args[1] + " written in " + loader.loadMs() + "ms, peak heap "
+                + loader.peakHeapBytes() / (1024 * 1024) + "MB");
+    }
+}
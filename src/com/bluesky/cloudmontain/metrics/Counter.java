@@ -0,0 +1,48 @@
+package com.bluesky.cloudmontain.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** striped counter, in the manner of LongAdder, which we can't use as we still build for
+ *  older jdk
+ *  - each thread adds to its own stripe, picked by thread id, stripes sit on separate cache
+ *    lines, so writers from different threads rarely contend
+ *  - sum() adds up all stripes, it's meant for scraping, not for the hot path
+ *  - can go down as well, for gauges which count things in and out
+ */
+public class Counter {
+    public void inc(){
+        add(1);
+    }
+
+    public void dec(){
+        add(-1);
+    }
+
+    public void add(long delta){
+        int stripe = (int)Thread.currentThread().getId() & STRIPE_MASK;
+        mCells.addAndGet(stripe * PADDING, delta);
+    }
+
+    public long sum(){
+        long sum = 0;
+        for(int i = 0; i < STRIPES; ++i){
+            sum += mCells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int stripes(){
+        int n = 1;
+        while(n < Runtime.getRuntime().availableProcessors() * 2){
+            n <<= 1;
+        }
+        return Math.min(n, 64);
+    }
+
+    private static final int STRIPES = stripes();
+    private static final int STRIPE_MASK = STRIPES - 1;
+    /** longs per cache line */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+}
@@ -0,0 +1,107 @@
+package com.bluesky.cloudmontain.metrics;
+
+/** timing of frames sent by a cp, per group
+ *  - ingress: from socket receive of a frame, to the end of its fan-out
+ *  - fanout: time spent sending one frame to all members
+ *  - jitter: deviation of the gap between two frames of a call from the packet interval,
+ *    covers synthesized frames as well as forwarded ones
+ *  - recording is allocation free, a group's stats are written from its cp's serial context
+ *    only, nothing shared by groups is written per frame; global stats are summed from
+ *    intervals of all groups at dump time, see Interval
+ */
+public class FrameStats {
+    public FrameStats(long intervalNs){
+        mIntervalNs = intervalNs;
+    }
+
+    /** a frame is sent to all members
+     * @param rxTime    System.nanoTime() the frame got received, 0 for synthesized frames
+     * @param start     System.nanoTime() fan-out started
+     * @param end       System.nanoTime() fan-out ended
+     */
+    public void frameSent(long rxTime, long start, long end){
+        if(rxTime != 0){
+            mIngress.record(end - rxTime);
+        }
+        mFanout.record(end - start);
+        if(mLastFrame != 0){
+            mJitter.record(Math.abs(start - mLastFrame - mIntervalNs));
+        }
+        mLastFrame = start;
+    }
+
+    /** a call ended, next frame starts a new stream */
+    public void callEnded(){
+        mLastFrame = 0;
+    }
+
+    public LatencyHistogram ingress(){
+        return mIngress;
+    }
+
+    public LatencyHistogram fanout(){
+        return mFanout;
+    }
+
+    public LatencyHistogram jitter(){
+        return mJitter;
+    }
+
+    /** @return counts of the interval since last take, counts are reset */
+    public Interval take(){
+        return new Interval(mIngress.snapshot(true), mFanout.snapshot(true), mJitter.snapshot(true));
+    }
+
+    /** add counts of an interval, e.g. of a retired group, safe from any thread */
+    public void add(Interval interval){
+        mIngress.add(interval.mIngress);
+        mFanout.add(interval.mFanout);
+        mJitter.add(interval.mJitter);
+    }
+
+    /** @return one line dump of an interval, counts are reset; null if no frame was sent */
+    public String dump(){
+        Interval interval = take();
+        return interval.isEmpty() ? null : interval.toString();
+    }
+
+    /** frame stats over an interval, of one group, or summed over groups */
+    public static class Interval {
+        Interval(LatencyHistogram.Snapshot ingress, LatencyHistogram.Snapshot fanout,
+                 LatencyHistogram.Snapshot jitter){
+            mIngress = ingress;
+            mFanout = fanout;
+            mJitter = jitter;
+        }
+
+        public boolean isEmpty(){
+            return mFanout.count() == 0;
+        }
+
+        /** @return sum of both */
+        public Interval plus(Interval other){
+            return new Interval(mIngress.plus(other.mIngress), mFanout.plus(other.mFanout),
+                    mJitter.plus(other.mJitter));
+        }
+
+        /** @return one line dump */
+        @Override
+        public String toString(){
+            return "ingress[" + mIngress + " over" + SLA_US + "us=" + mIngress.countAbove(SLA_US)
+                    + "] fanout[" + mFanout + "] jitter[" + mJitter + "]";
+        }
+
+        private final LatencyHistogram.Snapshot mIngress;
+        private final LatencyHistogram.Snapshot mFanout;
+        private final LatencyHistogram.Snapshot mJitter;
+    }
+
+    private final long mIntervalNs;
+    private final LatencyHistogram mIngress = new LatencyHistogram();
+    private final LatencyHistogram mFanout = new LatencyHistogram();
+    private final LatencyHistogram mJitter = new LatencyHistogram();
+    private long mLastFrame = 0;
+
+    /** server side forwarding target, ingress to egress */
+    public static final long SLA_US = 5000;
+}
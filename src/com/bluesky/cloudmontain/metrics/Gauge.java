@@ -0,0 +1,6 @@
+package com.bluesky.cloudmontain.metrics;
+
+/** value sampled at scrape time, e.g. a queue depth */
+public interface Gauge {
+    public long value();
+}
@@ -0,0 +1,149 @@
+package com.bluesky.cloudmontain.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** log-linear histogram of durations, in the manner of HdrHistogram
+ *  - values are kept in micro seconds, from 0 to MAX_VALUE_US, bigger ones are clamped
+ *  - each power of 2 is split into 16 linear buckets, i.e. ~6% precision over the whole range
+ *  - record() allocates nothing and is safe from any thread; snapshots are taken by the
+ *    reporter, optionally resetting the counts, so each snapshot covers one interval
+ */
+public class LatencyHistogram {
+
+    /** record a duration
+     * @param durationNs in nano seconds
+     */
+    public void record(long durationNs){
+        long us = TimeUnit.NANOSECONDS.toMicros(durationNs);
+        if(us < 0){
+            us = 0;
+        } else if(us > MAX_VALUE_US){
+            us = MAX_VALUE_US;
+        }
+        mCounts.incrementAndGet(indexOf(us));
+    }
+
+    /** @param reset true to zero counts, i.e. start next interval */
+    public Snapshot snapshot(boolean reset){
+        long[] counts = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; ++i){
+            counts[i] = reset ? mCounts.getAndSet(i, 0) : mCounts.get(i);
+        }
+        return new Snapshot(counts);
+    }
+
+    /** add counts of a snapshot, e.g. of another histogram */
+    public void add(Snapshot snapshot){
+        for(int i = 0; i < BUCKETS; ++i){
+            if(snapshot.mCounts[i] != 0){
+                mCounts.addAndGet(i, snapshot.mCounts[i]);
+            }
+        }
+    }
+
+    /** counts of a histogram at a point in time */
+    public static class Snapshot {
+        Snapshot(long[] counts){
+            mCounts = counts;
+            long total = 0;
+            for(long c : counts){
+                total += c;
+            }
+            mTotal = total;
+        }
+
+        public long count(){
+            return mTotal;
+        }
+
+        /** @return sum of both, e.g. of histograms of several groups */
+        public Snapshot plus(Snapshot other){
+            long[] counts = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; ++i){
+                counts[i] = mCounts[i] + other.mCounts[i];
+            }
+            return new Snapshot(counts);
+        }
+
+        /** @return value at given percentile, in micro seconds, the upper end of its bucket */
+        public long percentile(double percentile){
+            if(mTotal == 0){
+                return 0;
+            }
+            long rank = (long)Math.ceil(percentile / 100.0 * mTotal);
+            if(rank < 1){
+                rank = 1;
+            }
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; ++i){
+                seen += mCounts[i];
+                if(seen >= rank){
+                    return highestOf(i);
+                }
+            }
+            return MAX_VALUE_US;
+        }
+
+        public long max(){
+            for(int i = BUCKETS - 1; i >= 0; --i){
+                if(mCounts[i] != 0){
+                    return highestOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /** @return number of samples above given value, in micro seconds */
+        public long countAbove(long us){
+            long n = 0;
+            for(int i = BUCKETS - 1; i >= 0 && lowestOf(i) > us; --i){
+                n += mCounts[i];
+            }
+            return n;
+        }
+
+        @Override
+        public String toString(){
+            return "n=" + mTotal + " p50=" + percentile(50) + "us p99=" + percentile(99)
+                    + "us p99.9=" + percentile(99.9) + "us max=" + max() + "us";
+        }
+
+        private final long[] mCounts;
+        private final long mTotal;
+    }
+
+    static int indexOf(long us){
+        if(us < SUB_BUCKETS){
+            return (int)us;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(us) - (SUB_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + (int)(us >>> shift) - HALF_BUCKETS;
+    }
+
+    static long lowestOf(int index){
+        if(index < SUB_BUCKETS){
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_BUCKETS + 1;
+        long sub = (index - SUB_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+        return sub << shift;
+    }
+
+    static long highestOf(int index){
+        if(index < SUB_BUCKETS){
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_BUCKETS + 1;
+        return lowestOf(index) + (1L << shift) - 1;
+    }
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+    /** ~1 hour */
+    static final long MAX_VALUE_US = (1L << 32) - 1;
+    static final int BUCKETS = indexOf(MAX_VALUE_US) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+}
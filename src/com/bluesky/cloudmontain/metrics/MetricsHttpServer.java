@@ -0,0 +1,58 @@
+package com.bluesky.cloudmontain.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** tiny http endpoint, serving GET /metrics in prometheus text format
+ *  - bound to loopback by default, scraping happens on its own single thread
+ */
+public class MetricsHttpServer {
+    public MetricsHttpServer(MetricsRegistry registry, InetSocketAddress addr){
+        mRegistry = registry;
+        mAddr = addr;
+    }
+
+    public void start() throws IOException {
+        mServer = HttpServer.create(mAddr, 0);
+        mServer.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = mRegistry.scrape().getBytes(UTF8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                try {
+                    os.write(body);
+                } finally {
+                    os.close();
+                }
+            }
+        });
+        mExecutor = Executors.newSingleThreadExecutor();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    public void stop(){
+        if(mServer != null){
+            mServer.stop(0);
+            mExecutor.shutdown();
+        }
+    }
+
+    private final MetricsRegistry mRegistry;
+    private final InetSocketAddress mAddr;
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+}
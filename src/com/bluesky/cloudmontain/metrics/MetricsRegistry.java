@@ -0,0 +1,195 @@
+package com.bluesky.cloudmontain.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** named metrics of the trunk center, exported in prometheus text format and over JMX
+ *  - metrics are registered once, usually into static fields, the hot path only touches
+ *    the Counter it holds, never the registry
+ *  - a series name may carry labels, e.g. trunk_calls{state="init"}, series of the same
+ *    family share HELP/TYPE
+ */
+public class MetricsRegistry {
+    public static MetricsRegistry global(){
+        return GLOBAL;
+    }
+
+    /** @return monotonic counter, the registered one if name is taken */
+    public Counter counter(String name, String help){
+        return register(name, help, TYPE_COUNTER, null).mCounter;
+    }
+
+    /** @return counter which goes up and down, exported as gauge */
+    public Counter upDownGauge(String name, String help){
+        return register(name, help, TYPE_GAUGE, null).mCounter;
+    }
+
+    /** gauge sampled at scrape time, replaces the one registered under name, if any */
+    public synchronized void gauge(String name, String help, Gauge gauge){
+        mMetrics.put(name, new Metric(name, help, TYPE_GAUGE, gauge));
+    }
+
+    /** @return all series in prometheus text exposition format */
+    public String scrape(){
+        // series of a family have to be adjacent, whatever order they're registered in
+        Map<String, List<Metric>> families = new LinkedHashMap<String, List<Metric>>();
+        for(Metric m : metrics()){
+            List<Metric> family = families.get(m.family());
+            if(family == null){
+                family = new ArrayList<Metric>();
+                families.put(m.family(), family);
+            }
+            family.add(m);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, List<Metric>> family : families.entrySet()){
+            Metric first = family.getValue().get(0);
+            sb.append("# HELP ").append(family.getKey()).append(' ').append(first.mHelp).append('\n');
+            sb.append("# TYPE ").append(family.getKey()).append(' ').append(first.mType).append('\n');
+            for(Metric m : family.getValue()){
+                sb.append(m.mName).append(' ').append(m.value()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** register all metrics as attributes of one MBean */
+    public void registerMBean(String objectName){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if(!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e){
+            throw new IllegalStateException("failed to register " + objectName + ", exp: " + e);
+        }
+    }
+
+    private synchronized Metric register(String name, String help, String type, Gauge gauge){
+        Metric m = mMetrics.get(name);
+        if(m == null){
+            m = new Metric(name, help, type, gauge);
+            mMetrics.put(name, m);
+        }
+        return m;
+    }
+
+    private synchronized List<Metric> metrics(){
+        return new ArrayList<Metric>(mMetrics.values());
+    }
+
+    private synchronized Metric byAttribute(String attribute){
+        for(Metric m : mMetrics.values()){
+            if(m.attribute().equals(attribute)){
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private static class Metric {
+        Metric(String name, String help, String type, Gauge gauge){
+            mName = name;
+            mHelp = help;
+            mType = type;
+            mGauge = gauge;
+            mCounter = gauge == null ? new Counter() : null;
+        }
+
+        long value(){
+            return mGauge != null ? mGauge.value() : mCounter.sum();
+        }
+
+        String family(){
+            int brace = mName.indexOf('{');
+            return brace < 0 ? mName : mName.substring(0, brace);
+        }
+
+        /** jmx attribute name, labels folded in */
+        String attribute(){
+            return mName.replaceAll("[^A-Za-z0-9_]+", "_").replaceAll("_+$", "");
+        }
+
+        final String mName;
+        final String mHelp;
+        final String mType;
+        final Gauge mGauge;
+        final Counter mCounter;
+    }
+
+    /** read-only view of the registry, attributes are taken at each call */
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Metric m = byAttribute(attribute);
+            if(m == null){
+                throw new AttributeNotFoundException(attribute);
+            }
+            return m.value();
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            // no attribute is writable
+            throw new AttributeNotFoundException(attribute.getName() + " is read only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes){
+            AttributeList list = new AttributeList();
+            for(String attribute : attributes){
+                Metric m = byAttribute(attribute);
+                if(m != null){
+                    list.add(new Attribute(attribute, m.value()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes){
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature)
+                throws ReflectionException {
+            // no operations
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo(){
+            List<Metric> metrics = metrics();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[metrics.size()];
+            for(int i = 0; i < attributes.length; ++i){
+                Metric m = metrics.get(i);
+                attributes[i] = new MBeanAttributeInfo(m.attribute(), "long", m.mHelp, true, false, false);
+            }
+            return new MBeanInfo(MetricsRegistry.class.getName(), "trunk center metrics",
+                    attributes, null, new MBeanOperationInfo[0], null);
+        }
+    }
+
+    private final Map<String, Metric> mMetrics = new LinkedHashMap<String, Metric>();
+
+    private static final String TYPE_COUNTER = "counter";
+    private static final String TYPE_GAUGE = "gauge";
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+}
@@ -0,0 +1,136 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.GlobalConstants;
+import com.bluesky.protocol.Ack;
+import com.bluesky.protocol.Registration;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** ack of a registration, serialized once into a template, then patched in place per ack,
+ *  as CallProcessor does for its init/term frames, nothing is decoded or allocated
+ *  - offsets of result, and of what the ack takes from the registration, are learnt once
+ *    from the protocol library's own serializer, see PacketHeader
+ *  - templates are used only if patching one reproduces what the library serializes,
+ *    see isPatchable(), otherwise acks are serialized by the library, which allocates
+ */
+final class AckFrame {
+
+    /** @return true if acks can be patched into a template */
+    static boolean isPatchable(){
+        return PATCHABLE;
+    }
+
+    /** @return a template, to patch by put(), null if acks aren't patchable */
+    static ByteBuffer template(){
+        if(!PATCHABLE){
+            return null;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(TEMPLATE.length);
+        frame.put(TEMPLATE);
+        frame.clear();
+        return frame;
+    }
+
+    /** patch a template into the ack of a registration, from 0 to its size
+     * @param su_id  source of the registration, i.e. target of the ack
+     * @param regSeq sequence of the registration
+     */
+    static void put(ByteBuffer frame, long su_id, short seq, boolean result, short regSeq){
+        frame.clear();
+        PacketHeader.putTarget(frame, su_id);
+        PacketHeader.putSequence(frame, seq);
+        byte[] bytes = result ? RESULT_TRUE : RESULT_FALSE;
+        for(int i = 0; i < bytes.length; ++i){
+            frame.put(OFFSET_RESULT + i, bytes[i]);
+        }
+        if(OFFSET_REG_SOURCE >= 0){
+            frame.putLong(OFFSET_REG_SOURCE, su_id);
+        }
+        if(OFFSET_REG_SEQUENCE >= 0){
+            frame.putShort(OFFSET_REG_SEQUENCE, regSeq);
+        }
+        frame.limit(TEMPLATE.length);
+    }
+
+    /** serialize the ack by the library, when it's not patchable
+     * @return frame, or a bigger one, if it's too small
+     */
+    static ByteBuffer serialize(ByteBuffer frame, long su_id, short seq, boolean result, short regSeq){
+        Ack ack = newAck(su_id, seq, result, regSeq);
+        if(frame.capacity() < ack.getSize()){
+            frame = ByteBuffer.allocate(ack.getSize());
+        }
+        frame.clear();
+        ack.serialize(frame);
+        frame.limit(ack.getSize());
+        frame.position(0);
+        return frame;
+    }
+
+    private AckFrame(){
+    }
+
+    private static Ack newAck(long su_id, short seq, boolean result, short regSeq){
+        Registration reg = new Registration(GlobalConstants.SUID_TRUNK_MANAGER, su_id, regSeq);
+        return new Ack(su_id, GlobalConstants.SUID_TRUNK_MANAGER, seq, result, reg);
+    }
+
+    private static byte[] bytesOf(Ack ack){
+        ByteBuffer buf = ByteBuffer.allocate(ack.getSize());
+        ack.serialize(buf);
+        return buf.array();
+    }
+
+    private static final long PROBE_SU = 0x1F2E3D4C5B6A7988L;
+    private static final short PROBE_SEQUENCE = (short)0x6A95;
+    private static final short PROBE_REG_SEQUENCE = (short)0x4BD2;
+
+    private static final byte[] TEMPLATE;
+    private static final int OFFSET_RESULT;
+    private static final byte[] RESULT_TRUE;
+    private static final byte[] RESULT_FALSE;
+    /** -1 if the ack doesn't carry it */
+    private static final int OFFSET_REG_SOURCE;
+    private static final int OFFSET_REG_SEQUENCE;
+    private static final boolean PATCHABLE;
+
+    static {
+        byte[] accepted = bytesOf(newAck(PROBE_SU, PROBE_SEQUENCE, true, PROBE_REG_SEQUENCE));
+        byte[] rejected = bytesOf(newAck(PROBE_SU, PROBE_SEQUENCE, false, PROBE_REG_SEQUENCE));
+        int from = 0, to = Math.min(accepted.length, rejected.length);
+        while(from < to && accepted[from] == rejected[from]){
+            ++from;
+        }
+        while(to > from && accepted[to - 1] == rejected[to - 1]){
+            --to;
+        }
+        TEMPLATE = accepted;
+        OFFSET_RESULT = from;
+        RESULT_TRUE = Arrays.copyOfRange(accepted, from, to);
+        RESULT_FALSE = Arrays.copyOfRange(rejected, from, to);
+        ByteBuffer probe = ByteBuffer.wrap(accepted);
+        // su is the target of the ack too, skip it
+        int regSource = PacketHeader.findLong(probe, PROBE_SU);
+        if(regSource == PacketHeader.OFFSET_TARGET){
+            probe.position(regSource + 8);
+            int next = PacketHeader.findLong(probe.slice(), PROBE_SU);
+            regSource = next < 0 ? -1 : regSource + 8 + next;
+            probe.position(0);
+        }
+        OFFSET_REG_SOURCE = regSource;
+        OFFSET_REG_SEQUENCE = PacketHeader.findShort(probe, PROBE_REG_SEQUENCE);
+
+        // patch a template, it has to come out as the library serializes it
+        boolean patchable = accepted.length == rejected.length;
+        long su = 0x0123456789ABCDEFL;
+        short seq = (short)0x1357, regSeq = (short)0x2468;
+        for(int i = 0; patchable && i < 2; ++i){
+            boolean result = i == 0;
+            ByteBuffer frame = ByteBuffer.wrap(accepted.clone());
+            put(frame, su, seq, result, regSeq);
+            patchable = Arrays.equals(frame.array(), bytesOf(newAck(su, seq, result, regSeq)));
+        }
+        PATCHABLE = patchable;
+    }
+}
@@ -1,17 +1,20 @@
 package com.bluesky.cloudmontain.repeator;
 
+import com.bluesky.cloudmontain.cdr.CdrLog;
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.cloudmontain.metrics.Counter;
+import com.bluesky.cloudmontain.metrics.FrameStats;
 import com.bluesky.common.SubscriberDatabase;
 import com.bluesky.common.CallInformation;
 import com.bluesky.common.GlobalConstants;
-import com.bluesky.common.NamedTimerTask;
 import com.bluesky.common.OLog;
 import com.bluesky.protocol.*;
 
 import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.EnumMap;
-import java.util.List;
-import java.util.Timer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by liangc on 08/02/15.
@@ -21,30 +24,138 @@ public class CallProcessor {
         public void callEnd();
     }
 
+    /** cp with members fixed at creation, taken from database */
     public CallProcessor(long grp_id, long su_id,
                          final Repeator rptr,  final SubscriberDatabase database,
-                         final Timer timer, final OLog logger){
+                         final HashedWheelTimer timer, final OLog logger){
+        this(grp_id, su_id, rptr, OnlineGroups.View.of(grp_id, database.getOnlineMembers(grp_id)), timer, logger);
+    }
+
+    /** cp with live members, see OnlineGroups */
+    public CallProcessor(long grp_id, long su_id,
+                         final Repeator rptr,  final OnlineGroups.View members,
+                         final HashedWheelTimer timer, final OLog logger){
         TAG = "CP[" + grp_id + "]";
+        mGrpId = grp_id;
         mRptr = rptr;
-        mLogger = logger;
+        mLogger = Log.of(logger);
         mTimer = timer;
-        mOnlineSubs = database.getOnlineMembers(grp_id);
+        mTick = createTimer();
+        mMembers = members;
         initializeSM();
         mStateNode.entry();
+        CALLS[mState.ordinal()].inc();
     }
 
     public void packetReceived(DatagramPacket packet){
+        packetReceived(RxPacket.wrap(packet));
+    }
+
+    /** packet handed over by receiver, it's released once handled */
+    public void packetReceived(RxPacket packet){
+        if(mRetired){
+            // raced with eviction, caller's next call init gets a new cp
+            TrunkMetrics.RX_RETIRED_CP.inc();
+            packet.release();
+            return;
+        }
         saveStateContext();
+        mRxTime = packet.rxTime();
         mStateNode.packetReceived(packet);
+        mRxTime = 0;
         updateStateContext();
+        packet.release();
+    }
+
+    /** tick of the call, every CALL_PACKET_INTERVAL while a call is active */
+    public void timerExpired(TimerHandle timer){
+        if(!timer.takeExpiry()){
+            mLogger.d(TAG, "lingering {}", timer);
+            return;
+        }
+        if(mRetired){
+            return;
+        }
+        saveStateContext();
+        mStateNode.tick(System.nanoTime());
+        updateStateContext();
+    }
+
+    /** stop for good, cp is evicted from registry, and will be dropped, in cp's context */
+    public void retire(){
+        mLogger.i(TAG, "retired in {}", mState);
+        stopTick();
+        endCall();
+        mRetired = true;
+        CALLS[mState.ordinal()].dec();
+    }
+
+    /** log a record of each call into cdr, null not to, set before cp gets any packet */
+    public void setCdrLog(CdrLog cdr){
+        mCdr = cdr;
+    }
+
+    /** @return call in progress, null if idle, read by any thread, see WarmState */
+    public ActiveCall activeCall(){
+        return mActiveCall;
     }
 
-    public void timerExpired(NamedTimerTask timerTask){
+    /** resume a call which was in progress before restart, see WarmState, if idle
+     *  - caller is taken as transmitting, if it's not anymore, flywheel times out into
+     *    hang, which terminates the call for listeners
+     *  - the call keeps its start time, so its record covers it from before restart, frames
+     *    are counted from resume only
+     */
+    public void resumeCall(ActiveCall call){
+        if(mState != State.IDLE || mRetired){
+            return;
+        }
+        mLogger.i(TAG, "resume call from {}", call.mSourceId);
         saveStateContext();
-        mStateNode.timerExpired(timerTask);
+        mCallInfo.mSenderIpPort = call.mSender;
+        mCallInfo.mSequence = 0;
+        mCallInfo.mSourceId = call.mSourceId;
+        mCallInfo.mTargetId = mGrpId;
+        mInitFrame = prepareFrame(new CallInit(mGrpId, call.mSourceId, (short)0), mInitFrame);
+        mTermFrame = prepareFrame(new CallTerm(mGrpId, call.mSourceId, (short)0, (short)0), mTermFrame);
+        mActiveCall = call;
+        startCall(call.mStartMs);
+        mLastTime = System.nanoTime();
+        startTick(mLastTime);
+        mState = State.TXING;
         updateStateContext();
     }
 
+    /** caller of a call in progress, immutable */
+    public static final class ActiveCall {
+        /** @param startMs wall clock time call started, System.currentTimeMillis() */
+        public ActiveCall(long grp_id, long su_id, InetSocketAddress sender, long startMs){
+            mGrpId = grp_id;
+            mSourceId = su_id;
+            mSender = sender;
+            mStartMs = startMs;
+        }
+
+        public final long mGrpId;
+        public final long mSourceId;
+        public final InetSocketAddress mSender;
+        public final long mStartMs;
+    }
+
+    public long groupId(){
+        return mGrpId;
+    }
+
+    /** @return true if cp sits in idle, i.e. no call */
+    public boolean isParked(){
+        return mParked;
+    }
+
+    /** @return System.nanoTime() cp got parked */
+    public long parkedSince(){
+        return mParkedSince;
+    }
+
     private void saveStateContext(){
         mStateOrig = mState;
     }
@@ -54,6 +165,8 @@ public class CallProcessor {
             mStateNode.exit();
             mStateNode = mStateMap.get(mState);
             mStateNode.entry();
+            CALLS[mStateOrig.ordinal()].dec();
+            CALLS[mState.ordinal()].inc();
         }
     }
 
@@ -62,58 +175,162 @@ public class CallProcessor {
         mCallInfo.mSequence = callInit.getSequence();
         mCallInfo.mSourceId = callInit.getSource();
         mCallInfo.mTargetId = callInit.getTarget();
+        mInitFrame = prepareFrame(new CallInit(mCallInfo.mTargetId, mCallInfo.mSourceId, (short)0), mInitFrame);
+        mTermFrame = prepareFrame(new CallTerm(mCallInfo.mTargetId, mCallInfo.mSourceId, (short)0, (short)0), mTermFrame);
+        endCall();
+        long now = System.currentTimeMillis();
+        mActiveCall = new ActiveCall(mGrpId, mCallInfo.mSourceId, mCallInfo.mSenderIpPort, now);
+        startCall(now);
+    }
+
+    /** @param startMs wall clock time call started */
+    private void startCall(long startMs){
+        mCallStartMs = startMs;
+        mCallEndMs = 0;
+        mCallFrames = 0;
+        mCallSynthesized = 0;
+    }
+
+    /** caller is done, by its call term or flywheel timeout, call hang that follows isn't
+     *  part of the call, its end and frame counts are taken now, logged by endCall()
+     */
+    private void stampCallEnd(){
+        if(mActiveCall == null || mCallEndMs != 0){
+            return;
+        }
+        mCallEndMs = System.currentTimeMillis();
+        mEndFrames = mCallFrames;
+        mEndSynthesized = mCallSynthesized;
+    }
+
+    /** call in progress is over, if any, log its record */
+    private void endCall(){
+        ActiveCall call = mActiveCall;
+        if(call == null){
+            return;
+        }
+        mActiveCall = null;
+        stampCallEnd();
+        if(mCdr != null){
+            mCdr.record(mGrpId, call.mSourceId, mCallStartMs, mCallEndMs,
+                    mEndFrames - mEndSynthesized, mEndSynthesized);
+        }
+    }
+
+    /** serialize a frame template once per call, synthesized frames patch it per tick */
+    private static ByteBuffer prepareFrame(ProtocolBase proto, ByteBuffer frame){
+        int size = proto.getSize();
+        if(frame == null || frame.capacity() < size){
+            frame = ByteBuffer.allocate(size);
+        }
+        frame.clear();
+        proto.serialize(frame);
+        frame.limit(size);
+        frame.position(0);
+        return frame;
     }
 
     /** forward packet to all group members, except current transmitting SU */
     private void forwardToGrpMembers(ProtocolBase proto){
         mLastTime = System.nanoTime();
-        mRptr.repeat(mOnlineSubs, mCallInfo, proto);
+        ++mCallFrames;
+        mRptr.repeat(mMembers.members(), mCallInfo, proto);
+        mStats.frameSent(mRxTime, mLastTime, System.nanoTime());
     }
 
-    protected NamedTimerTask createTimerTask(){
+    /** forward raw bytes as they are, the payload is opaque to us */
+    private void forwardToGrpMembers(ByteBuffer raw){
+        mLastTime = System.nanoTime();
+        ++mCallFrames;
+        mRptr.forward(mMembers.members(), mCallInfo, raw);
+        mStats.frameSent(mRxTime, mLastTime, System.nanoTime());
+    }
+
+    /** frame timing of this group, see FrameStats */
+    public FrameStats stats(){
+        return mStats;
+    }
+
+    /** validate packet is from current caller, by sender address and header */
+    private boolean isFromCaller(RxPacket rxPacket){
+        DatagramPacket packet = rxPacket.getPacket();
+        if( !packet.getAddress().equals(mCallInfo.mSenderIpPort.getAddress())
+                || packet.getPort() != mCallInfo.mSenderIpPort.getPort())
+        {
+            if(Log.isDebugEnabled()) {
+                mLogger.d(TAG, "state=" + mState +
+                        ", unexp sender:" + packet.getAddress() + ":" + packet.getPort() +
+                        ", (exp:" + mCallInfo.mSenderIpPort.getAddress() + ":" + mCallInfo.mSenderIpPort.getPort()
+                );
+            }
+            return false;
+        }
+
+        ByteBuffer raw = rxPacket.getBuffer();
+        long suid = PacketHeader.peepSource(raw);
+        long tgtid = PacketHeader.peepTarget(raw);
+
+        if( suid != mCallInfo.mSourceId || tgtid != mCallInfo.mTargetId ){
+            mLogger.d(TAG, "state={}, packet for different call, src={}, target={}", mState, suid, tgtid);
+            return false;
+        }
+        return true;
+    }
+
+    /** create a reusable timer, expiring in timer thread */
+    protected TimerHandle createTimer(){
         ++mTimerSeed;
-        mLogger.d(TAG, "create timerTask[" + mTimerSeed +"]");
-        return new NamedTimerTask(mTimerSeed) {
+        return new TimerHandle(mTimerSeed, new TimerHandle.Callback() {
             @Override
-            public void run() {
-                (CallProcessor.this).timerExpired(this);
+            public void expired(TimerHandle handle) {
+                (CallProcessor.this).timerExpired(handle);
             }
-        };
+        });
+    }
+
+    /** start tick at fixed rate, aligned to the call's first frame
+     *
+     * @param frameTime System.nanoTime() of first frame
+     */
+    private void startTick(long frameTime){
+        mTimer.scheduleAtDeadline(mTick, frameTime + PACKET_INTERVAL_NS, PACKET_INTERVAL_NS);
+    }
+
+    private void stopTick(){
+        mTimer.cancel(mTick);
     }
 
-    /** rearm flywheel for given duration
+    /** rearm flywheel for given duration, it's a deadline checked on tick
      *
-     * @param dur
+     * @param dur in milli seconds
      */
     private void rearmFlyWheel(long dur){
-        if(mFlywheelTimerTask!=null){
-            mFlywheelTimerTask.cancel();
-        }
-        mFlywheelTimerTask = createTimerTask();
-        mTimer.schedule(mFlywheelTimerTask, dur);
+        mFlywheelDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dur);
     }
 
-    private void cancelFlywheel(){
-        if(mFlywheelTimerTask!=null){
-            mFlywheelTimerTask.cancel();
-            mFlywheelTimerTask = null;
-        }
+    private boolean isFlywheelExpired(long now){
+        return now - mFlywheelDeadline >= 0;
     }
+
     /** synthesize callInit based on last callInit seq, and send to all grp members
      *
      */
     private void sendCallInit(){
-        CallInit callInit = new CallInit(mCallInfo.mTargetId, mCallInfo.mSourceId, ++mCallInitSeq);
-        forwardToGrpMembers(callInit);
+        PacketHeader.putSequence(mInitFrame, ++mCallInitSeq);
+        forwardToGrpMembers(mInitFrame);
+        ++mCallSynthesized;
+        TrunkMetrics.TX_SYNTHESIZED.inc();
     }
 
     /** synthesize callTerm based on last callTerm seq, and send to all grp members
      *
      */
     private void sendCallTerm(){
-        CallTerm callTerm = new CallTerm(mCallInfo.mTargetId, mCallInfo.mSourceId,
-                ++mCallTermAudioSeq, --mCallHangCountdown);
-        forwardToGrpMembers(callTerm);
+        PacketHeader.putSequence(mTermFrame, ++mCallTermAudioSeq);
+        PacketHeader.putCountdown(mTermFrame, --mCallHangCountdown);
+        forwardToGrpMembers(mTermFrame);
+        ++mCallSynthesized;
+        TrunkMetrics.TX_SYNTHESIZED.inc();
     }
 
 
@@ -121,14 +338,30 @@ public class CallProcessor {
     short mCallInitSeq, mCallTermSeq, mCallTermAudioSeq;
     short mCallHangCountdown;
     long mLastTime;
+    /** receive time of the packet being handled, 0 on tick */
+    long mRxTime;
+    long mFlywheelDeadline;
     protected int mTimerSeed = 0;
-
-    List<SubscriberDatabase.OnlineRecord> mOnlineSubs;
-    NamedTimerTask mFlywheelTimerTask;
-    final Timer mTimer;
+    boolean mRetired = false;
+    /** read by registry, outside of cp's context */
+    volatile boolean mParked;
+    volatile long mParkedSince;
+    volatile ActiveCall mActiveCall;
+    /** of call in progress, for cdr, end is 0 until it's stamped, see stampCallEnd() */
+    long mCallStartMs, mCallEndMs;
+    int mCallFrames, mCallSynthesized;
+    int mEndFrames, mEndSynthesized;
+    CdrLog mCdr;
+
+    ByteBuffer mInitFrame, mTermFrame;
+    final OnlineGroups.View mMembers;
+    final long mGrpId;
+    final FrameStats mStats = new FrameStats(PACKET_INTERVAL_NS);
+    final TimerHandle mTick;
+    final HashedWheelTimer mTimer;
     final Repeator mRptr;
     final CallInformation mCallInfo = new CallInformation();
-    final OLog mLogger;
+    final Log mLogger;
 
     /////////////////////////////////// sub states ///////////////////////////
     private enum State {
@@ -141,8 +374,8 @@ public class CallProcessor {
     private class StateNode {
         public void entry(){};
         public void exit(){};
-        public void timerExpired(NamedTimerTask timerTask){};
-        public void packetReceived(DatagramPacket packet){};
+        public void tick(long now){};
+        public void packetReceived(RxPacket packet){};
     }
 
     private class StateIdle extends StateNode{
@@ -150,26 +383,27 @@ public class CallProcessor {
         @Override
         public void entry() {
             mLogger.d(TAG, "entry idle");
+            stopTick();
+            mStats.callEnded();
+            endCall();
+            mParkedSince = System.nanoTime();
+            mParked = true;
         }
 
         @Override
         public void exit() {
             mLogger.d(TAG, "exit idle");
+            mParked = false;
         }
 
         @Override
-        public void timerExpired(NamedTimerTask timerTask) {
-
-        }
-
-        @Override
-        public void packetReceived(DatagramPacket packet) {
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            if(proto.getType() == ProtocolBase.PTYPE_CALL_INIT){
-                CallInit callInit = (CallInit) proto;
-                recordCallInfo(callInit, packet);
+        public void packetReceived(RxPacket packet) {
+            if(PacketHeader.peepType(packet.getBuffer()) == ProtocolBase.PTYPE_CALL_INIT){
+                CallInit callInit = (CallInit) ProtocolFactory.getProtocol(packet.getPacket());
+                recordCallInfo(callInit, packet.getPacket());
                 mCallInitSeq = callInit.getSequence();
                 forwardToGrpMembers(callInit);
+                startTick(mLastTime);
                 mState = State.INIT;
             }
         }
@@ -177,7 +411,7 @@ public class CallProcessor {
 
     /** start call init sequence
      * - repeat caller's callInit/Data/Term packets
-     * - for 20ms timeout, sync/send callInit on behalf of caller
+     * - on tick, if caller's callInit is missing, sync/send callInit on behalf of caller
      * - for 120ms timeout, fall to call hang to terminate the session
      *  NOTE: for all following states, we timeout the call session  and return to idle state.
      *  Right now, time out is 6 packet, i.e. 20ms * 6.
@@ -188,96 +422,50 @@ public class CallProcessor {
         public void entry() {
             mLogger.d(TAG, "entry init");
             rearmFlyWheel(GlobalConstants.CALL_FLYWHEEL_PERIOD);
-            mTimerTask = createTimerTask();
-            mTimer.schedule(mTimerTask, GlobalConstants.CALL_PACKET_INTERVAL);
         }
 
         @Override
         public void exit() {
-            if( mTimerTask != null){
-                mTimerTask.cancel();
-                mTimerTask = null;
-            }
             mLogger.d(TAG, "exit init");
         }
 
         @Override
-        public void timerExpired(NamedTimerTask timerTask) {
-            if( timerTask == mFlywheelTimerTask ){
-                mLogger.i(TAG, "flywheel times out in " + mState);
+        public void tick(long now) {
+            if( isFlywheelExpired(now) ){
+                mLogger.i(TAG, "flywheel times out in {}", mState);
                 mState = State.HANG;
-            } else if( timerTask == mTimerTask ) {
-                mLogger.i(TAG, "init: timer exp");
+            } else if( now - mLastTime >= PACKET_INTERVAL_NS - TICK_SLACK_NS ) {
                 sendCallInit();
-                rearmTxTimer();
             }
         }
 
         @Override
-        public void packetReceived(DatagramPacket packet) {
-            if(!validatePacket(packet)){
+        public void packetReceived(RxPacket packet) {
+            if(!isFromCaller(packet)){
                 return;
             }
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            short protoType = proto.getType();
+            ByteBuffer raw = packet.getBuffer();
+            short protoType = PacketHeader.peepType(raw);
             switch(protoType){
                 case ProtocolBase.PTYPE_CALL_INIT:
-                    CallInit callInit = (CallInit) proto;
+                    CallInit callInit = (CallInit) ProtocolFactory.getProtocol(packet.getPacket());
                     mCallInitSeq = callInit.getSequence();
-                    forwardToGrpMembers(proto);
-                    rearmTxTimer();
+                    forwardToGrpMembers(callInit);
                     rearmFlyWheel(GlobalConstants.CALL_FLYWHEEL_PERIOD);
                     break;
                 case ProtocolBase.PTYPE_CALL_DATA:
-                    forwardToGrpMembers(proto);
+                    forwardToGrpMembers(raw);
                     mState = State.TXING;
                     break;
                 case ProtocolBase.PTYPE_CALL_TERM:
-                    mCallTermSeq = proto.getSequence();
+                    mCallTermSeq = PacketHeader.peepSequence(raw);
                     mState = State.HANG;
                     break;
                 default:
-                    mLogger.d(TAG, "init: rxed unexp packet:" + proto.toString());
+                    mLogger.d(TAG, "init: rxed unexp packet, type={}", protoType);
                     break;
             }
         }
-
-        /** rearm tx timer per current elapse time
-         *
-         */
-        private void rearmTxTimer(){
-            mTimerTask = createTimerTask();
-            long timeNow = System.nanoTime();
-            long delay = GlobalConstants.CALL_PACKET_INTERVAL + (mLastTime - timeNow) / (1000L * 1000);
-            if( delay < 0){
-                delay = 1;
-            }
-            mTimer.schedule(mTimerTask, delay);
-        }
-
-        private boolean validatePacket(DatagramPacket packet){
-            if( !packet.getAddress().equals(mCallInfo.mSenderIpPort.getAddress())
-                    || packet.getPort() != mCallInfo.mSenderIpPort.getPort())
-            {
-                mLogger.d(TAG, "state=" + mState +
-                        ", unexp sender:" + packet.getAddress() + ":" + packet.getPort() +
-                        ", (exp:" + mCallInfo.mSenderIpPort.getAddress() + ":" + mCallInfo.mSenderIpPort.getPort()
-                );
-                return false;
-            }
-
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            long suid = proto.getSource();
-            long tgtid = proto.getTarget();
-
-            if( suid != mCallInfo.mSourceId || tgtid != mCallInfo.mTargetId ){
-                mLogger.d(TAG, "init: call init for different tgt, src=" + suid + ", target=" + tgtid);
-                return false;
-            }
-            return true;
-        }
-
-        NamedTimerTask mTimerTask;
     }
 
     /** transmitting state
@@ -298,68 +486,46 @@ public class CallProcessor {
         }
 
         @Override
-        public void timerExpired(NamedTimerTask timerTask){
-            if( timerTask == mFlywheelTimerTask ){
-                mLogger.i(TAG, "flywheel times out in " + mState);
+        public void tick(long now){
+            if( isFlywheelExpired(now) ){
+                mLogger.i(TAG, "flywheel times out in {}", mState);
                 mState = State.HANG;
             }
         }
 
         @Override
-        public void packetReceived(DatagramPacket packet) {
-            if(!validatePacket(packet)){
+        public void packetReceived(RxPacket packet) {
+            if(!isFromCaller(packet)){
                 return;
             }
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            short protoType = proto.getType();
+            ByteBuffer raw = packet.getBuffer();
+            short protoType = PacketHeader.peepType(raw);
             switch(protoType){
                 case ProtocolBase.PTYPE_CALL_INIT:
-                    forwardToGrpMembers(proto);
+                    forwardToGrpMembers(ProtocolFactory.getProtocol(packet.getPacket()));
                     rearmFlyWheel(GlobalConstants.CALL_FLYWHEEL_PERIOD);
                     break;
                 case ProtocolBase.PTYPE_CALL_DATA:
-                    mCallTermSeq = proto.getSequence();
-                    forwardToGrpMembers(proto);
+                    mCallTermSeq = PacketHeader.peepSequence(raw);
+                    forwardToGrpMembers(raw);
                     rearmFlyWheel(GlobalConstants.CALL_FLYWHEEL_PERIOD);
                     break;
                 case ProtocolBase.PTYPE_CALL_TERM:
-                    mCallTermSeq = proto.getSequence();
+                    mCallTermSeq = PacketHeader.peepSequence(raw);
                     mState = State.HANG;
                     break;
                 default:
-                    mLogger.d(TAG, "init: rxed unexp packet:" + proto.toString());
+                    mLogger.d(TAG, "txing: rxed unexp packet, type={}", protoType);
                     break;
             }
         }
-
-        private boolean validatePacket(DatagramPacket packet){
-            if( !packet.getAddress().equals(mCallInfo.mSenderIpPort.getAddress())
-                    || packet.getPort() != mCallInfo.mSenderIpPort.getPort())
-            {
-                mLogger.d(TAG, "state=" + mState +
-                        ", unexp sender:" + packet.getAddress() + ":" + packet.getPort() +
-                        ", (exp:" + mCallInfo.mSenderIpPort.getAddress() + ":" + mCallInfo.mSenderIpPort.getPort()
-                );
-                return false;
-            }
-
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            long suid = proto.getSource();
-            long tgtid = proto.getTarget();
-
-            if( suid != mCallInfo.mSourceId || tgtid != mCallInfo.mTargetId ){
-                mLogger.d(TAG, "init: call init for different tgt, src=" + suid + ", target=" + tgtid);
-                return false;
-            }
-            return true;
-        }
     }
 
     /** call hang state
      *  - repeat caller's calldata, but drop its callterm
      *  - for call init, go to call init
      *  - for call hang timeout, fall to idle, right now, it's fixed at 5s.
-     *  - for 20ms timeout, sync/send call term
+     *  - on tick, sync/send call term
      */
     private class StateHang extends StateNode {
 
@@ -368,112 +534,79 @@ public class CallProcessor {
             mLogger.d(TAG, "entry call hang");
 //            mCallHangEntryTime = System.nanoTime();
             mCallHangCountdown = GlobalConstants.CALL_HANG_COUNTDOWN;
+            // before call terms of the hang
+            stampCallEnd();
             sendCallTerm();
-            rearmTxTimer();
         }
 
         @Override
         public void exit() {
-            if( mTimerTask != null){
-                mTimerTask.cancel();
-                mTimerTask = null;
-            }
             mLogger.d(TAG, "exit call hang");
         }
 
         @Override
-        public void timerExpired(NamedTimerTask timerTask) {
-            if( timerTask == mTimerTask ) {
-                mLogger.i(TAG, "init: timer exp");
-                sendCallTerm();
-                if( 0 == mCallHangCountdown){
-                    mLogger.i(TAG, "call hang over");
-                    mState = State.IDLE;
-                } else {
-                    rearmTxTimer();
-                }
+        public void tick(long now) {
+            sendCallTerm();
+            if( 0 == mCallHangCountdown){
+                mLogger.i(TAG, "call hang over");
+                mState = State.IDLE;
             }
         }
 
         @Override
-        public void packetReceived(DatagramPacket packet) {
+        public void packetReceived(RxPacket packet) {
             if(!validatePacket(packet)){
                 return;
             }
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            short protoType = proto.getType();
+            short protoType = PacketHeader.peepType(packet.getBuffer());
             switch(protoType){
                 case ProtocolBase.PTYPE_CALL_INIT:
-                    recordCallInfo((CallInit)proto, packet);
-                    forwardToGrpMembers(proto);
+                    CallInit callInit = (CallInit) ProtocolFactory.getProtocol(packet.getPacket());
+                    recordCallInfo(callInit, packet.getPacket());
+                    mCallInitSeq = callInit.getSequence();
+                    forwardToGrpMembers(callInit);
+                    startTick(mLastTime);
                     mState =  State.INIT;
                     break;
                 case ProtocolBase.PTYPE_CALL_DATA:
-                    forwardToGrpMembers(proto);
+                    forwardToGrpMembers(packet.getBuffer());
                     break;
                 case ProtocolBase.PTYPE_CALL_TERM:
                     // discard
                     break;
                 default:
-                    mLogger.d(TAG, "hang: rxed unexp packet:" + proto.toString());
+                    mLogger.d(TAG, "hang: rxed unexp packet, type={}", protoType);
                     break;
             }
         }
 
-        /** rearm tx timer per current elapse time
-         *
-         */
-        private void rearmTxTimer(){
-            mTimerTask = createTimerTask();
-            long delay =  (GlobalConstants.CALL_HANG_COUNTDOWN - mCallHangCountdown )
-                    * GlobalConstants.CALL_PACKET_INTERVAL / (1000L * 1000);
-            if( delay < 0){
-                delay = 1;
-            }
-            mTimer.schedule(mTimerTask, delay);
-        }
-
         /** only allow callinit from same group
          *
          * @param packet
          * @return
          */
-        private boolean validatePacket(DatagramPacket packet){
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            long suid = proto.getSource();
-            long tgtid = proto.getTarget();
+        private boolean validatePacket(RxPacket packet){
+            ByteBuffer raw = packet.getBuffer();
             boolean valid = false;
-            switch( proto.getType()){
+            switch( PacketHeader.peepType(raw)){
                 case ProtocolBase.PTYPE_CALL_INIT:
+                    long tgtid = PacketHeader.peepTarget(raw);
                     if( tgtid != mCallInfo.mTargetId ){
-                        mLogger.d(TAG, "hang state: call init for different tgt, src=" + suid + ", target=" + tgtid);
+                        mLogger.d(TAG, "hang state: call init for different tgt, src={}, target={}",
+                                PacketHeader.peepSource(raw), tgtid);
                     } else {
                         valid = true;
                     }
                     break;
                 case ProtocolBase.PTYPE_CALL_DATA:
                 case ProtocolBase.PTYPE_CALL_TERM:
-                    if( !packet.getAddress().equals(mCallInfo.mSenderIpPort.getAddress())
-                            || packet.getPort() != mCallInfo.mSenderIpPort.getPort())
-                    {
-                        mLogger.d(TAG, "state=" + mState +
-                            ", unexp sender:" + packet.getAddress() + ":" + packet.getPort() +
-                            ", (exp:" + mCallInfo.mSenderIpPort.getAddress() + ":" + mCallInfo.mSenderIpPort.getPort()
-                        );
-                        break;
-                    }
-                    if( tgtid != mCallInfo.mTargetId || suid != mCallInfo.mSourceId){
-                        mLogger.d(TAG, "hang state: call term for different tgt, src=" + suid + ", target=" + tgtid);
-                        break;
-                    }
-                    valid = true;
+                    valid = isFromCaller(packet);
                     break;
             }
 
             return valid;
         }
 
-        NamedTimerTask mTimerTask;
 //        Long mCallHangEntryTime;
     }
 
@@ -497,4 +630,16 @@ public class CallProcessor {
     final EnumMap<State, StateNode> mStateMap = new EnumMap<State, StateNode>(State.class);
 
     String TAG;
+
+    /** cps per state, across all groups, indexed by State.ordinal() */
+    private static final Counter[] CALLS = new Counter[State.values().length];
+    static {
+        for(State state : State.values()){
+            CALLS[state.ordinal()] = TrunkMetrics.callsIn(state.name().toLowerCase());
+        }
+    }
+
+    static final long PACKET_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(GlobalConstants.CALL_PACKET_INTERVAL);
+    /** tolerance of tick vs caller's own cadence */
+    static final long TICK_SLACK_NS = TimeUnit.MILLISECONDS.toNanos(2);
 }
@@ -0,0 +1,117 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.OLog;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** provides the serial executor of each cp, per execution mode
+ *  - LANES: serial lanes multiplexed onto a shared worker pool
+ *  - PLATFORM_THREAD: a single thread executor per cp, the original model
+ *  - VIRTUAL_THREAD: a single thread executor per cp, backed by a virtual thread (java 21+),
+ *      keeps "one thread per group", without the cost of a platform stack per group
+ */
+public abstract class CpExecutorFactory {
+    public enum Mode {
+        LANES,
+        PLATFORM_THREAD,
+        VIRTUAL_THREAD,
+    }
+
+    public static CpExecutorFactory create(Mode mode, int workers, OLog logger){
+        switch (mode){
+            case PLATFORM_THREAD:
+                return new ThreadPerCp(Executors.defaultThreadFactory());
+            case VIRTUAL_THREAD:
+                return new ThreadPerCp(virtualThreadFactory());
+            case LANES:
+            default:
+                return new Lanes(new LaneScheduler(workers, logger));
+        }
+    }
+
+    /** @return a new serial executor, for cp of given group */
+    public abstract Executor newExecutor(long grp_id);
+
+    /** release executor of a cp which is gone */
+    public abstract void release(Executor exec);
+
+    public abstract void shutdown();
+
+    /** virtual thread factory, through reflection, as we still build for older jdk
+     * @throws IllegalStateException if the runtime has no virtual thread
+     */
+    static ThreadFactory virtualThreadFactory(){
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "cp-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e){
+            throw new IllegalStateException("virtual thread is not supported by java "
+                    + System.getProperty("java.version") + ", exp: " + e);
+        }
+    }
+
+    private static class Lanes extends CpExecutorFactory {
+        Lanes(LaneScheduler scheduler){
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public Executor newExecutor(long grp_id){
+            return mScheduler.newLane();
+        }
+
+        @Override
+        public void release(Executor exec){
+            // lane holds no thread
+        }
+
+        @Override
+        public void shutdown(){
+            mScheduler.shutdown();
+        }
+
+        private final LaneScheduler mScheduler;
+    }
+
+    private static class ThreadPerCp extends CpExecutorFactory {
+        ThreadPerCp(ThreadFactory factory){
+            mFactory = factory;
+        }
+
+        @Override
+        public Executor newExecutor(long grp_id){
+            ExecutorService exec = Executors.newSingleThreadExecutor(mFactory);
+            mExecs.add(exec);
+            return exec;
+        }
+
+        @Override
+        public void release(Executor exec){
+            if(mExecs.remove(exec)){
+                ((ExecutorService)exec).shutdown();
+            }
+        }
+
+        @Override
+        public void shutdown(){
+            for(ExecutorService exec : mExecs){
+                exec.shutdown();
+            }
+            mExecs.clear();
+        }
+
+        private final ThreadFactory mFactory;
+        private final Set<ExecutorService> mExecs =
+                Collections.newSetFromMap(new ConcurrentHashMap<ExecutorService, Boolean>());
+    }
+}
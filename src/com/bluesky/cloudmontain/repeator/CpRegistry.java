@@ -0,0 +1,113 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.cloudmontain.database.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** cps by group id, shared by receivers and the sweeper
+ *  - striped into segments, each a primitive keyed map, so no group id is boxed
+ *  - lookups never lock, a segment's map is copy-on-write, replaced as a whole under the
+ *    segment's lock, which only writers take, i.e. cp creation and eviction
+ *  - a cp lives from the first call init of its group, until it's parked (idle)
+ *    for longer than the idle time, see removeParked()
+ */
+public class CpRegistry {
+    public CpRegistry(){
+        mSegments = new Segment[SEGMENTS];
+        for(int i = 0; i < SEGMENTS; ++i){
+            mSegments[i] = new Segment();
+        }
+    }
+
+    public ThreadedCP get(long grp_id){
+        return segmentOf(grp_id).cps.get(grp_id);
+    }
+
+    /** @return cp already registered for the group, or null if cp got registered */
+    public ThreadedCP putIfAbsent(long grp_id, ThreadedCP cp){
+        Segment seg = segmentOf(grp_id);
+        synchronized (seg){
+            ThreadedCP cur = seg.cps.get(grp_id);
+            if(cur == null){
+                LongObjectMap<ThreadedCP> cps = new LongObjectMap<ThreadedCP>(seg.cps);
+                cps.put(grp_id, cp);
+                seg.cps = cps;
+            }
+            return cur;
+        }
+    }
+
+    /** remove cps parked since before given time
+     *  - parked is read outside of a cp's context, a call init queued to a cp may start a
+     *    call right after, caller has to check again in cp's context, and put it back if
+     *    so, see ThreadedCP.retireIfParked()
+     * @param parkedBefore System.nanoTime() based
+     * @return removed cps, they're to be retired by caller
+     */
+    public List<ThreadedCP> removeParked(long parkedBefore){
+        List<ThreadedCP> removed = new ArrayList<ThreadedCP>();
+        for(Segment seg : mSegments){
+            synchronized (seg){
+                LongObjectMap<ThreadedCP> cps = null;
+                for(ThreadedCP cp : seg.cps.values()){
+                    if(cp.isParked() && cp.parkedSince() - parkedBefore <= 0){
+                        if(cps == null){
+                            cps = new LongObjectMap<ThreadedCP>(seg.cps);
+                        }
+                        cps.remove(cp.groupId());
+                        removed.add(cp);
+                    }
+                }
+                if(cps != null){
+                    seg.cps = cps;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** @return cps registered at the moment */
+    public List<ThreadedCP> all(){
+        List<ThreadedCP> all = new ArrayList<ThreadedCP>();
+        for(Segment seg : mSegments){
+            all.addAll(seg.cps.values());
+        }
+        return all;
+    }
+
+    /** remove all cps, on shutdown */
+    public List<ThreadedCP> removeAll(){
+        List<ThreadedCP> removed = new ArrayList<ThreadedCP>();
+        for(Segment seg : mSegments){
+            synchronized (seg){
+                removed.addAll(seg.cps.values());
+                seg.cps = new LongObjectMap<ThreadedCP>();
+            }
+        }
+        return removed;
+    }
+
+    public int size(){
+        int size = 0;
+        for(Segment seg : mSegments){
+            size += seg.cps.size();
+        }
+        return size;
+    }
+
+    private Segment segmentOf(long grp_id){
+        int h = (int)(grp_id ^ (grp_id >>> 32));
+        h ^= (h >>> 16);
+        return mSegments[h & (SEGMENTS - 1)];
+    }
+
+    private static class Segment {
+        /** never modified once published */
+        volatile LongObjectMap<ThreadedCP> cps = new LongObjectMap<ThreadedCP>();
+    }
+
+    private final Segment[] mSegments;
+
+    private static final int SEGMENTS = 16;
+}
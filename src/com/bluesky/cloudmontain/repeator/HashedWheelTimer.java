@@ -0,0 +1,231 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.OLog;
+import com.bluesky.common.XLog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/** hashed timing wheel, a replacement of java.util.Timer for call processors
+ *  - schedule/cancel are O(1): a handle is linked into the bucket of its target tick, and
+ *    unlinked on cancel, instead of being kept in a heap until purged
+ *  - handles are reusable, see TimerHandle
+ *  - periodic timers are drift corrected, next deadline is derived from the previous
+ *    deadline, not from the time the expiration got handled
+ *  - resolution is one tick, callbacks are run in the wheel thread, a callback which
+ *    throws is logged, and the wheel goes on
+ */
+public class HashedWheelTimer {
+    public HashedWheelTimer(String name){
+        this(name, new XLog());
+    }
+
+    public HashedWheelTimer(String name, OLog logger){
+        this(name, DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, logger);
+    }
+
+    public HashedWheelTimer(String name, long tickMs, int wheelSize){
+        this(name, tickMs, wheelSize, new XLog());
+    }
+
+    /**
+     * @param tickMs    tick duration, i.e. resolution
+     * @param wheelSize number of buckets, rounded up to power of 2
+     */
+    public HashedWheelTimer(String name, long tickMs, int wheelSize, OLog logger){
+        mName = name;
+        mLogger = logger;
+        mTickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        mMask = size - 1;
+        mWheel = new TimerHandle[size];
+        for(int i = 0; i < size; ++i){
+            // sentinel of each bucket
+            mWheel[i] = new TimerHandle(-1, null);
+            mWheel[i].mPrev = mWheel[i];
+            mWheel[i].mNext = mWheel[i];
+        }
+        mStartTime = System.nanoTime();
+    }
+
+    public synchronized void start(){
+        if(mThread != null){
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(new Worker(), mName);
+        mThread.setDaemon(true);
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    /** stop wheel thread, and wait for it to end, unless called from a callback */
+    public void stop(){
+        mRunning = false;
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if(thread == null){
+            return;
+        }
+        LockSupport.unpark(thread);
+        if(thread == Thread.currentThread()){
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** (re)arm one-shot timer, a pending timer is rescheduled
+     * @param delay in milli seconds
+     */
+    public void schedule(TimerHandle handle, long delay){
+        long now = System.nanoTime();
+        synchronized (this) {
+            arm(handle, now + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)), 0);
+        }
+    }
+
+    /** (re)arm periodic timer, at fixed rate
+     * @param delay  first expiration, in milli seconds
+     * @param period in milli seconds
+     */
+    public void scheduleAtFixedRate(TimerHandle handle, long delay, long period){
+        long now = System.nanoTime();
+        synchronized (this) {
+            arm(handle, now + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)),
+                    TimeUnit.MILLISECONDS.toNanos(period));
+        }
+    }
+
+    /** (re)arm timer with absolute deadline
+     * @param deadline first expiration, in System.nanoTime()
+     * @param period   in nano seconds, 0 for one-shot
+     */
+    public void scheduleAtDeadline(TimerHandle handle, long deadline, long period){
+        synchronized (this) {
+            arm(handle, deadline, period);
+        }
+    }
+
+    public synchronized void cancel(TimerHandle handle){
+        unlink(handle);
+        ++handle.mGeneration;
+    }
+
+    /** @return number of pending timers */
+    public synchronized int size(){
+        return mSize;
+    }
+
+    private void arm(TimerHandle handle, long deadline, long period){
+        unlink(handle);
+        ++handle.mGeneration;
+        handle.mPeriod = period;
+        link(handle, deadline);
+    }
+
+    private void link(TimerHandle handle, long deadline){
+        long target = (deadline - mStartTime + mTickNanos - 1) / mTickNanos;
+        if(target <= mTick){
+            target = mTick + 1;
+        }
+        handle.mDeadline = deadline;
+        handle.mTargetTick = target;
+        TimerHandle head = mWheel[(int)(target & mMask)];
+        handle.mPrev = head.mPrev;
+        handle.mNext = head;
+        head.mPrev.mNext = handle;
+        head.mPrev = handle;
+        handle.mPending = true;
+        ++mSize;
+    }
+
+    private void unlink(TimerHandle handle){
+        if(!handle.mPending){
+            return;
+        }
+        handle.mPrev.mNext = handle.mNext;
+        handle.mNext.mPrev = handle.mPrev;
+        handle.mPrev = null;
+        handle.mNext = null;
+        handle.mPending = false;
+        --mSize;
+    }
+
+    /** collect expired handles of given tick, re-link periodic ones
+     * @return chain of expired handles, linked by mNextFired
+     */
+    private synchronized TimerHandle expire(long tick){
+        mTick = tick;
+        TimerHandle fired = null;
+        TimerHandle head = mWheel[(int)(tick & mMask)];
+        TimerHandle handle = head.mNext;
+        while(handle != head){
+            TimerHandle next = handle.mNext;
+            if(handle.mTargetTick <= tick){
+                unlink(handle);
+                handle.mNextFired = fired;
+                fired = handle;
+                handle.mFiredGeneration = handle.mGeneration;
+                if(handle.mPeriod > 0){
+                    long deadline = handle.mDeadline + handle.mPeriod;
+                    long now = mStartTime + tick * mTickNanos;
+                    if(deadline <= now){
+                        // fell behind, skip missed periods rather than bursting
+                        deadline += ((now - deadline) / handle.mPeriod + 1) * handle.mPeriod;
+                    }
+                    link(handle, deadline);
+                }
+            }
+            handle = next;
+        }
+        return fired;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run(){
+            long tick = mTick + 1;
+            while(mRunning){
+                long deadline = mStartTime + tick * mTickNanos;
+                long wait = deadline - System.nanoTime();
+                if(wait > 0){
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                TimerHandle fired = expire(tick);
+                while(fired != null){
+                    TimerHandle next = fired.mNextFired;
+                    fired.mNextFired = null;
+                    try {
+                        fired.fire(fired.mFiredGeneration);
+                    } catch (RuntimeException e){
+                        // one bad callback mustn't stop the other timers
+                        mLogger.w(mName, "timer " + fired + " failed, exp: " + e);
+                    }
+                    fired = next;
+                }
+                ++tick;
+            }
+        }
+    }
+
+    private final String mName;
+    private final OLog mLogger;
+    private final long mTickNanos;
+    private final int mMask;
+    private final TimerHandle[] mWheel;
+    private final long mStartTime;
+    private long mTick = 0;         // last expired tick
+    private int mSize = 0;
+    private Thread mThread;
+    private volatile boolean mRunning = false;
+
+    static final long DEFAULT_TICK_MS   = 1;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+}
@@ -0,0 +1,48 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.OLog;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** fixed pool of workers, shared by the serial lanes of all cps.
+ *  - thread count is bounded by the pool size, no matter how many groups are keyed
+ *  - workers left idle for WORKER_KEEP_ALIVE_S are reclaimed, and re-created on demand
+ */
+public class LaneScheduler {
+    public LaneScheduler(int workers, OLog logger){
+        mLogger = logger;
+        mWorkers = new ThreadPoolExecutor(workers, workers,
+                WORKER_KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new WorkerFactory());
+        mWorkers.allowCoreThreadTimeOut(true);
+    }
+
+    /** @return a new lane, for a cp */
+    public SerialLane newLane(){
+        return new SerialLane(mWorkers, mLogger);
+    }
+
+    public void shutdown(){
+        mWorkers.shutdown();
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r){
+            Thread t = new Thread(r, "cp-worker-" + mSeq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+        private final AtomicInteger mSeq = new AtomicInteger(0);
+    }
+
+    private final ThreadPoolExecutor mWorkers;
+    private final OLog mLogger;
+
+    static final long WORKER_KEEP_ALIVE_S = 60;
+}
@@ -0,0 +1,183 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.OLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+
+/** UDP service built on DatagramChannel, a replacement of UDPService for the trunk center
+ *  - packets are received into pooled RxPackets, nothing is allocated per packet
+ *  - received packets are handed over to CompletionHandler undecoded, the handler owns
+ *    the packet, and has to release it
+ *  - the same channel is used as downlink, so SUs see one address for the trunk center
+ *  - with more than one receiver, each receiver owns a channel bound to the same port
+ *    with SO_REUSEPORT, and its own pool, the kernel hashes an SU to one of them, so
+ *    packets of an SU stay in order, while ingress spreads over cores
+ */
+public class NioUDPService implements PacketSender {
+    public static class Configuration {
+        public InetSocketAddress addrLocal;
+        public int poolSize     = 512;
+        public int packetSize   = 1500;
+        public int rxBufferSize = 4 * 1024 * 1024;
+        /** number of receive threads, each with its own channel and pool, poolSize each */
+        public int receivers    = 1;
+    }
+
+    public interface CompletionHandler {
+        public void completed(RxPacket packet);
+    }
+
+    public NioUDPService(Configuration config, OLog logger){
+        mConfig = config;
+        mLogger = logger;
+    }
+
+    public void setCompletionHandler(CompletionHandler handler){
+        mHandler = handler;
+    }
+
+    public boolean startService(){
+        int receivers = Math.max(1, mConfig.receivers);
+        SocketOption<Boolean> reusePort = reusePortOption();
+        if(receivers > 1 && reusePort == null){
+            // readers sharing one channel would reorder packets of an SU
+            mLogger.w(TAG, "SO_REUSEPORT is not supported, fall back to one receiver");
+            receivers = 1;
+        }
+
+        mChannels = new DatagramChannel[receivers];
+        try {
+            for(int i = 0; i < receivers; ++i){
+                mChannels[i] = openChannel(receivers > 1 ? reusePort : null);
+            }
+        } catch (IOException e){
+            mLogger.w(TAG, "failed to open channel at " + mConfig.addrLocal + ", exp: " + e);
+            closeChannels();
+            return false;
+        }
+
+        mRunning = true;
+        for(int i = 0; i < receivers; ++i){
+            RxPacketPool pool = new RxPacketPool(mConfig.poolSize, mConfig.packetSize);
+            Thread thread = new Thread(new Receiver(mChannels[i], pool), TAG + "-" + i);
+            thread.start();
+        }
+        mLogger.i(TAG, "started " + receivers + " receivers at " + mConfig.addrLocal);
+        return true;
+    }
+
+    public void stopService(){
+        mRunning = false;
+        closeChannels();
+    }
+
+    /** send through one of the channels, picked by calling thread, so concurrent senders
+     *  don't queue up on the same channel, all channels share the same local address
+     */
+    @Override
+    public void send(InetSocketAddress addr, ByteBuffer payload){
+        DatagramChannel[] channels = mChannels;
+        DatagramChannel channel = channels[(int)(Thread.currentThread().getId() % channels.length)];
+        int pos = payload.position();
+        payload.position(0);
+        try {
+            channel.send(payload, addr);
+        } catch (IOException e){
+            mLogger.w(TAG, "failed to send to " + addr + ", exp: " + e);
+        }
+        payload.position(pos);
+    }
+
+    private DatagramChannel openChannel(SocketOption<Boolean> reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if(reusePort != null){
+                channel.setOption(reusePort, true);
+            }
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, mConfig.rxBufferSize);
+            channel.bind(mConfig.addrLocal);
+        } catch (IOException e){
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private void closeChannels(){
+        if(mChannels == null){
+            return;
+        }
+        for(DatagramChannel channel : mChannels){
+            try {
+                if(channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e){
+                mLogger.w(TAG, "exp: " + e);
+            }
+        }
+    }
+
+    /** SO_REUSEPORT, through reflection, as we still build for older jdk (it's java 9+)
+     * @return null if the runtime or the platform doesn't support it
+     */
+    @SuppressWarnings("unchecked")
+    static SocketOption<Boolean> reusePortOption(){
+        try {
+            SocketOption<Boolean> option = (SocketOption<Boolean>)
+                    StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            DatagramChannel probe = DatagramChannel.open();
+            try {
+                return probe.supportedOptions().contains(option) ? option : null;
+            } finally {
+                probe.close();
+            }
+        } catch (Exception e){
+            return null;
+        }
+    }
+
+    private class Receiver implements Runnable {
+        Receiver(DatagramChannel channel, RxPacketPool pool){
+            mChannel = channel;
+            mPool = pool;
+        }
+
+        @Override
+        public void run(){
+            while(mRunning){
+                RxPacket packet = mPool.acquire();
+                try {
+                    packet.receive(mChannel);
+                } catch (AsynchronousCloseException e){
+                    packet.release();
+                    break;
+                } catch (IOException e){
+                    mLogger.w(TAG, "exp: " + e);
+                    packet.release();
+                    continue;
+                }
+                mHandler.completed(packet);
+            }
+            mLogger.i(TAG, "receiver stopped");
+        }
+
+        private final DatagramChannel mChannel;
+        private final RxPacketPool mPool;
+    }
+
+    private final Configuration mConfig;
+    private final OLog mLogger;
+    private CompletionHandler mHandler;
+    private volatile DatagramChannel[] mChannels;
+    private volatile boolean mRunning = false;
+
+    private static final String TAG = "NioUDP";
+}
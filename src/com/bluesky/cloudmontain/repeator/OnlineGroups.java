@@ -0,0 +1,221 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.cloudmontain.database.LongObjectMap;
+import com.bluesky.cloudmontain.database.OnlineTable;
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SnapshotDiff;
+import com.bluesky.common.SubscriberDatabase;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** online members of groups, maintained incrementally, for cps on the fan-out path
+ *  - online sus are kept in an OnlineTable, each group has a View, holding an immutable
+ *    snapshot of its online members, as rows of the table
+ *  - online/offline go through here, they update the database, then patch views of the
+ *    su's own groups by copy-on-write, instead of rebuilding member lists from the database,
+ *    groups of an su come from the snapshot of a SnapshotDatabase, other databases can't
+ *    list them, so all views are checked then
+ *  - readers never lock, membership of a snapshot stays stable for as long as it's held,
+ *    an su moving to another address is updated in its row
+ *  - views are created on demand, i.e. for groups which have a cp, each viewOf() is
+ *    paired with a release(), a view is dropped once no cp holds it
+ *  - views are in a copy-on-write map, so viewOf() of an existing view takes no lock,
+ *    writers hold the lock of this
+ */
+public class OnlineGroups {
+
+    /** online members of a group */
+    public static final class View {
+        View(long grp_id, OnlineTable table){
+            mGrpId = grp_id;
+            mMembers = new OnlineTable.Members(table);
+        }
+
+        /** view of fixed members, which is never updated */
+        public static View of(long grp_id, List<SubscriberDatabase.OnlineRecord> members){
+            OnlineTable table = new OnlineTable(members.size());
+            View view = new View(grp_id, table);
+            long now = System.nanoTime();
+            for(SubscriberDatabase.OnlineRecord record : members){
+                view.put(record.su_id, table.online(record.su_id, record.addr, now));
+            }
+            return view;
+        }
+
+        public long groupId(){
+            return mGrpId;
+        }
+
+        /** @return current snapshot, random access, unmodifiable, see OnlineTable.Members */
+        public OnlineTable.Members members(){
+            return mMembers;
+        }
+
+        /** add su, or update its row, by copy-on-write
+         * @return true if view changed
+         */
+        boolean put(long su_id, int row){
+            OnlineTable.Members cur = mMembers;
+            mMembers = cur.with(su_id, row);
+            return mMembers != cur;
+        }
+
+        /** remove su, by copy-on-write
+         * @return true if view changed
+         */
+        boolean remove(long su_id){
+            OnlineTable.Members cur = mMembers;
+            mMembers = cur.without(su_id);
+            return mMembers != cur;
+        }
+
+        /** @return false if view is dropped already, it's not to be used then */
+        private boolean hold(){
+            while(true){
+                int holders = mHolders.get();
+                if(holders <= 0){
+                    return false;
+                }
+                if(mHolders.compareAndSet(holders, holders + 1)){
+                    return true;
+                }
+            }
+        }
+
+        private final long mGrpId;
+        /** cps holding view, it's dropped at 0 */
+        private final AtomicInteger mHolders = new AtomicInteger(0);
+        private volatile OnlineTable.Members mMembers;
+    }
+
+    public OnlineGroups(SubscriberDatabase database){
+        mDatabase = database;
+        mSnapshotDb = database instanceof SnapshotDatabase ? (SnapshotDatabase)database : null;
+    }
+
+    /** @return view of the group, created from database at first call */
+    public View viewOf(long grp_id){
+        View view = mViews.get(grp_id);
+        if(view != null && view.hold()){
+            return view;
+        }
+        synchronized (this) {
+            view = mViews.get(grp_id);
+            if(view != null && view.hold()){
+                return view;
+            }
+            view = new View(grp_id, mTable);
+            for(SubscriberDatabase.OnlineRecord record : mDatabase.getOnlineMembers(grp_id)){
+                int row = mTable.rowOf(record.su_id);
+                if(row < 0){
+                    // online before it went through here, e.g. loaded with database
+                    row = mTable.online(record.su_id, record.addr, System.nanoTime());
+                }
+                view.put(record.su_id, row);
+            }
+            view.mHolders.set(1);
+            LongObjectMap<View> views = new LongObjectMap<View>(mViews);
+            views.put(grp_id, view);
+            mViews = views;
+            return view;
+        }
+    }
+
+    /** release view got by viewOf() */
+    public synchronized void release(long grp_id){
+        View view = mViews.get(grp_id);
+        if(view != null && view.mHolders.decrementAndGet() <= 0){
+            LongObjectMap<View> views = new LongObjectMap<View>(mViews);
+            views.remove(grp_id);
+            mViews = views;
+        }
+    }
+
+    /** su goes online, or moves to another address */
+    public synchronized void online(long su_id, InetSocketAddress addr){
+        mDatabase.online(su_id, addr);
+        putIntoViews(su_id, mTable.online(su_id, addr, System.nanoTime()));
+    }
+
+    /** batch of sus go online, under one lock */
+    public synchronized void online(long[] su_ids, InetSocketAddress[] addrs, int n){
+        long now = System.nanoTime();
+        for(int i = 0; i < n; ++i){
+            mDatabase.online(su_ids[i], addrs[i]);
+            putIntoViews(su_ids[i], mTable.online(su_ids[i], addrs[i], now));
+        }
+    }
+
+    public synchronized void offline(long su_id){
+        mDatabase.offline(su_id);
+        if(mSnapshotDb != null){
+            for(long grp_id : mSnapshotDb.snapshot().groupsOf(su_id)){
+                View view = mViews.get(grp_id);
+                if(view != null){
+                    view.remove(su_id);
+                }
+            }
+        } else {
+            for(View view : mViews.values()){
+                view.remove(su_id);
+            }
+        }
+        // row is recycled after views let go of it
+        mTable.offline(su_id);
+    }
+
+    /** patch views after database is reloaded, only memberships which changed are
+     *  touched, cps holding a view see new members at their next snapshot
+     */
+    public synchronized void apply(SnapshotDiff diff){
+        for(int i = 0; i < diff.leaveCount(); ++i){
+            View view = mViews.get(diff.leftGroup(i));
+            if(view != null){
+                view.remove(diff.leftSu(i));
+            }
+        }
+        for(int i = 0; i < diff.joinCount(); ++i){
+            View view = mViews.get(diff.joinedGroup(i));
+            int row = mTable.rowOf(diff.joinedSu(i));
+            if(view != null && row >= 0){
+                view.put(diff.joinedSu(i), row);
+            }
+        }
+        for(long su_id : diff.removedSubscribers()){
+            offline(su_id);
+        }
+    }
+
+    /** put su at row into views of its groups, the ones which have a view */
+    private void putIntoViews(long su_id, int row){
+        if(mSnapshotDb != null){
+            for(long grp_id : mSnapshotDb.snapshot().groupsOf(su_id)){
+                View view = mViews.get(grp_id);
+                if(view != null){
+                    view.put(su_id, row);
+                }
+            }
+        } else {
+            // database can't tell groups of an su
+            for(View view : mViews.values()){
+                if(mDatabase.isGroupMember(su_id, view.groupId())){
+                    view.put(su_id, row);
+                }
+            }
+        }
+    }
+
+    /** online sus, in flat rows, views refer to their rows */
+    public OnlineTable table(){
+        return mTable;
+    }
+
+    private final SubscriberDatabase mDatabase;
+    /** mDatabase, if it can list groups of an su, otherwise null */
+    private final SnapshotDatabase mSnapshotDb;
+    private final OnlineTable mTable = new OnlineTable(1024);
+    /** never modified once published, replaced under lock of this */
+    private volatile LongObjectMap<View> mViews = new LongObjectMap<View>();
+}
@@ -0,0 +1,119 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.protocol.CallInit;
+import com.bluesky.protocol.CallTerm;
+import com.bluesky.protocol.ProtocolBase;
+
+import java.nio.ByteBuffer;
+
+/** peep into the common protocol header of a raw packet, without decoding it.
+ *  - all reads are absolute, buffer position/limit are left untouched
+ *  - offsets of source/target/sequence/countdown are learnt once from the protocol library's
+ *    own serializer, so they can't drift from the wire format
+ */
+public final class PacketHeader {
+
+    public static short peepType(ByteBuffer buf){
+        int pos = buf.position();
+        short type = ProtocolBase.peepType(buf);
+        buf.position(pos);
+        return type;
+    }
+
+    public static long peepSource(ByteBuffer buf){
+        return buf.getLong(buf.position() + OFFSET_SOURCE);
+    }
+
+    public static long peepTarget(ByteBuffer buf){
+        return buf.getLong(buf.position() + OFFSET_TARGET);
+    }
+
+    public static short peepSequence(ByteBuffer buf){
+        return buf.getShort(buf.position() + OFFSET_SEQUENCE);
+    }
+
+    public static void putTarget(ByteBuffer buf, long target){
+        buf.putLong(buf.position() + OFFSET_TARGET, target);
+    }
+
+    public static void putSequence(ByteBuffer buf, short seq){
+        buf.putShort(buf.position() + OFFSET_SEQUENCE, seq);
+    }
+
+    /** patch count down of a call term */
+    public static void putCountdown(ByteBuffer buf, short countdown){
+        buf.putShort(buf.position() + OFFSET_TERM_COUNTDOWN, countdown);
+    }
+
+    /** @return true if buf holds at least a full common header */
+    public static boolean hasHeader(ByteBuffer buf){
+        return buf.remaining() >= HEADER_SIZE;
+    }
+
+    private PacketHeader(){
+    }
+
+    /** locate a field in the serialized probe, which carries distinctive values */
+    private static int locateLong(ByteBuffer probe, long value){
+        int i = findLong(probe, value);
+        if(i < 0){
+            throw new IllegalStateException("protocol header layout unknown, field " + Long.toHexString(value));
+        }
+        return i;
+    }
+
+    private static int locateShort(ByteBuffer probe, short value){
+        int i = findShort(probe, value);
+        if(i < 0){
+            throw new IllegalStateException("protocol header layout unknown, field " + Integer.toHexString(value));
+        }
+        return i;
+    }
+
+    /** @return offset of value in probe, -1 if it's not there */
+    static int findLong(ByteBuffer probe, long value){
+        for(int i = 0; i + 8 <= probe.limit(); ++i){
+            if(probe.getLong(i) == value){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int findShort(ByteBuffer probe, short value){
+        for(int i = 0; i + 2 <= probe.limit(); ++i){
+            if(probe.getShort(i) == value){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final long PROBE_TARGET = 0x0F1E2D3C4B5A6978L;
+    private static final long PROBE_SOURCE = 0x78695A4B3C2D1E0FL;
+    private static final short PROBE_SEQUENCE = (short)0x5AC3;
+    private static final short PROBE_COUNTDOWN = (short)0x3CA5;
+
+    static final int OFFSET_SOURCE;
+    static final int OFFSET_TARGET;
+    static final int OFFSET_SEQUENCE;
+    static final int HEADER_SIZE;
+    static final int OFFSET_TERM_COUNTDOWN;
+
+    static {
+        CallInit probe = new CallInit(PROBE_TARGET, PROBE_SOURCE, PROBE_SEQUENCE);
+        ByteBuffer buf = ByteBuffer.allocate(probe.getSize());
+        probe.serialize(buf);
+        buf.clear();
+        OFFSET_SOURCE = locateLong(buf, PROBE_SOURCE);
+        OFFSET_TARGET = locateLong(buf, PROBE_TARGET);
+        OFFSET_SEQUENCE = locateShort(buf, PROBE_SEQUENCE);
+        HEADER_SIZE = Math.max(Math.max(OFFSET_SOURCE, OFFSET_TARGET) + 8, OFFSET_SEQUENCE + 2);
+
+        CallTerm termProbe = new CallTerm(PROBE_TARGET, PROBE_SOURCE, PROBE_SEQUENCE, PROBE_COUNTDOWN);
+        buf = ByteBuffer.allocate(termProbe.getSize());
+        termProbe.serialize(buf);
+        buf.clear();
+        OFFSET_TERM_COUNTDOWN = locateShort(buf, PROBE_COUNTDOWN);
+    }
+}
@@ -0,0 +1,12 @@
+package com.bluesky.cloudmontain.repeator;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/** downlink of the trunk center.
+ *  payload is the whole content of the buffer, from 0 to its limit, and it's left
+ *  untouched, so the same payload can be sent to several SUs.
+ */
+public interface PacketSender {
+    public void send(InetSocketAddress addr, ByteBuffer payload);
+}
@@ -0,0 +1,148 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.cloudmontain.database.LongObjectMap;
+
+import java.util.concurrent.TimeUnit;
+
+/** presence lease of online SUs, refreshed by registration, expired by a timing wheel
+ *  - the wheel has a slot per tick, an SU is put into the slot of its deadline, so a tick
+ *    only looks at SUs which may expire in it, never at all of them
+ *  - refresh doesn't move an SU out of its old slot, the stale entry is skipped when its
+ *    slot comes up, as the lease tells the SU's real deadline
+ *  - not thread safe, owned by trunk manager's message thread
+ */
+public class PresenceLeases {
+    /**
+     * @param leaseMs SU is expired if not refreshed for this long
+     * @param tickMs  granularity of expiry, i.e. how often expire() is called
+     */
+    public PresenceLeases(long leaseMs, long tickMs){
+        mLeaseNs = TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        mTickNs = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        // a deadline is at most lease ahead, so it never wraps onto a slot still to come
+        int slots = (int)((leaseMs + tickMs - 1) / tickMs) + 2;
+        mSlots = new long[slots][];
+        mSlotSizes = new int[slots];
+        for(int i = 0; i < slots; ++i){
+            mSlots[i] = new long[SLOT_INIT_SIZE];
+        }
+        mLastTick = Long.MIN_VALUE;
+    }
+
+    /** SU registered, at now, its lease starts over */
+    public void refresh(long su_id, long now){
+        long deadline = now + mLeaseNs;
+        Lease lease = mLeases.get(su_id);
+        if(lease == null){
+            lease = new Lease();
+            mLeases.put(su_id, lease);
+        } else if(tickOf(lease.mDeadline) == tickOf(deadline)){
+            // still in the right slot
+            lease.mDeadline = deadline;
+            return;
+        }
+        lease.mDeadline = deadline;
+        add(slotOf(tickOf(deadline)), su_id);
+    }
+
+    /** SU is gone for other reason, e.g. deregistered */
+    public void remove(long su_id){
+        mLeases.remove(su_id);
+    }
+
+    /** expire SUs, whose deadline fell in a tick which is over by now, i.e. an SU is
+     *  expired up to a tick late, never early
+     * @return number of SUs expired, they're taken from expired()
+     */
+    public int expire(long now){
+        long doneTick = tickOf(now) - 1;
+        if(mLastTick == Long.MIN_VALUE){
+            mLastTick = doneTick - 1;
+        }
+        // never walk more than a lap, the rest is the same slots again
+        long from = Math.max(mLastTick + 1, doneTick - mSlots.length + 1);
+        mExpiredSize = 0;
+        for(long tick = from; tick <= doneTick; ++tick){
+            expireSlot(slotOf(tick), now);
+        }
+        mLastTick = Math.max(mLastTick, doneTick);
+        return mExpiredSize;
+    }
+
+    /** @return SUs expired by last expire(), as many as it returned */
+    public long[] expired(){
+        return mExpired;
+    }
+
+    public int size(){
+        return mLeases.size();
+    }
+
+    private void expireSlot(int slot, long now){
+        long[] sus = mSlots[slot];
+        int n = mSlotSizes[slot];
+        int kept = 0;
+        for(int i = 0; i < n; ++i){
+            long su_id = sus[i];
+            Lease lease = mLeases.get(su_id);
+            if(lease == null || slotOf(tickOf(lease.mDeadline)) != slot){
+                // gone, or refreshed into another slot
+                continue;
+            }
+            if(lease.mDeadline - now <= 0){
+                mLeases.remove(su_id);
+                addExpired(su_id);
+            } else {
+                // refreshed into the same slot a lap later
+                sus[kept++] = su_id;
+            }
+        }
+        mSlotSizes[slot] = kept;
+    }
+
+    private void add(int slot, long su_id){
+        long[] sus = mSlots[slot];
+        int n = mSlotSizes[slot];
+        if(n == sus.length){
+            long[] grown = new long[n * 2];
+            System.arraycopy(sus, 0, grown, 0, n);
+            mSlots[slot] = sus = grown;
+        }
+        sus[n] = su_id;
+        mSlotSizes[slot] = n + 1;
+    }
+
+    private void addExpired(long su_id){
+        if(mExpiredSize == mExpired.length){
+            long[] grown = new long[mExpiredSize * 2];
+            System.arraycopy(mExpired, 0, grown, 0, mExpiredSize);
+            mExpired = grown;
+        }
+        mExpired[mExpiredSize++] = su_id;
+    }
+
+    /** System.nanoTime() may be negative, round towards negative infinity */
+    private long tickOf(long time){
+        return time >= 0 ? time / mTickNs : -((-time + mTickNs - 1) / mTickNs);
+    }
+
+    private int slotOf(long tick){
+        int slot = (int)(tick % mSlots.length);
+        return slot < 0 ? slot + mSlots.length : slot;
+    }
+
+    private static class Lease {
+        long mDeadline;
+    }
+
+    private final long mLeaseNs;
+    private final long mTickNs;
+    private final LongObjectMap<Lease> mLeases = new LongObjectMap<Lease>();
+    private final long[][] mSlots;
+    private final int[] mSlotSizes;
+    private long mLastTick;
+    private long[] mExpired = new long[SLOT_INIT_SIZE];
+    private int mExpiredSize = 0;
+
+    private static final int SLOT_INIT_SIZE = 16;
+}
@@ -0,0 +1,73 @@
+package com.bluesky.cloudmontain.repeator;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** admission of registrations, a token bucket per source address, checked by receivers
+ *  before a registration is queued, so a storm is shed before it costs anything
+ *  - buckets are kept as GCRA, i.e. a theoretical arrival time per bucket, which is the
+ *    token bucket in one long, updated by cas, no lock, no allocation
+ *  - addresses are hashed onto a fixed table of buckets, sources which collide share a
+ *    bucket, the table is sized so that it rarely matters
+ */
+public class RegistrationAdmission {
+    /**
+     * @param intervalMs one token per interval, 0 to admit everything
+     * @param burst      tokens a quiet source may spend at once
+     * @param buckets    size of bucket table, rounded up to power of 2
+     */
+    public RegistrationAdmission(long intervalMs, int burst, int buckets){
+        int size = 1;
+        while(size < buckets){
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTat = new AtomicLongArray(size);
+        mIntervalNs = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        mBurstNs = mIntervalNs * Math.max(0, burst - 1);
+        // buckets start full, whatever System.nanoTime() origin is
+        long start = System.nanoTime() - mBurstNs - mIntervalNs;
+        for(int i = 0; i < size; ++i){
+            mTat.set(i, start);
+        }
+    }
+
+    /** @return true if registration from given source is admitted */
+    public boolean admit(InetAddress addr, int port){
+        return admit(addr, port, System.nanoTime());
+    }
+
+    /** @param now System.nanoTime() */
+    public boolean admit(InetAddress addr, int port, long now){
+        if(mIntervalNs <= 0){
+            return true;
+        }
+        int slot = bucketOf(addr, port);
+        while(true){
+            long tat = mTat.get(slot);
+            if(tat - now > mBurstNs){
+                return false;
+            }
+            long next = (tat - now > 0 ? tat : now) + mIntervalNs;
+            if(mTat.compareAndSet(slot, tat, next)){
+                return true;
+            }
+        }
+    }
+
+    private int bucketOf(InetAddress addr, int port){
+        int h = addr.hashCode() * 31 + port;
+        // spread, addresses of a site differ in low bits only
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & mMask;
+    }
+
+    private final AtomicLongArray mTat;
+    private final int mMask;
+    private final long mIntervalNs;
+    /** how far tat may run ahead of now, i.e. burst - 1 intervals */
+    private final long mBurstNs;
+}
@@ -0,0 +1,133 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.common.GlobalConstants;
+import com.bluesky.common.SubscriberDatabase;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/** registrations handled in batches, on trunk manager thread
+ *  - add() validates a registration, by su and sequence read from its header, it's not
+ *    decoded, the packet can be released right after
+ *  - flush() brings all legitimate SUs of the batch online at once, then patches an ack
+ *    template per slot, see AckFrame, and sends them back to back
+ *  - only the sender address is allocated, which is kept by the online record anyway,
+ *    unless the protocol library's ack can't be patched, then each ack is serialized by
+ *    the library, see AckFrame.isPatchable()
+ */
+public class RegistrationBatch {
+    /** @param leases refreshed by legitimate registrations, null if presence never expires */
+    public RegistrationBatch(SubscriberDatabase database, OnlineGroups groups, PresenceLeases leases,
+                      PacketSender sender, int capacity, Log logger){
+        mDatabase = database;
+        mLeases = leases;
+        mLogger = logger;
+        mGroups = groups;
+        mSender = sender;
+        mSus = new long[capacity];
+        mRegSeqs = new short[capacity];
+        mAddrs = new InetSocketAddress[capacity];
+        mLegitimate = new boolean[capacity];
+        mOnlineSus = new long[capacity];
+        mOnlineAddrs = new InetSocketAddress[capacity];
+        mAcks = new ByteBuffer[capacity];
+        for(int i = 0; i < capacity; ++i){
+            mAcks[i] = AckFrame.isPatchable() ? AckFrame.template() : ByteBuffer.allocate(ACK_BUFFER_SIZE);
+        }
+    }
+
+    public boolean isFull(){
+        return mSize == mSus.length;
+    }
+
+    /** validate registration, flush() first if batch is full */
+    public void add(RxPacket packet){
+        DatagramPacket dp = packet.getPacket();
+        ByteBuffer raw = packet.getBuffer();
+        long suid = PacketHeader.peepSource(raw);
+        InetSocketAddress sender = new InetSocketAddress(dp.getAddress(), dp.getPort());
+        boolean legitimate = mDatabase.hasSubscriber(suid);
+        if(legitimate){
+            mOnlineSus[mOnline] = suid;
+            mOnlineAddrs[mOnline] = sender;
+            ++mOnline;
+            TrunkMetrics.REG_ACCEPTED.inc();
+            mLogger.d(TAG, "registration from: {}, legitimate SU:{}", sender, suid);
+        } else {
+            TrunkMetrics.REG_REJECTED.inc();
+            mLogger.i(TAG, "illegitimate su: {} from {}", suid, sender);
+        }
+        mSus[mSize] = suid;
+        mRegSeqs[mSize] = PacketHeader.peepSequence(raw);
+        mAddrs[mSize] = sender;
+        mLegitimate[mSize] = legitimate;
+        ++mSize;
+    }
+
+    /** bring batch online, ack all of it
+     * @return number of registrations handled
+     */
+    public int flush(){
+        int n = mSize;
+        if(n == 0){
+            return 0;
+        }
+        if(mOnline > 0){
+            mGroups.online(mOnlineSus, mOnlineAddrs, mOnline);
+            if(mLeases != null){
+                long now = System.nanoTime();
+                for(int i = 0; i < mOnline; ++i){
+                    mLeases.refresh(mOnlineSus[i], now);
+                }
+            }
+        }
+
+        boolean patchable = AckFrame.isPatchable();
+        for(int i = 0; i < n; ++i){
+            if(patchable){
+                AckFrame.put(mAcks[i], mSus[i], ++mSeqNumber, mLegitimate[i], mRegSeqs[i]);
+            } else {
+                mAcks[i] = AckFrame.serialize(mAcks[i], mSus[i], ++mSeqNumber, mLegitimate[i], mRegSeqs[i]);
+            }
+        }
+        for(int i = 0; i < n; ++i){
+            mSender.send(mAddrs[i], mAcks[i]);
+        }
+        TrunkMetrics.REG_BATCHES.inc();
+
+        for(int i = 0; i < n; ++i){
+            mAddrs[i] = null;
+        }
+        for(int i = 0; i < mOnline; ++i){
+            mOnlineAddrs[i] = null;
+        }
+        mSize = 0;
+        mOnline = 0;
+        return n;
+    }
+
+    private final SubscriberDatabase mDatabase;
+    private final OnlineGroups mGroups;
+    private final PresenceLeases mLeases;
+    private final PacketSender mSender;
+    private final Log mLogger;
+
+    private final long[] mSus;
+    private final short[] mRegSeqs;
+    private final InetSocketAddress[] mAddrs;
+    private final boolean[] mLegitimate;
+    private final ByteBuffer[] mAcks;
+    private int mSize = 0;
+    /** legitimate ones of the batch */
+    private final long[] mOnlineSus;
+    private final InetSocketAddress[] mOnlineAddrs;
+    private int mOnline = 0;
+
+    private short mSeqNumber = GlobalConstants.INIT_SEQ_NUMBER;
+
+    /** big enough for an ack, grown if not, when acks aren't patchable */
+    static final int ACK_BUFFER_SIZE = 64;
+    private static final String TAG = "RegBatch";
+}
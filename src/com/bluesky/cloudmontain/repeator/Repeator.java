@@ -1,38 +1,104 @@
 package com.bluesky.cloudmontain.repeator;
 
+import com.bluesky.cloudmontain.database.OnlineTable;
 import com.bluesky.common.SubscriberDatabase;
 import com.bluesky.common.CallInformation;
 import com.bluesky.common.UDPService;
 import com.bluesky.protocol.ProtocolBase;
 
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.RandomAccess;
 
 /** repeat protocol packets to downlink
  *  - for call init and call term, repeat to all grp members, including the sender
  *  - for call data, repeat to other grp members, excluding the sender
+ *  - a packet is serialized once, into a tx buffer owned by the calling thread, and the
+ *    same image is sent to every member, so nothing is allocated per packet
  * Created by liangc on 14/02/15.
  */
 public class Repeator {
     public Repeator(UDPService udpService){
-        mUdpSvc = udpService;
+        this(new UDPServiceSender(udpService));
+    }
+
+    public Repeator(PacketSender sender){
+        mSender = sender;
+        mExactImage = sender instanceof UDPServiceSender;
     }
 
     public void repeat(List<SubscriberDatabase.OnlineRecord> onlineSus, CallInformation callInfo, ProtocolBase proto){
-        ByteBuffer payload = ByteBuffer.allocate(proto.getSize());
+        ByteBuffer payload = mTxBuffer.get();
+        payload.clear();
         proto.serialize(payload);
+        payload.limit(proto.getSize());
+        payload.position(0);
+
+        fanout(onlineSus, callInfo.mSourceId, proto.getType(), payload);
+    }
+
+    /** forward a received packet as it is, without decoding/re-encoding it
+     * @param raw  received packet, from 0 to its limit
+     */
+    public void forward(List<SubscriberDatabase.OnlineRecord> onlineSus, CallInformation callInfo, ByteBuffer raw){
+        fanout(onlineSus, callInfo.mSourceId, PacketHeader.peepType(raw), raw);
+    }
 
-        short type = proto.getType();
-        for(ListIterator<SubscriberDatabase.OnlineRecord> it = onlineSus.listIterator(); it.hasNext();){
-            SubscriberDatabase.OnlineRecord record = it.next();
-            if( record.su_id != callInfo.mSourceId ){
-                mUdpSvc.send(record.addr, payload);
-            } else if ( type == ProtocolBase.PTYPE_CALL_TERM || type == ProtocolBase.PTYPE_CALL_INIT){
-                mUdpSvc.send(record.addr, payload);
+    /** send one serialized image to all members */
+    private void fanout(List<SubscriberDatabase.OnlineRecord> onlineSus, long sourceId, short type, ByteBuffer payload){
+        boolean includeSender = (type == ProtocolBase.PTYPE_CALL_TERM || type == ProtocolBase.PTYPE_CALL_INIT);
+        int len = payload.remaining();
+        if(mExactImage){
+            // legacy UDPService sends whole backing array, copy once per frame, not per member
+            payload = UDPServiceSender.exactImage(payload);
+        }
+        int sent = 0;
+        if(onlineSus instanceof OnlineTable.Members){
+            // rows of OnlineTable, see OnlineGroups, no record per member
+            OnlineTable.Members members = (OnlineTable.Members)onlineSus;
+            for(int i = 0, n = members.size(); i < n; ++i){
+                if( includeSender || members.suId(i) != sourceId ){
+                    InetSocketAddress addr = members.address(i);
+                    if(addr != null){
+                        mSender.send(addr, payload);
+                        ++sent;
+                    }
+                }
+            }
+        } else if(onlineSus instanceof RandomAccess){
+            // no iterator on hot path
+            for(int i = 0, n = onlineSus.size(); i < n; ++i){
+                SubscriberDatabase.OnlineRecord record = onlineSus.get(i);
+                if( includeSender || record.su_id != sourceId ){
+                    mSender.send(record.addr, payload);
+                    ++sent;
+                }
+            }
+        } else {
+            for(SubscriberDatabase.OnlineRecord record : onlineSus){
+                if( includeSender || record.su_id != sourceId ){
+                    mSender.send(record.addr, payload);
+                    ++sent;
+                }
             }
         }
+        // once per fanout, not per member
+        TrunkMetrics.TX_PACKETS.add(sent);
+        TrunkMetrics.TX_BYTES.add((long)sent * len);
     }
 
-    UDPService mUdpSvc;
+    final PacketSender mSender;
+    /** sender wants an exact-sized heap image, see UDPServiceSender */
+    final boolean mExactImage;
+
+    /** tx buffer per thread, i.e. per cp executor, big enough for any protocol packet */
+    private final ThreadLocal<ByteBuffer> mTxBuffer = new ThreadLocal<ByteBuffer>(){
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(TX_BUFFER_SIZE);
+        }
+    };
+
+    static final int TX_BUFFER_SIZE = 1500;
 }
@@ -0,0 +1,81 @@
+package com.bluesky.cloudmontain.repeator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/** a received packet, backed by a reusable buffer.
+ *  - the DatagramPacket and the ByteBuffer view share the same backing array, so the
+ *    call processors keep consuming DatagramPacket, while the receiver peeps the header
+ *    through the ByteBuffer, and neither gets allocated per packet
+ *  - whoever consumes the packet last has to release() it, so it goes back to its pool
+ */
+public final class RxPacket {
+
+    /** wrap a packet received by the legacy UDPService, it doesn't belong to any pool */
+    public static RxPacket wrap(DatagramPacket packet){
+        ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()).slice();
+        RxPacket rx = new RxPacket(null, packet, buffer);
+        rx.mRxTime = System.nanoTime();
+        return rx;
+    }
+
+    /** a packet which doesn't belong to any pool, release() is a no-op,
+     *  e.g. for replaying frames into cps
+     */
+    public static RxPacket allocate(int size){
+        return new RxPacket(null, size);
+    }
+
+    RxPacket(RxPacketPool pool, int size){
+        byte[] data = new byte[size];
+        mPool = pool;
+        mPacket = new DatagramPacket(data, size);
+        mBuffer = ByteBuffer.wrap(data);
+    }
+
+    private RxPacket(RxPacketPool pool, DatagramPacket packet, ByteBuffer buffer){
+        mPool = pool;
+        mPacket = packet;
+        mBuffer = buffer;
+    }
+
+    /** receive next datagram from channel, blocking.
+     *  on return, buffer() spans exactly the received bytes
+     */
+    void receive(DatagramChannel channel) throws IOException {
+        mBuffer.clear();
+        InetSocketAddress sender = (InetSocketAddress)channel.receive(mBuffer);
+        mBuffer.flip();
+        mPacket.setLength(mBuffer.limit());
+        mPacket.setSocketAddress(sender);
+        mRxTime = System.nanoTime();
+    }
+
+    public DatagramPacket getPacket(){
+        return mPacket;
+    }
+
+    /** @return view of the packet content, position at the first byte */
+    public ByteBuffer getBuffer(){
+        return mBuffer;
+    }
+
+    /** @return System.nanoTime() the packet got received, 0 if unknown */
+    public long rxTime(){
+        return mRxTime;
+    }
+
+    public void release(){
+        if(mPool != null){
+            mPool.recycle(this);
+        }
+    }
+
+    private final RxPacketPool mPool;
+    private final DatagramPacket mPacket;
+    private final ByteBuffer mBuffer;
+    private long mRxTime;
+}
@@ -0,0 +1,32 @@
+package com.bluesky.cloudmontain.repeator;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** fixed size pool of receive buffers.
+ *  - when the pool runs dry, i.e. consumers hold too many packets, a new one is created;
+ *    surplus packets are dropped on recycle, so the pool never grows beyond its capacity
+ */
+class RxPacketPool {
+    RxPacketPool(int capacity, int packetSize){
+        mPacketSize = packetSize;
+        mFree = new ArrayBlockingQueue<RxPacket>(capacity);
+        for(int i = 0; i < capacity; ++i){
+            mFree.offer(new RxPacket(this, packetSize));
+        }
+    }
+
+    RxPacket acquire(){
+        RxPacket packet = mFree.poll();
+        if(packet == null){
+            packet = new RxPacket(this, mPacketSize);
+        }
+        return packet;
+    }
+
+    void recycle(RxPacket packet){
+        mFree.offer(packet);
+    }
+
+    private final int mPacketSize;
+    private final ArrayBlockingQueue<RxPacket> mFree;
+}
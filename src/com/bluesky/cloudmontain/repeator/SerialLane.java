@@ -0,0 +1,77 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.OLog;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** serial lane, a mailbox multiplexed onto a shared worker pool.
+ *  - tasks of a lane run one at a time, in submission order, and each task sees the effects
+ *    of the previous ones, so a cp behind a lane is still single threaded
+ *  - a lane holds no thread, it's drained by whichever worker picks it up, at most
+ *    DRAIN_BATCH tasks per turn, so a busy group can't starve the others
+ */
+public class SerialLane implements Executor {
+    SerialLane(Executor workers, OLog logger){
+        mWorkers = workers;
+        mLogger = logger;
+        mLastActive = System.nanoTime();
+    }
+
+    @Override
+    public void execute(Runnable task){
+        mTasks.offer(task);
+        schedule();
+    }
+
+    /** @return true if nothing is pending, nor running, in this lane */
+    public boolean isIdle(){
+        return !mScheduled.get() && mTasks.isEmpty();
+    }
+
+    /** @return System.nanoTime() of the end of last drain */
+    public long lastActiveTime(){
+        return mLastActive;
+    }
+
+    private void schedule(){
+        if(mScheduled.compareAndSet(false, true)){
+            mWorkers.execute(mDrainer);
+        }
+    }
+
+    private class Drainer implements Runnable {
+        @Override
+        public void run(){
+            for(int i = 0; i < DRAIN_BATCH; ++i){
+                Runnable task = mTasks.poll();
+                if(task == null){
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e){
+                    mLogger.w(TAG, "exp: " + e);
+                }
+            }
+            mLastActive = System.nanoTime();
+            mScheduled.set(false);
+            // tasks offered after last poll, but before the flag got cleared
+            if(!mTasks.isEmpty()){
+                schedule();
+            }
+        }
+    }
+
+    private final Executor mWorkers;
+    private final OLog mLogger;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+    private final Runnable mDrainer = new Drainer();
+    private volatile long mLastActive;
+
+    static final int DRAIN_BATCH = 32;
+    private static final String TAG = "Lane";
+}
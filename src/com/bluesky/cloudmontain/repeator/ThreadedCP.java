@@ -1,78 +1,163 @@
 package com.bluesky.cloudmontain.repeator;
 
 import com.bluesky.common.SubscriberDatabase;
-import com.bluesky.common.NamedTimerTask;
 import com.bluesky.common.OLog;
 
-import java.net.DatagramPacket;
-import java.util.Timer;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-/** call processor, running in dedicated thread context
+/** call processor, running in dedicated thread context, i.e. a serial executor, so
+ *  packets and timer expirations of the same group are never handled concurrently
+ *  - retirement runs in the same context, after what's queued before it, an executor
+ *    shut down after retirement rejects what comes late, it's dropped then
+ *  - eviction of an idle cp checks it's still idle in that context, a call init queued
+ *    before may have started a call, see retireIfParked()
  * Created by liangc on 14/02/15.
  */
 public class ThreadedCP extends CallProcessor {
-    public ThreadedCP(ExecutorService exec, long grp_id, long su_id,
+    public ThreadedCP(Executor exec, long grp_id, long su_id,
                       final Repeator rptr,  final SubscriberDatabase database,
-                      final Timer timer, final OLog logger){
+                      final HashedWheelTimer timer, final OLog logger){
         super(grp_id, su_id, rptr, database, timer, logger);
         mExec = exec;
     }
 
-    final ExecutorService mExec;
+    public ThreadedCP(Executor exec, long grp_id, long su_id,
+                      final Repeator rptr,  final OnlineGroups.View members,
+                      final HashedWheelTimer timer, final OLog logger){
+        super(grp_id, su_id, rptr, members, timer, logger);
+        mExec = exec;
+    }
+
+    final Executor mExec;
 
     ///////////////////// triggers, relay ////////////////////////////////////
     private abstract class Trigger implements Runnable {
     }
 
-    private class TriggerTimerExp extends Trigger{
-        public TriggerTimerExp(NamedTimerTask timerTask){
-            mTimerTask = timerTask;
+    /** relay expiration of a timer, one trigger per timer, reused */
+    private class TriggerTimerExp extends Trigger implements TimerHandle.Callback {
+        @Override
+        public void expired(TimerHandle handle){
+            try {
+                mExec.execute(this);
+            } catch (RejectedExecutionException e){
+                // cp is retired, and its executor released
+            }
         }
 
         @Override
         public void run(){
-            ThreadedCP.this.timerExpiredInternal(mTimerTask);
+            ThreadedCP.this.timerExpiredInternal(mHandle);
         }
-        NamedTimerTask mTimerTask;
+        TimerHandle mHandle;
     }
 
-    private class TriggerPacketRxed extends Trigger {
-        public TriggerPacketRxed(DatagramPacket packet) {
+    private class TriggerRxPacket extends Trigger {
+        public TriggerRxPacket(RxPacket packet) {
             mPacket = packet;
         }
         @Override
         public void run(){
             ThreadedCP.this.packetReceivedInternal(mPacket);
         }
-        DatagramPacket mPacket;
+        RxPacket mPacket;
     }
 
     @Override
-    public void packetReceived(DatagramPacket packet) {
-        TriggerPacketRxed tgPkt = new TriggerPacketRxed(packet);
-        mExec.execute(tgPkt);
+    public void packetReceived(RxPacket packet) {
+        try {
+            mExec.execute(new TriggerRxPacket(packet));
+        } catch (RejectedExecutionException e){
+            // raced with eviction, executor is released already
+            TrunkMetrics.RX_RETIRED_CP.inc();
+            packet.release();
+        }
     }
 
     @Override
-    protected NamedTimerTask createTimerTask() {
-        ++mTimerSeed;
-        mLogger.d(TAG, "create timer Task[" + mTimerSeed + "]");
-        return new NamedTimerTask(mTimerSeed) {
+    public void retire() {
+        retire(null);
+    }
+
+    /** retire in cp's context, then run released there, e.g. to release the executor,
+     *  nothing of this cp runs after it
+     */
+    public void retire(final Runnable released) {
+        Trigger trigger = new Trigger() {
             @Override
             public void run() {
-                TriggerTimerExp tgTimer = new TriggerTimerExp(this);
-                mExec.execute(tgTimer);
+                ThreadedCP.this.retireInternal();
+                if(released != null){
+                    released.run();
+                }
             }
         };
+        try {
+            mExec.execute(trigger);
+        } catch (RejectedExecutionException e){
+            // executor is shut down, nothing else runs in its context
+            trigger.run();
+        }
     }
 
-    private void timerExpiredInternal(NamedTimerTask timerTask){
-        super.timerExpired(timerTask);
+    /** retire in cp's context if it's still parked, as a call init queued before may have
+     *  started a call since cp was found parked, see CpRegistry.removeParked()
+     * @param released run after retirement, in cp's context
+     * @param busy     run instead, in cp's context, if a call has started, cp goes on then
+     */
+    public void retireIfParked(final Runnable released, final Runnable busy) {
+        Trigger trigger = new Trigger() {
+            @Override
+            public void run() {
+                if(!mRetired && !isParked()){
+                    busy.run();
+                    return;
+                }
+                ThreadedCP.this.retireInternal();
+                released.run();
+            }
+        };
+        try {
+            mExec.execute(trigger);
+        } catch (RejectedExecutionException e){
+            // executor is shut down, nothing else runs in its context
+            trigger.run();
+        }
     }
 
-    private void packetReceivedInternal(DatagramPacket packet){
+    @Override
+    public void resumeCall(final ActiveCall call) {
+        mExec.execute(new Trigger() {
+            @Override
+            public void run() {
+                ThreadedCP.this.resumeCallInternal(call);
+            }
+        });
+    }
+
+    @Override
+    protected TimerHandle createTimer() {
+        ++mTimerSeed;
+        TriggerTimerExp tgTimer = new TriggerTimerExp();
+        tgTimer.mHandle = new TimerHandle(mTimerSeed, tgTimer);
+        return tgTimer.mHandle;
+    }
+
+    private void timerExpiredInternal(TimerHandle timer){
+        super.timerExpired(timer);
+    }
+
+    private void packetReceivedInternal(RxPacket packet){
         super.packetReceived(packet);
     }
 
+    private void resumeCallInternal(ActiveCall call){
+        super.resumeCall(call);
+    }
+
+    private void retireInternal(){
+        super.retire();
+    }
+
 }
@@ -0,0 +1,65 @@
+package com.bluesky.cloudmontain.repeator;
+
+/** a reusable timer of HashedWheelTimer.
+ *  - a handle is created once, e.g. per cp, and re-armed/cancelled as often as needed,
+ *    nothing is allocated per schedule
+ *  - every schedule/cancel starts a new generation, an expiration is only taken
+ *    if it belongs to the current generation, so a lingering expiration, i.e. one
+ *    already relayed to the cp before the handle got re-armed, is discarded
+ */
+public class TimerHandle {
+    public interface Callback {
+        /** called in timer thread, keep it short */
+        public void expired(TimerHandle handle);
+    }
+
+    public TimerHandle(int id, Callback callback){
+        mId = id;
+        mCallback = callback;
+    }
+
+    public int id(){
+        return mId;
+    }
+
+    /** take the expiration relayed by callback, at most once
+     * @return false if it's lingering, i.e. the handle was re-armed or cancelled since
+     */
+    public boolean takeExpiry(){
+        int fired;
+        synchronized (this) {
+            fired = mRelayedGeneration;
+            mRelayedGeneration = NOT_FIRED;
+        }
+        return fired != NOT_FIRED && fired == mGeneration;
+    }
+
+    /** called by wheel, out of its lock */
+    void fire(int generation){
+        synchronized (this) {
+            mRelayedGeneration = generation;
+        }
+        mCallback.expired(this);
+    }
+
+    @Override
+    public String toString(){
+        return "timer[" + mId + "]";
+    }
+
+    private final int mId;
+    private final Callback mCallback;
+    private int mRelayedGeneration = NOT_FIRED;
+
+    // following are managed by wheel, under its lock, except mGeneration which is read by takeExpiry()
+    volatile int mGeneration = 0;
+    long mDeadline;         // nano seconds
+    long mPeriod;           // nano seconds, 0 for one-shot
+    long mTargetTick;
+    boolean mPending = false;
+    TimerHandle mPrev, mNext;
+    TimerHandle mNextFired;
+    int mFiredGeneration;   // generation when collected as expired
+
+    private static final int NOT_FIRED = -1;
+}
@@ -1,15 +1,30 @@
 package com.bluesky.cloudmontain.repeator;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.bluesky.cloudmontain.cdr.CdrLog;
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SnapshotDiff;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.cloudmontain.metrics.FrameStats;
+import com.bluesky.cloudmontain.metrics.Gauge;
+import com.bluesky.cloudmontain.metrics.MetricsHttpServer;
+import com.bluesky.cloudmontain.metrics.MetricsRegistry;
 import com.bluesky.common.SubscriberDatabase;
 import com.bluesky.common.*;
 import com.bluesky.protocol.*;
@@ -28,146 +43,594 @@ import com.bluesky.protocol.*;
 public class TrunkManager {
     /** public methods */
 
+    public static class Configuration {
+        /** receive/send through NioUDPService, otherwise through legacy UDPService */
+        public boolean nioService = true;
+        /** number of pooled receive buffers of NioUDPService, per receiver */
+        public int rxPoolSize   = 512;
+        /** number of receive threads of NioUDPService, sharded by SO_REUSEPORT */
+        public int rxThreads    = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        /** how cps are executed */
+        public CpExecutorFactory.Mode cpExecution = CpExecutorFactory.Mode.LANES;
+        /** number of workers shared by all cps, in LANES mode */
+        public int cpWorkers    = Runtime.getRuntime().availableProcessors();
+        /** cp idle for this long is evicted, with its timer and executor */
+        public long cpIdleEvictMs   = 60 * 1000;
+        /** period of frame stats dump, 0 to disable */
+        public long statsDumpMs     = 60 * 1000;
+        /** port of http /metrics endpoint on loopback, 0 to disable, metrics are on JMX anyway */
+        public int metricsPort      = 9404;
+        /** registrations pending for message thread, oldest are shed beyond, each holds a
+         *  receive buffer, so keep it within rxPoolSize */
+        public int regQueueCapacity = 512;
+        /** a source address gets a registration in per interval, 0 to disable */
+        public long regIntervalMs   = 1000;
+        /** registrations a quiet source address may send at once */
+        public int regBurst         = 4;
+        /** su which doesn't register again within this, goes offline, 0 to keep it forever */
+        public long presenceLeaseMs = 10 * 60 * 1000;
+        /** path of warm restart state, presence and calls, null to disable, see WarmState */
+        public String warmStatePath = null;
+        /** period of saving warm restart state */
+        public long warmStateMs     = 2000;
+        /** directory of call detail records, null to disable, see CdrLog */
+        public String cdrDir        = null;
+        /** log level, one of Log.DEBUG/INFO/WARN/ERROR */
+        public int logLevel         = Log.INFO;
+    }
+
     public TrunkManager(SubscriberDatabase database){
+        this(database, new Configuration());
+    }
+
+    public TrunkManager(SubscriberDatabase database, Configuration config){
+        Log.setLevel(config.logLevel);
         mUserDatabase = database;
-        // sequence number
-        mSeqNumber = GlobalConstants.INIT_SEQ_NUMBER;
+        mCpIdleEvictNs = TimeUnit.MILLISECONDS.toNanos(config.cpIdleEvictMs);
+        mStatsDumpNs = TimeUnit.MILLISECONDS.toNanos(config.statsDumpMs);
+        mNextStatsDump = System.nanoTime() + mStatsDumpNs;
+        mWarmStatePath = config.warmStatePath != null ? new File(config.warmStatePath) : null;
+        mWarmStateNs = TimeUnit.MILLISECONDS.toNanos(config.warmStateMs);
+        mNextWarmSave = System.nanoTime() + mWarmStateNs;
+        mLeaseMs = config.presenceLeaseMs;
+        mOnlineGroups = new OnlineGroups(database);
         // create udp service
-        UDPService.Configuration udpSvcConfig = new UDPService.Configuration();
-        udpSvcConfig.addrLocal = new InetSocketAddress(GlobalConstants.TRUNK_CENTER_PORT);
-        udpSvcConfig.addrRemote = new InetSocketAddress(0);
-        udpSvcConfig.clientMode = false;
-        mUdpService = new UDPService(udpSvcConfig, LOGGER);
-
-        mRepeater = new Repeator(mUdpService);
+        if(config.nioService){
+            NioUDPService.Configuration nioSvcConfig = new NioUDPService.Configuration();
+            nioSvcConfig.addrLocal = new InetSocketAddress(GlobalConstants.TRUNK_CENTER_PORT);
+            nioSvcConfig.poolSize = config.rxPoolSize;
+            nioSvcConfig.receivers = config.rxThreads;
+            mNioService = new NioUDPService(nioSvcConfig, LOGGER);
+            mNioService.setCompletionHandler(new NioRxHandler());
+            mSender = mNioService;
+        } else {
+            UDPService.Configuration udpSvcConfig = new UDPService.Configuration();
+            udpSvcConfig.addrLocal = new InetSocketAddress(GlobalConstants.TRUNK_CENTER_PORT);
+            udpSvcConfig.addrRemote = new InetSocketAddress(0);
+            udpSvcConfig.clientMode = false;
+            mUdpService = new UDPService(udpSvcConfig, LOGGER);
+            // register callback
+            mUdpService.setCompletionHandler(new UdpRxHandler());
+            mSender = new UDPServiceSender(mUdpService);
+        }
 
-        // register callback
-        mRxHandler  = new UdpRxHandler();
-        mUdpService.setCompletionHandler(mRxHandler);
+        mRepeater = new Repeator(mSender);
+        mLeases = config.presenceLeaseMs > 0 ? new PresenceLeases(config.presenceLeaseMs, CP_SWEEP_PERIOD_MS) : null;
+        mRegistrations = new RegistrationBatch(database, mOnlineGroups, mLeases, mSender, REG_BATCH_SIZE, LOGGER);
+        mExecutors = CpExecutorFactory.create(config.cpExecution, config.cpWorkers, LOGGER);
 
-        // message queue
-        mMsgQueue   = new LinkedBlockingDeque<TrunkManagerMessage>();
+        // message queue, bounded, see enqueueRegistration()
+        mMsgQueue   = new ArrayBlockingQueue<TrunkManagerMessage>(config.regQueueCapacity);
+        mRegAdmission = new RegistrationAdmission(config.regIntervalMs, config.regBurst, REG_ADMISSION_BUCKETS);
 
         // setup thread
         mProcessor  = new TrunkMessageProcessor();
         mThread = new Thread(mProcessor, TAG);
+
+        if(config.cdrDir != null){
+            CdrLog.Configuration cdrConfig = new CdrLog.Configuration();
+            cdrConfig.dir = new File(config.cdrDir);
+            try {
+                mCdr = new CdrLog(cdrConfig);
+            } catch (IOException e){
+                // trunking goes on without cdr
+                LOGGER.w(TAG, "failed to open cdr log, exp: " + e);
+            }
+        }
+
+        registerGauges();
+        if(config.metricsPort > 0){
+            mMetricsServer = new MetricsHttpServer(MetricsRegistry.global(),
+                    new InetSocketAddress("127.0.0.1", config.metricsPort));
+        }
     }
 
     public void start(){
-        mUdpService.startService();
+        if(mCdr != null){
+            mCdr.start();
+        }
+        mTimer.start();
+        restoreWarmState();
+        if(mNioService != null) {
+            mNioService.startService();
+        } else {
+            mUdpService.startService();
+        }
+        mTimer.scheduleAtFixedRate(mSweepTimer, CP_SWEEP_PERIOD_MS, CP_SWEEP_PERIOD_MS);
         mThread.start();
+
+        try {
+            MetricsRegistry.global().registerMBean(MBEAN_NAME);
+        } catch (IllegalStateException e){
+            LOGGER.w(TAG, e.getMessage());
+        }
+        if(mMetricsServer != null){
+            try {
+                mMetricsServer.start();
+            } catch (IOException e){
+                // trunking goes on without http scrape
+                LOGGER.w(TAG, "failed to start metrics server, exp: " + e);
+            }
+        }
     }
 
     public void stop(){
-        mUdpService.stopService();
+        if(mNioService != null) {
+            mNioService.stopService();
+        } else {
+            mUdpService.stopService();
+        }
+        mTimer.stop();
+        List<ThreadedCP> cps = mCPs.removeAll();
+        CountDownLatch retired = new CountDownLatch(cps.size());
+        for(ThreadedCP cp : cps){
+            retireCp(cp, retired);
+        }
+        try {
+            // their calls are logged by then
+            if(!retired.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)){
+                LOGGER.w(TAG, retired.getCount() + " cps not retired in " + STOP_TIMEOUT_MS + "ms");
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        mExecutors.shutdown();
+        if(mMetricsServer != null){
+            mMetricsServer.stop();
+        }
+        if(mCdr != null){
+            // after cps are retired, their calls are logged
+            mCdr.close();
+        }
         //TODO: stop mThread
 
     }
 
+    /** @return call detail records, to query, null if disabled */
+    public CdrLog cdrLog(){
+        return mCdr;
+    }
+
+    /** trunk logger, for components running along, e.g. ConfigWatcher */
+    public Log logger(){
+        return LOGGER;
+    }
+
+    /** hot reload of subscribers and groups, applied on the message thread, between
+     *  batches of registrations, calls go on, see applyReload()
+     *  - the diff is computed here, in caller's thread, the message thread only swaps the
+     *    snapshot in and patches views by the diff
+     *  - each reload is diffed against the one requested before, so reloads which pile up
+     *    are applied in order
+     * @return false if database can't be reloaded, i.e. it's not a SnapshotDatabase
+     */
+    public boolean reload(SubscriberSnapshot next){
+        if(!(mUserDatabase instanceof SnapshotDatabase)){
+            LOGGER.w(TAG, "reload needs a snapshot database, got " + mUserDatabase.getClass().getName());
+            return false;
+        }
+        synchronized (mReloads){
+            SubscriberSnapshot from = mLastReload != null ? mLastReload
+                    : ((SnapshotDatabase)mUserDatabase).snapshot();
+            mReloads.add(new PendingReload(next, SnapshotDiff.between(from, next)));
+            mLastReload = next;
+        }
+        wakeUp();
+        return true;
+    }
+
+    /** wake message thread up, for control work posted by flag, i.e. mSweepDue and
+     *  mReloads, which is done after each batch
+     *  - the flag is set before, so if the queue is full and the wake-up isn't queued, or is
+     *    shed, the thread is busy, and sees the flag after its current batch anyway
+     */
+    private void wakeUp(){
+        mMsgQueue.offer(new TrunkManagerMessage(TrunkManagerMessage.MSG_WAKE_UP));
+    }
+
     /** private inner classes */
     private class TrunkMessageProcessor implements Runnable {
+        /** messages are drained in batches, registrations of a batch are flushed together,
+         *  then control work is done, it's never queued, so it's never shed
+         */
         public void run(){
+            List<TrunkManagerMessage> msgs = new ArrayList<TrunkManagerMessage>(REG_BATCH_SIZE);
             while(true) {
-                TrunkManagerMessage msg;
                 try {
-                    msg = mMsgQueue.take();
+                    msgs.add(mMsgQueue.take());
                 } catch (Exception e){
                     LOGGER.w(TAG, "exp: " + e);
                     continue;
                 }
-                int msgType = msg.getType();
-                switch (msgType) {
-                    case TrunkManagerMessage.MSG_RXED_PACKET:
-                        handleUdpPacket((DatagramPacket)msg.getObject());
-                        break;
-                    default:
-                        break;
+                mMsgQueue.drainTo(msgs, REG_BATCH_SIZE - 1);
+                for(TrunkManagerMessage msg : msgs){
+                    handleMessage(msg);
+                }
+                mRegistrations.flush();
+                msgs.clear();
+                if(mSweepDue.getAndSet(false)){
+                    sweep();
                 }
+                applyReload();
             }
         }
 
-        private void handleUdpPacket(DatagramPacket packet){
-            short protoType = ProtocolBase.peepType(ByteBuffer.wrap(packet.getData()));
-            switch(protoType){
-                case ProtocolBase.PTYPE_REGISTRATION:
-                    handleRegistration(packet);
+        private void sweep(){
+            evictParkedCps();
+            expirePresence();
+            saveWarmStateIfDue();
+            dumpStatsIfDue();
+        }
+
+        private void handleMessage(TrunkManagerMessage msg){
+            int msgType = msg.getType();
+            switch (msgType) {
+                case TrunkManagerMessage.MSG_RXED_PACKET:
+                    RxPacket packet = (RxPacket)msg.getObject();
+                    handleUdpPacket(packet);
+                    packet.release();
                     break;
                 default:
                     break;
             }
         }
 
-        private void handleRegistration(DatagramPacket packet){
-            InetSocketAddress sender = new InetSocketAddress(packet.getAddress(), packet.getPort());
-            Registration reg = (Registration)ProtocolFactory.getProtocol(packet);
-            long suid = reg.getSource();
-            LOGGER.i(TAG, "registration from: " + sender + ", legitimate SU:" + suid);
-
-            // validation
-            Ack ack;
-            boolean legitimateSu = false;
-            if(mUserDatabase.hasSubscriber(suid)) {
-                legitimateSu = true;
-                mUserDatabase.online(suid, sender);
-            }else{
-                LOGGER.i(TAG, "illegitimate su: " + suid);
+        private void handleUdpPacket(RxPacket packet){
+            short protoType = PacketHeader.peepType(packet.getBuffer());
+            switch(protoType){
+                case ProtocolBase.PTYPE_REGISTRATION:
+                    if(mRegistrations.isFull()){
+                        mRegistrations.flush();
+                    }
+                    mRegistrations.add(packet);
+                    break;
+                default:
+                    break;
             }
-            ack = new Ack(suid, GlobalConstants.SUID_TRUNK_MANAGER, ++mSeqNumber, legitimateSu, reg);
-            int size = ack.getSize();
-            ByteBuffer payload = ByteBuffer.allocate(size);
-            ack.serialize(payload);
-            mUdpService.send(sender, payload);
         }
     }
 
     private class UdpRxHandler implements UDPService.CompletionHandler {
         @Override
         public void completed(DatagramPacket packet){
-            ProtocolBase proto = ProtocolFactory.getProtocol(packet);
-            LOGGER.d(TAG, "rxed:" + proto);
+            dispatch(RxPacket.wrap(packet));
+        }
+    }
 
-            switch (proto.getType()) {
-                case ProtocolBase.PTYPE_REGISTRATION:
+    private class NioRxHandler implements NioUDPService.CompletionHandler {
+        @Override
+        public void completed(RxPacket packet){
+            dispatch(packet);
+        }
+    }
 
-                    TrunkManagerMessage msg = new TrunkManagerMessage(TrunkManagerMessage.MSG_RXED_PACKET, packet);
-                    try {
-                        mMsgQueue.put(msg);
-                    } catch (Exception e) {
-                        LOGGER.w(TAG, "exp: " + e);
-                    }
-                    break;
-                case ProtocolBase.PTYPE_CALL_INIT:
-                case ProtocolBase.PTYPE_CALL_DATA:
-                case ProtocolBase.PTYPE_CALL_TERM:
-                    CallProcessor cp = findCallProcessor(proto);
-                    if(cp!=null){
-                        cp.packetReceived(packet);
-                    }
-                    break;
-                default:
+    /** dispatch rxed packet per its raw header, the packet is not decoded here.
+     *  registration goes to message queue, call packets go to cp of the target group,
+     *  whoever takes the packet releases it.
+     *  it's called by every receiver thread concurrently, see NioUDPService
+     */
+    private void dispatch(RxPacket packet){
+        TrunkMetrics.RX_PACKETS.inc();
+        ByteBuffer header = packet.getBuffer();
+        if(!PacketHeader.hasHeader(header)){
+            LOGGER.d(TAG, "rxed runt packet, len={}", header.remaining());
+            TrunkMetrics.RX_RUNTS.inc();
+            packet.release();
+            return;
+        }
+
+        switch (PacketHeader.peepType(header)) {
+            case ProtocolBase.PTYPE_REGISTRATION:
+                DatagramPacket dp = packet.getPacket();
+                if(!mRegAdmission.admit(dp.getAddress(), dp.getPort())){
+                    TrunkMetrics.RX_REG_RATE_LIMITED.inc();
+                    packet.release();
                     break;
+                }
+                enqueueRegistration(packet);
+                break;
+            case ProtocolBase.PTYPE_CALL_INIT:
+            case ProtocolBase.PTYPE_CALL_DATA:
+            case ProtocolBase.PTYPE_CALL_TERM:
+                CallProcessor cp = findCallProcessor(PacketHeader.peepSource(header),
+                        PacketHeader.peepTarget(header), PacketHeader.peepType(header));
+                if(cp!=null){
+                    cp.packetReceived(packet);
+                } else {
+                    packet.release();
+                }
+                break;
+            default:
+                TrunkMetrics.RX_UNKNOWN.inc();
+                packet.release();
+                break;
+        }
+    }
+
+    /** queue registration for message thread, never blocks the receiver, so voice keeps
+     *  flowing, if queue is full, the oldest message is shed to make room; only
+     *  registrations and wake-ups are queued, control work is posted by flag, see wakeUp()
+     */
+    private void enqueueRegistration(RxPacket packet){
+        TrunkManagerMessage msg = new TrunkManagerMessage(TrunkManagerMessage.MSG_RXED_PACKET, packet);
+        while(!mMsgQueue.offer(msg)){
+            TrunkManagerMessage oldest = mMsgQueue.poll();
+            if(oldest != null && oldest.getType() == TrunkManagerMessage.MSG_RXED_PACKET){
+                ((RxPacket)oldest.getObject()).release();
+                TrunkMetrics.RX_REG_SHED.inc();
             }
         }
     }
 
-    private CallProcessor findCallProcessor(ProtocolBase proto){
-        if( !mUserDatabase.isGroupMember(proto.getSource(), proto.getTarget())){
-            LOGGER.d(TAG, "illegal call attempt from " + proto.getSource() + " to " + proto.getTarget());
+    /** find cp of target group, a cp is created for call init only
+     *  - membership is checked per frame, with a SnapshotDatabase, see Main, it's a hash
+     *    probe of the su plus a binary search in its groups, nothing is boxed
+     */
+    private CallProcessor findCallProcessor(long source, long target, short protoType){
+        if( !mUserDatabase.isGroupMember(source, target)){
+            LOGGER.d(TAG, "illegal call attempt from {} to {}", source, target);
+            TrunkMetrics.RX_ILLEGAL_CALL.inc();
             return null;
         }
 
-        CallProcessor cp = mCPs.get(proto.getTarget());
+        ThreadedCP cp = mCPs.get(target);
         if(cp == null){
-            cp = createCallProcessor(proto.getTarget(), proto.getSource());
-            if( cp != null) {
-                mCPs.put(new Long(proto.getTarget()), cp);
-            } else {
-                LOGGER.w(TAG, "failed to create cp for target " + proto.getTarget());
+            if(protoType != ProtocolBase.PTYPE_CALL_INIT){
+                TrunkMetrics.RX_NO_CP.inc();
+                return null;
+            }
+            cp = createCallProcessor(target, source);
+            ThreadedCP cur = mCPs.putIfAbsent(target, cp);
+            if(cur != null){
+                retireCp(cp);
+                cp = cur;
             }
         }
         return cp;
     }
 
+    /** evict cps idle for longer than configured */
+    private void evictParkedCps(){
+        List<ThreadedCP> cps = mCPs.removeParked(System.nanoTime() - mCpIdleEvictNs);
+        for(final ThreadedCP cp : cps){
+            // parked is read outside of cp's context, it's checked again in there
+            cp.retireIfParked(released(cp, null), new Runnable() {
+                @Override
+                public void run() {
+                    reinstateCp(cp);
+                }
+            });
+        }
+        if(!cps.isEmpty()) {
+            LOGGER.i(TAG, "evicted " + cps.size() + " idle cps, " + mCPs.size() + " left");
+        }
+    }
+
+    /** swap in pending snapshots, then patch online views by their diffs, an su which is
+     *  gone goes offline, an su which left a group stops hearing it, cps of a group which
+     *  is gone get no more calls, as membership check fails, and are evicted once idle
+     */
+    private void applyReload(){
+        PendingReload reload;
+        while((reload = mReloads.poll()) != null){
+            long start = System.nanoTime();
+            SnapshotDiff diff = reload.mDiff;
+            ((SnapshotDatabase)mUserDatabase).reload(reload.mNext, diff);
+            mOnlineGroups.apply(diff);
+            if(mLeases != null){
+                for(long su_id : diff.removedSubscribers()){
+                    mLeases.remove(su_id);
+                }
+            }
+            LOGGER.i(TAG, "reloaded, " + diff + ", in "
+                    + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + "us");
+        }
+    }
+
+    /** su whose lease is over goes offline, and out of group views */
+    private void expirePresence(){
+        if(mLeases == null){
+            return;
+        }
+        int n = mLeases.expire(System.nanoTime());
+        long[] expired = mLeases.expired();
+        for(int i = 0; i < n; ++i){
+            mOnlineGroups.offline(expired[i]);
+        }
+        if(n > 0){
+            TrunkMetrics.PRESENCE_EXPIRED.add(n);
+            LOGGER.i(TAG, "expired " + n + " sus, " + mLeases.size() + " online");
+        }
+    }
+
+    /** bring back presence and calls saved before restart, before receivers start, so
+     *  radios needn't register again
+     *  - an su is restored with its lease as it was, an expired one is left out
+     *  - a call is resumed if state is recent enough, caller's frames flow on, or the
+     *    call terminates through hang, as it would have
+     */
+    private void restoreWarmState(){
+        if(mWarmStatePath == null){
+            return;
+        }
+        WarmState state;
+        try {
+            state = WarmState.load(mWarmStatePath);
+        } catch (IOException e){
+            LOGGER.w(TAG, "failed to load warm state, exp: " + e);
+            return;
+        }
+        if(state == null){
+            return;
+        }
+        long wallNow = System.currentTimeMillis();
+        long nanoNow = System.nanoTime();
+        int n = state.presenceCount();
+        long[] sus = new long[n];
+        InetSocketAddress[] addrs = new InetSocketAddress[n];
+        int online = 0;
+        for(int i = 0; i < n; ++i){
+            long ageMs = Math.max(0, wallNow - state.lastSeenAt(i));
+            if(!mUserDatabase.hasSubscriber(state.suIdAt(i)) || (mLeaseMs > 0 && ageMs >= mLeaseMs)){
+                continue;
+            }
+            sus[online] = state.suIdAt(i);
+            addrs[online] = state.addressAt(i);
+            if(mLeases != null){
+                // lease runs from when it was last registered
+                mLeases.refresh(sus[online], nanoNow - TimeUnit.MILLISECONDS.toNanos(ageMs));
+            }
+            ++online;
+        }
+        mOnlineGroups.online(sus, addrs, online);
+
+        int resumed = 0;
+        if(wallNow - state.savedAt() < CALL_RESUME_MAX_AGE_MS){
+            for(int i = 0; i < state.callCount(); ++i){
+                CallProcessor.ActiveCall call = state.callAt(i);
+                if(!mUserDatabase.isGroupMember(call.mSourceId, call.mGrpId) || mCPs.get(call.mGrpId) != null){
+                    continue;
+                }
+                ThreadedCP cp = createCallProcessor(call.mGrpId, call.mSourceId);
+                mCPs.putIfAbsent(call.mGrpId, cp);
+                cp.resumeCall(call);
+                ++resumed;
+            }
+        }
+        LOGGER.i(TAG, "warm restart, " + online + " of " + n + " sus online, " + resumed + " calls resumed, state is "
+                + (wallNow - state.savedAt()) + "ms old");
+    }
+
+    /** save presence and calls in progress, for warm restart */
+    private void saveWarmStateIfDue(){
+        long now = System.nanoTime();
+        if(mWarmStatePath == null || now - mNextWarmSave < 0){
+            return;
+        }
+        mNextWarmSave = now + mWarmStateNs;
+        mActiveCalls.clear();
+        for(ThreadedCP cp : mCPs.all()){
+            CallProcessor.ActiveCall call = cp.activeCall();
+            if(call != null){
+                mActiveCalls.add(call);
+            }
+        }
+        try {
+            if(mWarmWriter == null){
+                mWarmWriter = new WarmState.Writer(mWarmStatePath);
+            }
+            mWarmWriter.save(mOnlineGroups.table(), mActiveCalls, System.currentTimeMillis(), now);
+        } catch (IOException e){
+            LOGGER.w(TAG, "failed to save warm state, exp: " + e);
+        }
+    }
+
+    /** dump frame stats of the last period, globally and for groups which had frames */
+    private void dumpStatsIfDue(){
+        long now = System.nanoTime();
+        if(mStatsDumpNs <= 0 || now - mNextStatsDump < 0){
+            return;
+        }
+        long regs = TrunkMetrics.REG_ACCEPTED.sum() + TrunkMetrics.REG_REJECTED.sum();
+        long batches = TrunkMetrics.REG_BATCHES.sum();
+        if(regs > mLastRegs){
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - mNextStatsDump + mStatsDumpNs);
+            LOGGER.i(TAG, "registrations: " + (regs - mLastRegs) + " in " + (batches - mLastRegBatches)
+                    + " batches, " + (regs - mLastRegs) * 1000 / Math.max(1, elapsedMs) + "/s");
+        }
+        mLastRegs = regs;
+        mLastRegBatches = batches;
+        mNextStatsDump = now + mStatsDumpNs;
+        // global is summed here, so no stats shared by groups are written per frame
+        FrameStats.Interval global = mRetiredStats.take();
+        for(ThreadedCP cp : mCPs.all()){
+            FrameStats.Interval interval = cp.stats().take();
+            if(!interval.isEmpty()){
+                LOGGER.i(TAG, "stats grp " + cp.groupId() + ": " + interval);
+                global = global.plus(interval);
+            }
+        }
+        LOGGER.i(TAG, "stats global: " + (global.isEmpty() ? "no frame" : global.toString()));
+    }
+
+    /** gauges sampled at scrape time, of this trunk manager */
+    private void registerGauges(){
+        MetricsRegistry registry = MetricsRegistry.global();
+        registry.gauge("trunk_msg_queue_depth", "messages pending in trunk manager queue", new Gauge() {
+            @Override
+            public long value() {
+                return mMsgQueue.size();
+            }
+        });
+        registry.gauge("trunk_cps", "call processors in registry", new Gauge() {
+            @Override
+            public long value() {
+                return mCPs.size();
+            }
+        });
+    }
+
+    /** cp is out of registry, retire it in its context, after what's queued before, its
+     *  view and executor are released from there, see released()
+     */
+    private void retireCp(ThreadedCP cp){
+        retireCp(cp, null);
+    }
+
+    /** @param retired counted down once cp is retired, null if nobody waits */
+    private void retireCp(ThreadedCP cp, CountDownLatch retired){
+        cp.retire(released(cp, retired));
+    }
+
+    /** @return what's done once cp is retired, in its context, its view is released then,
+     *  as it's in use up to then, and its executor */
+    private Runnable released(final ThreadedCP cp, final CountDownLatch retired){
+        return new Runnable() {
+            @Override
+            public void run() {
+                // after its last frame, counted in next global dump
+                mRetiredStats.add(cp.stats().take());
+                mOnlineGroups.release(cp.groupId());
+                mExecutors.release(cp.mExec);
+                if(retired != null){
+                    retired.countDown();
+                }
+            }
+        };
+    }
+
+    /** evicted cp got a call before it was retired, in its context, put it back, so the
+     *  rest of the call reaches it, unless a new cp has taken the group over meanwhile,
+     *  which got the call init as well, then it's retired after all
+     */
+    private void reinstateCp(ThreadedCP cp){
+        if(mCPs.putIfAbsent(cp.groupId(), cp) != null){
+            retireCp(cp);
+        } else {
+            LOGGER.i(TAG, "cp of grp " + cp.groupId() + " got a call while evicted, kept");
+        }
+    }
+
     private class TrunkManagerMessage {
         public TrunkManagerMessage(int messageType){
             mMessageType = messageType;
@@ -192,42 +655,104 @@ public class TrunkManager {
 
         public static final int MSG_INVALID = 0;
         public static final int MSG_RXED_PACKET = 1;
+        /** wake-up only, work is flagged by mSweepDue, mReloads */
+        public static final int MSG_WAKE_UP = 2;
     }
 
-    /** create repeator, and its executor service.
-     *      it's not possible to use threadpool, because we have to ensure all methods of
-     *      a cp has to be run in the same thread context, as a way to eliminate race
-     *      condition. I may consider to create a ExecuteService pool in future.
+    /** snapshot to swap in, and its diff from the one before */
+    private static class PendingReload {
+        PendingReload(SubscriberSnapshot next, SnapshotDiff diff){
+            mNext = next;
+            mDiff = diff;
+        }
+
+        final SubscriberSnapshot mNext;
+        final SnapshotDiff mDiff;
+    }
+
+    /** create repeator, and its serial executor.
+     *      all methods of a cp have to be run in the same serial context, as a way to
+     *      eliminate race condition, so each cp gets its own executor, see CpExecutorFactory
+     *      for how they're backed.
      * @param suid
      * @param target
      * @return
      */
-    private CallProcessor createCallProcessor(long target, long suid)
+    private ThreadedCP createCallProcessor(long target, long suid)
     {
-        ExecutorService exec = Executors.newSingleThreadExecutor();
-        ThreadedCP cp = new ThreadedCP(exec, target, suid, mRepeater, mUserDatabase, mTimer, LOGGER);
+        Executor exec = mExecutors.newExecutor(target);
+        ThreadedCP cp = new ThreadedCP(exec, target, suid, mRepeater, mOnlineGroups.viewOf(target), mTimer, LOGGER);
+        cp.setCdrLog(mCdr);
         return cp;
     }
 
 
     /** private members */
-    private short mSeqNumber    = 0;
     private UDPService  mUdpService = null;
     private BlockingQueue<TrunkManagerMessage> mMsgQueue   = null;
     private Thread      mThread = null;
     private TrunkMessageProcessor   mProcessor  = null;
-    private UdpRxHandler    mRxHandler;
+    private NioUDPService   mNioService = null;
+    private PacketSender    mSender;
 
     private Repeator mRepeater;
+    /** owned by message thread */
+    private final RegistrationBatch mRegistrations;
+    private final RegistrationAdmission mRegAdmission;
+    /** owned by message thread, null if presence never expires */
+    private final PresenceLeases mLeases;
 
-    private ExecutorService         mCallProcessorExecutor;
+    private final CpExecutorFactory mExecutors;
     private final SubscriberDatabase mUserDatabase;// = new SubscriberDatabase();
-    private final Timer mTimer = new Timer("tm");
-
-    private final HashMap<Long, CallProcessor> mCPs = new HashMap<Long, CallProcessor>();
-    private final HashMap<Long, ExecutorService> mExecs = new HashMap<Long, ExecutorService>();
+    private final OnlineGroups mOnlineGroups;
+    private final HashedWheelTimer mTimer = new HashedWheelTimer("tm", LOGGER);
+    /** reloads to apply, in order, diffs computed by reload() */
+    private final Queue<PendingReload> mReloads = new ConcurrentLinkedQueue<PendingReload>();
+    /** last snapshot requested, next reload is diffed against it, guarded by mReloads */
+    private SubscriberSnapshot mLastReload = null;
+
+    private final CpRegistry mCPs = new CpRegistry();
+    private final long mCpIdleEvictNs;
+    private final long mStatsDumpNs;
+    private long mNextStatsDump;
+    /** frames of cps retired since last dump, added from their contexts */
+    private final FrameStats mRetiredStats = new FrameStats(CallProcessor.PACKET_INTERVAL_NS);
+    private long mLastRegs, mLastRegBatches;
+    private MetricsHttpServer mMetricsServer = null;
+    private CdrLog mCdr = null;
+    /** warm restart state, null if disabled, saved by message thread */
+    private final File mWarmStatePath;
+    private final long mWarmStateNs;
+    private long mNextWarmSave;
+    private WarmState.Writer mWarmWriter;
+    private final List<CallProcessor.ActiveCall> mActiveCalls = new ArrayList<CallProcessor.ActiveCall>();
+    private final long mLeaseMs;
+
+    /** sweep of idle cps, presence, warm state and stats is due, done by message thread */
+    private final AtomicBoolean mSweepDue = new AtomicBoolean(false);
+    /** posts sweep to the message thread */
+    private final TimerHandle mSweepTimer = new TimerHandle(0, new TimerHandle.Callback() {
+        @Override
+        public void expired(TimerHandle handle) {
+            if(handle.takeExpiry()) {
+                mSweepDue.set(true);
+                wakeUp();
+            }
+        }
+    });
 
-    private final static OLog LOGGER = new XLog();
+    private static final int LOG_RING_SIZE = 4096;
+    /** off the voice threads, sink is written by log thread */
+    private final static Log LOGGER = Log.async(new XLog(), LOG_RING_SIZE);
     private static final String TAG    = "TrunkMgr";
+    private static final long CP_SWEEP_PERIOD_MS = 1000;
+    /** max wait for cps to retire on stop */
+    private static final long STOP_TIMEOUT_MS = 1000;
+    /** max messages drained at once, i.e. max registrations acked in one go */
+    private static final int REG_BATCH_SIZE = 256;
+    private static final int REG_ADMISSION_BUCKETS = 64 * 1024;
+    /** calls of older state are over, for sure */
+    private static final long CALL_RESUME_MAX_AGE_MS = 10 * 1000;
+    private static final String MBEAN_NAME = "com.bluesky.cloudmontain:type=Metrics";
 
 }
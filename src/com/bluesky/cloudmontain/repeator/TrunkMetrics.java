@@ -0,0 +1,37 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.cloudmontain.metrics.Counter;
+import com.bluesky.cloudmontain.metrics.MetricsRegistry;
+
+/** counters of the trunk center, in the global MetricsRegistry
+ *  - taken once here, so the hot path only bumps a striped Counter
+ */
+class TrunkMetrics {
+    static final Counter RX_PACKETS = counter("trunk_rx_packets_total", "packets received");
+    static final Counter RX_RUNTS = counter("trunk_rx_dropped_total{reason=\"runt\"}", "packets dropped at dispatch");
+    static final Counter RX_UNKNOWN = counter("trunk_rx_dropped_total{reason=\"unknown_type\"}", "packets dropped at dispatch");
+    static final Counter RX_ILLEGAL_CALL = counter("trunk_rx_dropped_total{reason=\"illegal_call\"}", "packets dropped at dispatch");
+    static final Counter RX_NO_CP = counter("trunk_rx_dropped_total{reason=\"no_cp\"}", "packets dropped at dispatch");
+    static final Counter RX_REG_RATE_LIMITED = counter("trunk_rx_dropped_total{reason=\"reg_rate_limited\"}", "packets dropped at dispatch");
+    static final Counter RX_REG_SHED = counter("trunk_rx_dropped_total{reason=\"reg_queue_full\"}", "packets dropped at dispatch");
+    static final Counter RX_RETIRED_CP = counter("trunk_rx_dropped_total{reason=\"retired_cp\"}", "packets dropped at dispatch");
+
+    static final Counter REG_ACCEPTED = counter("trunk_registrations_total{result=\"accepted\"}", "registrations handled");
+    static final Counter REG_REJECTED = counter("trunk_registrations_total{result=\"rejected\"}", "registrations handled");
+    static final Counter REG_BATCHES = counter("trunk_registration_batches_total", "batches of registrations flushed");
+
+    static final Counter PRESENCE_EXPIRED = counter("trunk_presence_expired_total", "sus gone offline for lease expiry");
+
+    static final Counter TX_PACKETS = counter("trunk_tx_packets_total", "packets sent to group members");
+    static final Counter TX_BYTES = counter("trunk_tx_bytes_total", "bytes sent to group members");
+    static final Counter TX_SYNTHESIZED = counter("trunk_tx_synthesized_total", "call init/term frames synthesized on behalf of caller");
+
+    /** @return up/down gauge of cps in given state */
+    static Counter callsIn(String state){
+        return MetricsRegistry.global().upDownGauge("trunk_calls{state=\"" + state + "\"}", "call processors per state");
+    }
+
+    private static Counter counter(String name, String help){
+        return MetricsRegistry.global().counter(name, help);
+    }
+}
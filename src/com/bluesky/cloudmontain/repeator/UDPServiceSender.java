@@ -0,0 +1,42 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.common.UDPService;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/** adapt legacy UDPService as a PacketSender.
+ *  UDPService sends the whole backing array, so a payload which isn't an exact-sized
+ *  heap buffer, e.g. a pooled direct tx buffer, is copied into one first, a fan-out
+ *  copies once per frame, see exactImage() and Repeator.
+ */
+public class UDPServiceSender implements PacketSender {
+    public UDPServiceSender(UDPService udpService){
+        mUdpSvc = udpService;
+    }
+
+    @Override
+    public void send(InetSocketAddress addr, ByteBuffer payload){
+        mUdpSvc.send(addr, exactImage(payload));
+    }
+
+    /** @return payload if it's an exact-sized heap buffer, i.e. its backing array is the
+     *  payload, otherwise a copy of it, which is never written again, so it can be sent to
+     *  any number of members
+     *  - a slice, e.g. of RxPacket.wrap(), has capacity of the slice, but UDPService sends
+     *    its whole backing array, so it's checked against the array
+     */
+    public static ByteBuffer exactImage(ByteBuffer payload){
+        if(payload.hasArray() && payload.arrayOffset() == 0 && payload.limit() == payload.array().length){
+            return payload;
+        }
+        ByteBuffer image = payload.duplicate();
+        image.position(0);
+        ByteBuffer copy = ByteBuffer.allocate(image.remaining());
+        copy.put(image);
+        copy.flip();
+        return copy;
+    }
+
+    final UDPService mUdpSvc;
+}
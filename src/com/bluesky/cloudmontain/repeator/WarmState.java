@@ -0,0 +1,248 @@
+package com.bluesky.cloudmontain.repeator;
+
+import com.bluesky.cloudmontain.database.OnlineTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/** state for warm restart, online presence and calls in progress, saved periodically,
+ *  loaded at startup, so radios needn't register again, see TrunkManager
+ *  - two memory-mapped slot files, <path>.0 and <path>.1, are written in turn, a save
+ *    clears the sequence of its slot first and sets it last, so a crash mid-save leaves
+ *    the other slot as the latest valid one
+ *  - mappings are kept across saves, and only grown, nothing is allocated per save
+ *  - times are wall clock, System.nanoTime() doesn't survive a restart
+ *  - saved state is in page cache, it survives a crash of the process, not of the host
+ *
+ *  slot layout, big endian:
+ *      header      magic, version, sequence, saved at, presence count, call count
+ *      presence    rows of su_id, last seen, port, address length, address
+ *      calls       rows of grp_id, caller su_id, port, address length, address, call start
+ */
+public class WarmState {
+    /** @return latest valid state saved at path, null if there's none */
+    public static WarmState load(File path) throws IOException {
+        ByteBuffer latest = null;
+        for(int slot = 0; slot < 2; ++slot){
+            File file = slotFile(path, slot);
+            if(!file.exists()){
+                continue;
+            }
+            ByteBuffer buf = map(file, FileChannel.MapMode.READ_ONLY, file.length());
+            if(isValid(buf) && (latest == null || buf.getLong(SEQ_POS) > latest.getLong(SEQ_POS))){
+                latest = buf;
+            }
+        }
+        return latest == null ? null : new WarmState(latest);
+    }
+
+    private WarmState(ByteBuffer buf) throws IOException {
+        mSavedAt = buf.getLong(SAVED_AT_POS);
+        int presence = buf.getInt(PRESENCE_POS);
+        int calls = buf.getInt(CALLS_POS);
+        mSuIds = new long[presence];
+        mLastSeen = new long[presence];
+        mAddrs = new InetSocketAddress[presence];
+        byte[] ip4 = new byte[4];
+        byte[] ip6 = new byte[ADDR_WIDTH];
+        int pos = HEADER_SIZE;
+        for(int i = 0; i < presence; ++i, pos += ROW_SIZE){
+            mSuIds[i] = buf.getLong(pos);
+            mLastSeen[i] = buf.getLong(pos + 8);
+            mAddrs[i] = readAddress(buf, pos + 16, ip4, ip6);
+        }
+        mCalls = new CallProcessor.ActiveCall[calls];
+        for(int i = 0; i < calls; ++i, pos += CALL_ROW_SIZE){
+            mCalls[i] = new CallProcessor.ActiveCall(buf.getLong(pos), buf.getLong(pos + 8),
+                    readAddress(buf, pos + 16, ip4, ip6), buf.getLong(pos + ROW_SIZE));
+        }
+    }
+
+    /** @return wall clock time of save, in ms */
+    public long savedAt(){
+        return mSavedAt;
+    }
+
+    public int presenceCount(){
+        return mSuIds.length;
+    }
+
+    public long suIdAt(int i){
+        return mSuIds[i];
+    }
+
+    public InetSocketAddress addressAt(int i){
+        return mAddrs[i];
+    }
+
+    /** @return wall clock time su was last seen, in ms */
+    public long lastSeenAt(int i){
+        return mLastSeen[i];
+    }
+
+    public int callCount(){
+        return mCalls.length;
+    }
+
+    public CallProcessor.ActiveCall callAt(int i){
+        return mCalls[i];
+    }
+
+    /** saves state into slot files in turn, owned by one thread */
+    public static class Writer {
+        /** continues after the latest state saved at path, if any */
+        public Writer(File path){
+            mPath = path;
+            for(int slot = 0; slot < 2; ++slot){
+                File file = slotFile(path, slot);
+                if(!file.exists()){
+                    continue;
+                }
+                try {
+                    ByteBuffer buf = map(file, FileChannel.MapMode.READ_ONLY, file.length());
+                    if(isValid(buf)){
+                        mSeq = Math.max(mSeq, buf.getLong(SEQ_POS));
+                    }
+                } catch (IOException e){
+                    // slot is overwritten anyway
+                }
+            }
+        }
+
+        /** save online sus of table, and calls in progress
+         * @param wallNow  System.currentTimeMillis()
+         * @param nanoNow  System.nanoTime(), last-seen of table is relative to it
+         */
+        public void save(OnlineTable table, List<CallProcessor.ActiveCall> calls, long wallNow, long nanoNow)
+                throws IOException {
+            int rows = table.rowLimit();
+            int slot = (int)((mSeq + 1) & 1);
+            MappedByteBuffer buf = slotBuffer(slot,
+                    HEADER_SIZE + (long)rows * ROW_SIZE + (long)calls.size() * CALL_ROW_SIZE);
+            buf.putLong(SEQ_POS, 0);
+
+            int pos = HEADER_SIZE;
+            int presence = 0;
+            for(int row = 0; row < rows; ++row){
+                InetSocketAddress addr = table.addressAt(row);
+                if(addr == null){
+                    continue;
+                }
+                long lastSeenMs = wallNow - (nanoNow - table.lastSeenAt(row)) / 1000000;
+                buf.putLong(pos, table.suIdAt(row));
+                buf.putLong(pos + 8, lastSeenMs);
+                int len = table.addressBytesAt(row, mAddr);
+                putAddress(buf, pos + 16, table.portAt(row), mAddr, len);
+                pos += ROW_SIZE;
+                ++presence;
+            }
+            for(CallProcessor.ActiveCall call : calls){
+                buf.putLong(pos, call.mGrpId);
+                buf.putLong(pos + 8, call.mSourceId);
+                byte[] ip = call.mSender.getAddress().getAddress();
+                putAddress(buf, pos + 16, call.mSender.getPort(), ip, ip.length);
+                buf.putLong(pos + ROW_SIZE, call.mStartMs);
+                pos += CALL_ROW_SIZE;
+            }
+
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putLong(SAVED_AT_POS, wallNow);
+            buf.putInt(PRESENCE_POS, presence);
+            buf.putInt(CALLS_POS, calls.size());
+            // last, it validates the slot
+            buf.putLong(SEQ_POS, ++mSeq);
+        }
+
+        private MappedByteBuffer slotBuffer(int slot, long size) throws IOException {
+            MappedByteBuffer buf = mSlots[slot];
+            if(buf == null || buf.capacity() < size){
+                long capacity = Math.max(size, buf == null ? MIN_SLOT_SIZE : buf.capacity() * 2L);
+                buf = mSlots[slot] = map(slotFile(mPath, slot), FileChannel.MapMode.READ_WRITE, capacity);
+            }
+            return buf;
+        }
+
+        private final File mPath;
+        private final MappedByteBuffer[] mSlots = new MappedByteBuffer[2];
+        private final byte[] mAddr = new byte[ADDR_WIDTH];
+        private long mSeq = 0;
+    }
+
+    private static void putAddress(ByteBuffer buf, int pos, int port, byte[] ip, int len){
+        buf.putInt(pos, port);
+        buf.put(pos + 4, (byte)len);
+        for(int i = 0; i < len; ++i){
+            buf.put(pos + 8 + i, ip[i]);
+        }
+    }
+
+    private static InetSocketAddress readAddress(ByteBuffer buf, int pos, byte[] ip4, byte[] ip6)
+            throws IOException {
+        int port = buf.getInt(pos);
+        int len = buf.get(pos + 4);
+        byte[] ip = len == ip4.length ? ip4 : ip6;
+        if(len != ip4.length && len != ip6.length){
+            throw new IOException("bad address length " + len);
+        }
+        for(int i = 0; i < len; ++i){
+            ip[i] = buf.get(pos + 8 + i);
+        }
+        // getByAddress() copies ip
+        return new InetSocketAddress(InetAddress.getByAddress(ip), port);
+    }
+
+    private static boolean isValid(ByteBuffer buf){
+        if(buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                || buf.getLong(SEQ_POS) <= 0){
+            return false;
+        }
+        long size = (long)buf.getInt(PRESENCE_POS) * ROW_SIZE + (long)buf.getInt(CALLS_POS) * CALL_ROW_SIZE;
+        return buf.getInt(PRESENCE_POS) >= 0 && buf.getInt(CALLS_POS) >= 0
+                && HEADER_SIZE + size <= buf.capacity();
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            // mapping stays valid after close
+            raf.close();
+        }
+    }
+
+    static File slotFile(File path, int slot){
+        return new File(path.getPath() + "." + slot);
+    }
+
+    private final long mSavedAt;
+    private final long[] mSuIds;
+    private final long[] mLastSeen;
+    private final InetSocketAddress[] mAddrs;
+    private final CallProcessor.ActiveCall[] mCalls;
+
+    /** "TWRM" */
+    private static final int MAGIC = 0x5457524D;
+    /** 2: calls keep their start time */
+    private static final int VERSION = 2;
+    private static final int SEQ_POS = 8;
+    private static final int SAVED_AT_POS = 16;
+    private static final int PRESENCE_POS = 24;
+    private static final int CALLS_POS = 28;
+    private static final int HEADER_SIZE = 32;
+    /** id, id or time, port, address length and padding, address */
+    private static final int ROW_SIZE = 8 + 8 + 8 + 16;
+    /** a row, then call start */
+    private static final int CALL_ROW_SIZE = ROW_SIZE + 8;
+    private static final int MIN_SLOT_SIZE = 64 * 1024;
+    /** bytes of address per row, big enough for IPv6 */
+    private static final int ADDR_WIDTH = 16;
+}
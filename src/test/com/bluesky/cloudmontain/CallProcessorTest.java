@@ -1,7 +1,11 @@
 package test.com.bluesky.cloudmontain; 
 
+import com.bluesky.cloudmontain.cdr.CdrLog;
 import com.bluesky.cloudmontain.repeator.CallProcessor;
+import com.bluesky.cloudmontain.repeator.HashedWheelTimer;
+import com.bluesky.cloudmontain.repeator.PacketHeader;
 import com.bluesky.cloudmontain.repeator.Repeator;
+import com.bluesky.cloudmontain.repeator.TimerHandle;
 import com.bluesky.common.SubscriberDatabase;
 import com.bluesky.common.*;
 import com.bluesky.protocol.CallData;
@@ -10,19 +14,22 @@ import com.bluesky.protocol.CallTerm;
 import com.bluesky.protocol.ProtocolBase;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import static org.mockito.AdditionalMatchers.*;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Timer;
+import java.util.concurrent.TimeUnit;
 
 /** 
 * CallProcessor Tester. 
@@ -39,12 +46,14 @@ public class CallProcessorTest {
    @Mock
    SubscriberDatabase database;
    @Mock
-   Timer timer;
+   HashedWheelTimer timer;
    @Spy
-   Timer spiedTimer = new Timer("tm");
+   HashedWheelTimer spiedTimer = new HashedWheelTimer("tm");
 
    @Mock
    OLog logger;
+   @Mock
+   CdrLog cdr;
 
    long su1 = 10;
    long su2 = 20;
@@ -63,6 +72,18 @@ public class CallProcessorTest {
 
    CallProcessor cp;
 
+   static final long TICK_PERIOD_NS = TimeUnit.MILLISECONDS.toNanos(GlobalConstants.CALL_PACKET_INTERVAL);
+
+   /** matches raw frame of given protocol type, synthesized frames are forwarded raw */
+   private static ByteBuffer frameOfType(final short type){
+      return argThat(new ArgumentMatcher<ByteBuffer>() {
+         @Override
+         public boolean matches(Object arg) {
+            return PacketHeader.peepType((ByteBuffer) arg) == type;
+         }
+      });
+   }
+
    private void resetMocked(){
       Mockito.reset(rptr);
       Mockito.reset(database);
@@ -105,6 +126,63 @@ public class CallProcessorTest {
       cp.packetReceived(pkt);
    }
 
+   /** test parking and retirement
+    *    - cp is parked in idle, not parked during a call
+    *    - retired cp stops its tick, and ignores further packets
+    */
+   @Test
+   public void testRetire_MockTimer() throws Exception {
+      resetMocked();
+
+      Mockito.when(database.getOnlineMembers(anyLong())).thenReturn(Arrays.asList(records));
+
+      cp = new CallProcessor(grp, su2, rptr, database, timer, logger);
+      assertTrue(cp.isParked());
+      assertEquals(grp, cp.groupId());
+
+      rxedCallInit(grp, su2, addr2);
+      assertFalse(cp.isParked());
+
+      resetMocked();
+      cp.retire();
+      Mockito.verify(timer, times(1)).cancel(isA(TimerHandle.class));
+
+      rxedCallInit(grp, su2, addr2);
+      rxedCallData(grp, su2, addr2);
+      Mockito.verifyZeroInteractions(rptr);
+   }
+
+   /** call ends as caller is done, call hang after it isn't part of the call
+    *    - end is stamped as call enters hang, though record is logged later, e.g. on retire
+    *    - call terms synthesized in hang aren't counted as frames of the call
+    */
+   @Test
+   public void testCdrEnd_MockTimer() throws Exception {
+      resetMocked();
+
+      Mockito.when(database.getOnlineMembers(anyLong())).thenReturn(Arrays.asList(records));
+
+      cp = new CallProcessor(grp, su2, rptr, database, timer, logger);
+      cp.setCdrLog(cdr);
+
+      long start = System.currentTimeMillis();
+      rxedCallInit(grp, su2, addr2);
+      rxedCallData(grp, su2, addr2);
+      rxedCallTerm(grp, su2, addr2);
+      long hang = System.currentTimeMillis();
+
+      Thread.sleep(50);
+      cp.retire();
+
+      ArgumentCaptor<Long> callStart = ArgumentCaptor.forClass(Long.class);
+      ArgumentCaptor<Long> callEnd = ArgumentCaptor.forClass(Long.class);
+      Mockito.verify(cdr, times(1)).record(eq(grp), eq(su2), callStart.capture(), callEnd.capture(),
+              eq(2), eq(0));
+      assertTrue(callStart.getValue() >= start);
+      assertTrue(callEnd.getValue() >= callStart.getValue());
+      assertTrue(callEnd.getValue() <= hang);
+   }
+
    /** test IDLE state of the CP */
    @Test
    public void testIdle_MockTimer() throws Exception {
@@ -126,12 +204,8 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // verify call tick was started, at fixed rate of packet interval
+      Mockito.verify(timer, times(1)).scheduleAtDeadline(isA(TimerHandle.class), anyLong(), eq(TICK_PERIOD_NS));
 
 
    }
@@ -163,12 +237,8 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // verify call tick was started, at fixed rate of packet interval
+      Mockito.verify(timer, times(1)).scheduleAtDeadline(isA(TimerHandle.class), anyLong(), eq(TICK_PERIOD_NS));
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from sender got repeated, flywheel and tx timer got set
@@ -181,12 +251,8 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from others (based on IP) got discarded
@@ -200,7 +266,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // verify 20ms timer was not set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callData from others (based on IP) got discarded
@@ -213,9 +279,13 @@ public class CallProcessorTest {
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
               any(ProtocolBase.class));
+      Mockito.verify(rptr, times(0)).forward(
+              anyListOf(SubscriberDatabase.OnlineRecord.class),
+              any(CallInformation.class),
+              any(ByteBuffer.class));
 
       // verify no timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callTerm from others (based on IP) got discarded
@@ -229,7 +299,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // verify no timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
 
       /////////////////////////////////////////////////////////////////////////////
@@ -238,17 +308,13 @@ public class CallProcessorTest {
       resetMocked();
       rxedCallTerm(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
-
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      // verify flywheel timer was set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-//              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
    }
 
    /** test idle=>init, with single incoming CallInit
@@ -262,6 +328,7 @@ public class CallProcessorTest {
       Mockito.when(database.getOnlineMembers(anyLong())).thenReturn(Arrays.asList(records));
 
       /// create Cp
+      spiedTimer.start();
       cp = new CallProcessor(grp, su2, rptr, database, spiedTimer, logger);
 
       /// test idle -> init from su2
@@ -272,29 +339,29 @@ public class CallProcessorTest {
 
       // verify # of callInit
       int expPktNumber = (int)(GlobalConstants.CALL_FLYWHEEL_PERIOD / GlobalConstants.CALL_PACKET_INTERVAL);
-      Mockito.verify(rptr, atMost(expPktNumber)).repeat(
+      Mockito.verify(rptr, atMost(expPktNumber)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallInit.class));
+              frameOfType(ProtocolBase.PTYPE_CALL_INIT));
 
-      Mockito.verify(rptr, atLeast(expPktNumber - 10)).repeat(
+      Mockito.verify(rptr, atLeast(expPktNumber - 10)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallInit.class));
+              frameOfType(ProtocolBase.PTYPE_CALL_INIT));
 
       // verify # of callTerm
       expPktNumber = (int)(GlobalConstants.CALL_HANG_PERIOD_MS / GlobalConstants.CALL_PACKET_INTERVAL);
-      Mockito.verify(rptr, atMost(expPktNumber)).repeat(
+      Mockito.verify(rptr, atMost(expPktNumber)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      Mockito.verify(rptr, atLeast(expPktNumber - 10)).repeat(
+      Mockito.verify(rptr, atLeast(expPktNumber - 10)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
-
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
+      spiedTimer.stop();
    }
 
 
@@ -334,17 +401,13 @@ public class CallProcessorTest {
 
       rxedCallData(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallData.class));
+              any(ByteBuffer.class));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from sender got repeated, flywheel got reset with flywheel value
@@ -358,12 +421,8 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       /////////////////////////////////////////////////////////////////////////////
       /// callData from other sender (based on IP) got discarded, even with the same grp/suid
@@ -376,9 +435,13 @@ public class CallProcessorTest {
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
               any(ProtocolBase.class));
+      Mockito.verify(rptr, times(0)).forward(
+              anyListOf(SubscriberDatabase.OnlineRecord.class),
+              any(CallInformation.class),
+              any(ByteBuffer.class));
 
       // verify no timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callData from sender, but targeting to other grp, got discarded
@@ -392,9 +455,13 @@ public class CallProcessorTest {
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
               any(ProtocolBase.class));
+      Mockito.verify(rptr, times(0)).forward(
+              anyListOf(SubscriberDatabase.OnlineRecord.class),
+              any(CallInformation.class),
+              any(ByteBuffer.class));
 
       // verify no timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callTerm from others got discarded
@@ -409,7 +476,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // verify no timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from others got discarded
@@ -424,7 +491,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // verify no timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callTerm from sender got repeated, flywheel and tx timer got set
@@ -433,17 +500,13 @@ public class CallProcessorTest {
 
       rxedCallTerm(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
-
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      // verify flywheel timer was set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-//              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
    }
 
@@ -477,36 +540,28 @@ public class CallProcessorTest {
       resetMocked();
       rxedCallTerm(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-//              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
 
       /////////////////////////////////////////////////////////////////////////////
-      /// callTerm from sender got repeated, tx timer got set, but hang timer was not set
+      /// callTerm from sender got discarded, call terms are synthesized on tick
       /////////////////////////////////////////////////////////////////////////////
       resetMocked();
       rxedCallTerm(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(0)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
-
-      // verify 20ms timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      // verify flywheel timer was not set
-//      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),
-//              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       /////////////////////////////////////////////////////////////////////////////
       /// callData from sender (based on IP) got repeated, tx timer and hang flywheel got set
@@ -514,16 +569,16 @@ public class CallProcessorTest {
       resetMocked();
       rxedCallData(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallData.class));
+              any(ByteBuffer.class));
 
       // verify 20ms timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
 
       // verify flywheel timer was not set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
+//      Mockito.verify(timer, times(1)).schedule(isA(TimerHandle.class),
 //              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
 
       /////////////////////////////////////////////////////////////////////////////
@@ -537,9 +592,13 @@ public class CallProcessorTest {
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
               any(ProtocolBase.class));
+      Mockito.verify(rptr, times(0)).forward(
+              anyListOf(SubscriberDatabase.OnlineRecord.class),
+              any(CallInformation.class),
+              any(ByteBuffer.class));
 
       // verify 20ms timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callData from sender, but targeting to other grp, got discarded
@@ -552,6 +611,10 @@ public class CallProcessorTest {
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
               any(ProtocolBase.class));
+      Mockito.verify(rptr, times(0)).forward(
+              anyListOf(SubscriberDatabase.OnlineRecord.class),
+              any(CallInformation.class),
+              any(ByteBuffer.class));
 
       Mockito.verify(rptr, times(0)).repeat(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
@@ -559,7 +622,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // verify 20ms timer was set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
    }
 
    /** test hang state, using mock timer
@@ -591,17 +654,13 @@ public class CallProcessorTest {
       resetMocked();
       rxedCallTerm(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
-
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      // verify flywheel timer was set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-//              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from sender to other grp got discarded, no timer got set
@@ -615,7 +674,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // verify no timer got set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class),anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class),anyLong());
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from sender got repeated, flywheel and tx timer got set
@@ -629,11 +688,11 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+      // verify call tick was started, at fixed rate of packet interval
+      Mockito.verify(timer, times(1)).scheduleAtDeadline(isA(TimerHandle.class), anyLong(), eq(TICK_PERIOD_NS));
 
       // verify flywheel timer was set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
+//      Mockito.verify(timer, times(1)).schedule(isA(TimerHandle.class),
 //              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
    }
 
@@ -664,17 +723,13 @@ public class CallProcessorTest {
       resetMocked();
       rxedCallTerm(grp, su2, addr2);
 
-      Mockito.verify(rptr, times(1)).repeat(
+      Mockito.verify(rptr, times(1)).forward(
               anyListOf(SubscriberDatabase.OnlineRecord.class),
               any(CallInformation.class),
-              isA(CallTerm.class));
-
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
+              frameOfType(ProtocolBase.PTYPE_CALL_TERM));
 
-      // verify flywheel timer was set
-//      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-//              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_HANG_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       /////////////////////////////////////////////////////////////////////////////
       /// callInit from others to same grp got repeated, flywheel and tx timer got set
@@ -688,12 +743,8 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // verify call tick was started, at fixed rate of packet interval
+      Mockito.verify(timer, times(1)).scheduleAtDeadline(isA(TimerHandle.class), anyLong(), eq(TICK_PERIOD_NS));
 
       //////// now, cp should be in callInit state for callInit from su1
       resetMocked();
@@ -705,12 +756,8 @@ public class CallProcessorTest {
               any(CallInformation.class),
               isA(CallInit.class));
 
-      // verify 20ms timer was not set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),leq(GlobalConstants.CALL_PACKET_INTERVAL));
-
-      // verify flywheel timer was set
-      Mockito.verify(timer, times(1)).schedule(isA(NamedTimerTask.class),
-              and(gt(GlobalConstants.CALL_PACKET_INTERVAL), leq(GlobalConstants.CALL_FLYWHEEL_PERIOD)));
+      // tick keeps running, flywheel is a deadline, timer is untouched
+      Mockito.verifyZeroInteractions(timer);
 
       //////// now, cp should be in callInit state for callInit from su1, verify callInit from su2 got discarded
       resetMocked();
@@ -723,7 +770,7 @@ public class CallProcessorTest {
               any(ProtocolBase.class));
 
       // no timer was not set
-      Mockito.verify(timer, times(0)).schedule(isA(NamedTimerTask.class), anyLong());
+      Mockito.verify(timer, times(0)).schedule(isA(TimerHandle.class), anyLong());
 
    }
 
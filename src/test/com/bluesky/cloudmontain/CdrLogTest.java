@@ -0,0 +1,122 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.cdr.CdrLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+* CdrLog Tester.
+*
+* @version 1.0
+*/
+public class CdrLogTest {
+
+   File dir;
+   CdrLog.Configuration config;
+
+   @Before
+   public void before() throws Exception {
+      dir = File.createTempFile("cdr", "");
+      dir.delete();
+      config = new CdrLog.Configuration();
+      config.dir = dir;
+      config.segmentRecords = 100;
+      config.retentionMs = 0;
+   }
+
+   @After
+   public void after() throws Exception {
+      File[] files = dir.listFiles();
+      if(files != null){
+         for(File file : files){
+            file.delete();
+         }
+      }
+      dir.delete();
+   }
+
+   /** records come back by time they ended, with their frame counts */
+   @Test
+   public void testRecordAndQuery() throws Exception {
+      CdrLog cdr = new CdrLog(config);
+      cdr.start();
+      assertTrue(cdr.record(1000, 10, 100, 1100, 50, 3));
+      assertTrue(cdr.record(2000, 20, 900, 2000, 55, 0));
+      assertTrue(cdr.record(1000, 30, 2500, 3000, 25, 6));
+      cdr.close();
+
+      List<CdrLog.CallRecord> records = cdr.query(0, Long.MAX_VALUE);
+      assertEquals(3, records.size());
+      CdrLog.CallRecord first = records.get(0);
+      assertEquals(1000, first.mGrpId);
+      assertEquals(10, first.mSuId);
+      assertEquals(100, first.mStart);
+      assertEquals(1100, first.mEnd);
+      assertEquals(1000, first.duration());
+      assertEquals(50, first.mFrames);
+      assertEquals(3, first.mSynthesized);
+
+      records = cdr.query(1100, 3000);
+      assertEquals(2, records.size());
+      assertEquals(10, records.get(0).mSuId);
+      assertEquals(20, records.get(1).mSuId);
+      assertEquals(0, cdr.query(3001, 4000).size());
+   }
+
+   /** across segments, a query only gets its range, also after log is opened again */
+   @Test
+   public void testSegments() throws Exception {
+      CdrLog cdr = new CdrLog(config);
+      cdr.start();
+      for(int i = 0; i < 1000; ++i){
+         while(!cdr.record(1000, i, i * 10, i * 10 + 5, i, 0)){
+            Thread.sleep(1);
+         }
+      }
+      cdr.close();
+      assertEquals(10, dir.listFiles().length);
+
+      checkRange(cdr, 2000, 3000, 200);
+      checkRange(cdr, 0, 10, 0);
+      checkRange(cdr, 9990, 20000, 999);
+
+      CdrLog reopened = new CdrLog(config);
+      checkRange(reopened, 4005, 6005, 400);
+      reopened.start();
+      assertTrue(reopened.record(1000, 1000, 10000, 10005, 0, 0));
+      reopened.close();
+      assertEquals(1001, reopened.query(0, Long.MAX_VALUE).size());
+   }
+
+   /** calls ended in [from, to), i.e. su i ends at i * 10 + 5 */
+   void checkRange(CdrLog cdr, long from, long to, long firstSu){
+      List<CdrLog.CallRecord> records = cdr.query(from, to);
+      long su = firstSu;
+      for(CdrLog.CallRecord record : records){
+         assertEquals(su++, record.mSuId);
+         assertTrue(record.mEnd >= from && record.mEnd < to);
+      }
+      assertEquals(Math.min(1000, (to - 5 + 9) / 10) - Math.min(1000, (from - 5 + 9) / 10), records.size());
+   }
+
+   /** writer not keeping up, records are dropped, never waited for */
+   @Test
+   public void testDropWhenFull() throws Exception {
+      config.ringSize = 4;
+      CdrLog cdr = new CdrLog(config);
+      for(int i = 0; i < 4; ++i){
+         assertTrue(cdr.record(1000, i, 0, 1, 0, 0));
+      }
+      assertFalse(cdr.record(1000, 4, 0, 1, 0, 0));
+
+      cdr.start();
+      cdr.close();
+      assertEquals(4, cdr.query(0, 10).size());
+   }
+}
@@ -0,0 +1,63 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.CpRegistry;
+import com.bluesky.cloudmontain.repeator.ThreadedCP;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+* CpRegistry Tester.
+*
+* @version 1.0
+*/
+public class CpRegistryTest {
+
+   private ThreadedCP mockCp(long grp_id, boolean parked, long parkedSince){
+      ThreadedCP cp = mock(ThreadedCP.class);
+      when(cp.groupId()).thenReturn(grp_id);
+      when(cp.isParked()).thenReturn(parked);
+      when(cp.parkedSince()).thenReturn(parkedSince);
+      return cp;
+   }
+
+   @Test
+   public void testPutIfAbsent() {
+      CpRegistry registry = new CpRegistry();
+      ThreadedCP cp1 = mockCp(100, true, 0);
+      ThreadedCP cp2 = mockCp(100, true, 0);
+
+      assertNull(registry.get(100));
+      assertNull(registry.putIfAbsent(100, cp1));
+      assertSame(cp1, registry.putIfAbsent(100, cp2));
+      assertSame(cp1, registry.get(100));
+      assertEquals(1, registry.size());
+   }
+
+   /** only cps parked before the given time are removed, busy ones stay */
+   @Test
+   public void testRemoveParked() {
+      CpRegistry registry = new CpRegistry();
+      long now = System.nanoTime();
+      ThreadedCP idleLong = mockCp(100, true, now - 1000);
+      ThreadedCP idleShort = mockCp(200, true, now);
+      ThreadedCP busy = mockCp(300, false, now - 1000);
+      registry.putIfAbsent(100, idleLong);
+      registry.putIfAbsent(200, idleShort);
+      registry.putIfAbsent(300, busy);
+
+      List<ThreadedCP> removed = registry.removeParked(now - 500);
+
+      assertEquals(1, removed.size());
+      assertSame(idleLong, removed.get(0));
+      assertNull(registry.get(100));
+      assertSame(idleShort, registry.get(200));
+      assertSame(busy, registry.get(300));
+
+      assertEquals(2, registry.removeAll().size());
+      assertEquals(0, registry.size());
+   }
+}
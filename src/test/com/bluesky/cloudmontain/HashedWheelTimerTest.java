@@ -0,0 +1,146 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.HashedWheelTimer;
+import com.bluesky.cloudmontain.repeator.TimerHandle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+* HashedWheelTimer Tester.
+*
+* @version 1.0
+*/
+public class HashedWheelTimerTest {
+
+   HashedWheelTimer wheel;
+
+   private static class CountingCallback implements TimerHandle.Callback {
+      CountingCallback(int expected){
+         latch = new CountDownLatch(expected);
+      }
+      @Override
+      public void expired(TimerHandle handle) {
+         if(handle.takeExpiry()) {
+            count.incrementAndGet();
+            latch.countDown();
+         }
+      }
+      final AtomicInteger count = new AtomicInteger(0);
+      final CountDownLatch latch;
+   }
+
+   @Before
+   public void before() throws Exception {
+      wheel = new HashedWheelTimer("test");
+      wheel.start();
+   }
+
+   @After
+   public void after() throws Exception {
+      wheel.stop();
+   }
+
+   @Test
+   public void testOneShot() throws Exception {
+      CountingCallback cb = new CountingCallback(1);
+      TimerHandle handle = new TimerHandle(1, cb);
+      long start = System.nanoTime();
+      wheel.schedule(handle, 20);
+      assertTrue(cb.latch.await(1, TimeUnit.SECONDS));
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(19));
+      Thread.sleep(50);
+      assertEquals(1, cb.count.get());
+      assertEquals(0, wheel.size());
+   }
+
+   @Test
+   public void testCancel() throws Exception {
+      CountingCallback cb = new CountingCallback(1);
+      TimerHandle handle = new TimerHandle(1, cb);
+      wheel.schedule(handle, 20);
+      wheel.cancel(handle);
+      assertEquals(0, wheel.size());
+      Thread.sleep(60);
+      assertEquals(0, cb.count.get());
+   }
+
+   /** re-arming a pending handle reschedules it, it doesn't expire twice */
+   @Test
+   public void testRearm() throws Exception {
+      CountingCallback cb = new CountingCallback(1);
+      TimerHandle handle = new TimerHandle(1, cb);
+      wheel.schedule(handle, 10);
+      wheel.schedule(handle, 40);
+      assertEquals(1, wheel.size());
+      assertTrue(cb.latch.await(1, TimeUnit.SECONDS));
+      Thread.sleep(60);
+      assertEquals(1, cb.count.get());
+   }
+
+   /** expiration relayed, then handle re-armed before it's taken: it's lingering */
+   @Test
+   public void testLingeringExpiry() throws Exception {
+      final CountDownLatch relayed = new CountDownLatch(1);
+      TimerHandle handle = new TimerHandle(1, new TimerHandle.Callback() {
+         @Override
+         public void expired(TimerHandle handle) {
+            relayed.countDown();
+         }
+      });
+      wheel.schedule(handle, 5);
+      assertTrue(relayed.await(1, TimeUnit.SECONDS));
+      wheel.schedule(handle, 1000);
+      assertFalse(handle.takeExpiry());
+      wheel.cancel(handle);
+   }
+
+   @Test
+   public void testFixedRate() throws Exception {
+      CountingCallback cb = new CountingCallback(10);
+      TimerHandle handle = new TimerHandle(1, cb);
+      long start = System.nanoTime();
+      wheel.scheduleAtFixedRate(handle, 20, 20);
+      assertTrue(cb.latch.await(2, TimeUnit.SECONDS));
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      wheel.cancel(handle);
+      // 10 periods of 20ms, no drift accumulated
+      assertTrue("elapsed " + elapsed, elapsed >= 199 && elapsed < 260);
+   }
+
+   /** a callback which throws doesn't stop the wheel */
+   @Test
+   public void testThrowingCallback() throws Exception {
+      TimerHandle bad = new TimerHandle(1, new TimerHandle.Callback() {
+         @Override
+         public void expired(TimerHandle handle) {
+            throw new IllegalStateException("bad callback");
+         }
+      });
+      CountingCallback cb = new CountingCallback(3);
+      TimerHandle good = new TimerHandle(2, cb);
+      wheel.schedule(bad, 10);
+      wheel.scheduleAtFixedRate(good, 10, 10);
+      assertTrue(cb.latch.await(1, TimeUnit.SECONDS));
+      wheel.cancel(good);
+   }
+
+   /** stop waits for the wheel thread, nothing expires after it */
+   @Test
+   public void testStop() throws Exception {
+      CountingCallback cb = new CountingCallback(1);
+      TimerHandle handle = new TimerHandle(1, cb);
+      wheel.scheduleAtFixedRate(handle, 5, 5);
+      assertTrue(cb.latch.await(1, TimeUnit.SECONDS));
+      wheel.stop();
+      int count = cb.count.get();
+      Thread.sleep(30);
+      assertEquals(count, cb.count.get());
+   }
+}
@@ -0,0 +1,99 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.metrics.FrameStats;
+import com.bluesky.cloudmontain.metrics.LatencyHistogram;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+* LatencyHistogram Tester.
+*
+* @version 1.0
+*/
+public class LatencyHistogramTest {
+
+   private static long us(long us){
+      return TimeUnit.MICROSECONDS.toNanos(us);
+   }
+
+   /** small values are exact, bigger ones within bucket precision */
+   @Test
+   public void testPercentile() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for(int i = 1; i <= 100; ++i){
+         histogram.record(us(i * 100));
+      }
+
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+      assertEquals(100, snapshot.count());
+      assertEquals(5000, snapshot.percentile(50), 5000 / 16);
+      assertEquals(9900, snapshot.percentile(99), 9900 / 16);
+      assertEquals(10000, snapshot.max(), 10000 / 16);
+      assertTrue(snapshot.max() >= 10000);
+      // 5400us and up, 5300us shares its bucket with 5375us
+      assertEquals(47, snapshot.countAbove(5375));
+
+      histogram.record(us(7));
+      assertEquals(7, histogram.snapshot(false).percentile(0));
+   }
+
+   @Test
+   public void testClampAndReset() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(-1);
+      histogram.record(Long.MAX_VALUE);
+
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot(true);
+      assertEquals(2, snapshot.count());
+      assertEquals(0, snapshot.percentile(50));
+      assertTrue(snapshot.max() > TimeUnit.MINUTES.toMicros(30));
+
+      assertEquals(0, histogram.snapshot(false).count());
+   }
+
+   /** jitter is the deviation from packet interval, within a call only */
+   @Test
+   public void testFrameStatsJitter() {
+      FrameStats stats = new FrameStats(us(20000));
+
+      long t = us(1000000);
+      stats.frameSent(0, t, t + us(100));
+      stats.frameSent(t + us(20000) - us(50), t + us(20000), t + us(20100));
+      stats.frameSent(0, t + us(43000), t + us(43100));
+      stats.callEnded();
+      stats.frameSent(0, t + us(900000), t + us(900100));
+
+      LatencyHistogram.Snapshot jitter = stats.jitter().snapshot(false);
+      assertEquals(2, jitter.count());
+      assertEquals(0, jitter.percentile(50));
+      assertEquals(3000, jitter.max(), 3000 / 16);
+
+      assertEquals(1, stats.ingress().snapshot(false).count());
+      assertEquals(150, stats.ingress().snapshot(false).max(), 1);
+   }
+
+   /** global stats are summed from intervals of groups */
+   @Test
+   public void testFrameStatsInterval() {
+      FrameStats a = new FrameStats(us(20000));
+      FrameStats b = new FrameStats(us(20000));
+      long t = us(1000000);
+      a.frameSent(0, t, t + us(100));
+      a.frameSent(0, t + us(20000), t + us(20100));
+      b.frameSent(t, t + us(50), t + us(150));
+
+      FrameStats.Interval global = a.take().plus(b.take());
+      assertFalse(global.isEmpty());
+      assertTrue(a.take().isEmpty());
+      assertNull(b.dump());
+
+      FrameStats retired = new FrameStats(us(20000));
+      retired.add(global);
+      assertEquals(3, retired.fanout().snapshot(false).count());
+      assertEquals(1, retired.ingress().snapshot(false).count());
+      assertEquals(1, retired.jitter().snapshot(false).count());
+   }
+}
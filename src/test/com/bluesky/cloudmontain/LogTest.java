@@ -0,0 +1,55 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.log.Log;
+import com.bluesky.common.OLog;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+
+/**
+* Log Tester.
+*
+* @version 1.0
+*/
+public class LogTest {
+
+   @After
+   public void after() {
+      Log.setLevel(Log.INFO);
+   }
+
+   @Test
+   public void testLevelAndFormat() {
+      OLog sink = mock(OLog.class);
+      Log log = new Log(sink);
+
+      Log.setLevel(Log.INFO);
+      log.d("t", "dropped {}", 1L);
+      log.i("t", "src={}, target={}", "a", "b");
+      verify(sink).i("t", "src=a, target=b");
+
+      Log.setLevel(Log.DEBUG);
+      log.d("t", "state={}, src={}, target={}", "IDLE", 1001L, 2001L);
+      log.d("t", "missing {} {}", 7L);
+      verify(sink).d("t", "state=IDLE, src=1001, target=2001");
+      verify(sink).d("t", "missing 7 {}");
+      verifyNoMoreInteractions(sink);
+   }
+
+   /** async messages reach sink in order, from log thread */
+   @Test
+   public void testAsync() {
+      OLog sink = mock(OLog.class);
+      Log log = Log.async(sink, 16);
+      for(int i = 0; i < 10; ++i){
+         log.w("t", "msg {}", i);
+      }
+      log.close();
+
+      for(int i = 0; i < 10; ++i){
+         verify(sink).w("t", "msg " + i);
+      }
+      verifyNoMoreInteractions(sink);
+   }
+}
@@ -0,0 +1,63 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.LongObjectMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+* LongObjectMap Tester.
+*
+* @version 1.0
+*/
+public class LongObjectMapTest {
+
+   @Test
+   public void testPutGet() {
+      LongObjectMap<String> map = new LongObjectMap<String>();
+      assertNull(map.get(0));
+      assertNull(map.put(0, "zero"));
+      assertNull(map.put(-1, "minus"));
+      assertNull(map.put(Long.MAX_VALUE, "max"));
+      assertEquals("zero", map.put(0, "nil"));
+
+      assertEquals(3, map.size());
+      assertEquals("nil", map.get(0));
+      assertEquals("minus", map.get(-1));
+      assertEquals("max", map.get(Long.MAX_VALUE));
+      assertFalse(map.containsKey(1));
+   }
+
+   /** random puts/removes, with growth, checked against HashMap */
+   @Test
+   public void testAgainstHashMap() {
+      LongObjectMap<Long> map = new LongObjectMap<Long>();
+      Map<Long, Long> ref = new HashMap<Long, Long>();
+      Random random = new Random(7);
+
+      for(int i = 0; i < 100000; ++i){
+         // narrow key range, so that probe chains collide and get broken by removes
+         long key = random.nextInt(5000);
+         if(random.nextInt(3) == 0){
+            assertEquals(ref.remove(key), map.remove(key));
+         } else {
+            assertEquals(ref.put(key, (long)i), map.put(key, (long)i));
+         }
+      }
+
+      assertEquals(ref.size(), map.size());
+      for(long key = 0; key < 5000; ++key){
+         assertEquals(ref.get(key), map.get(key));
+      }
+      assertEquals(ref.size(), map.values().size());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNullValue() {
+      new LongObjectMap<String>().put(1, null);
+   }
+}
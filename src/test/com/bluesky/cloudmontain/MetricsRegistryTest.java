@@ -0,0 +1,104 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.metrics.Counter;
+import com.bluesky.cloudmontain.metrics.Gauge;
+import com.bluesky.cloudmontain.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+* MetricsRegistry Tester.
+*
+* @version 1.0
+*/
+public class MetricsRegistryTest {
+
+   /** striped counter sums up all threads */
+   @Test
+   public void testCounterFromManyThreads() throws Exception {
+      final Counter counter = new Counter();
+      List<Thread> threads = new ArrayList<Thread>();
+      for(int i = 0; i < 8; ++i){
+         Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               for(int j = 0; j < 10000; ++j){
+                  counter.inc();
+               }
+               counter.add(-10);
+            }
+         });
+         threads.add(t);
+         t.start();
+      }
+      for(Thread t : threads){
+         t.join();
+      }
+      assertEquals(8 * (10000 - 10), counter.sum());
+   }
+
+   /** one HELP/TYPE per family, series of a family grouped */
+   @Test
+   public void testScrape() {
+      MetricsRegistry registry = new MetricsRegistry();
+      Counter runt = registry.counter("rx_dropped_total{reason=\"runt\"}", "dropped");
+      registry.counter("rx_total", "received").add(5);
+      Counter illegal = registry.counter("rx_dropped_total{reason=\"illegal\"}", "dropped");
+      registry.gauge("queue_depth", "depth", new Gauge() {
+         @Override
+         public long value() {
+            return 7;
+         }
+      });
+      runt.inc();
+      illegal.add(2);
+
+      assertSame(runt, registry.counter("rx_dropped_total{reason=\"runt\"}", "dropped"));
+      assertEquals(
+              "# HELP rx_dropped_total dropped\n" +
+              "# TYPE rx_dropped_total counter\n" +
+              "rx_dropped_total{reason=\"runt\"} 1\n" +
+              "rx_dropped_total{reason=\"illegal\"} 2\n" +
+              "# HELP rx_total received\n" +
+              "# TYPE rx_total counter\n" +
+              "rx_total 5\n" +
+              "# HELP queue_depth depth\n" +
+              "# TYPE queue_depth gauge\n" +
+              "queue_depth 7\n",
+              registry.scrape());
+   }
+
+   @Test
+   public void testMBean() throws Exception {
+      MetricsRegistry registry = new MetricsRegistry();
+      registry.upDownGauge("calls{state=\"idle\"}", "calls").add(3);
+      registry.registerMBean("test.com.bluesky.cloudmontain:type=MetricsRegistryTest");
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("test.com.bluesky.cloudmontain:type=MetricsRegistryTest");
+      assertEquals(3L, server.getAttribute(name, "calls_state_idle"));
+      try {
+         server.setAttribute(name, new Attribute("calls_state_idle", 0L));
+         fail("attribute is read only");
+      } catch (AttributeNotFoundException e){
+         // expected
+      }
+      try {
+         server.invoke(name, "reset", new Object[0], new String[0]);
+         fail("there are no operations");
+      } catch (ReflectionException e){
+         assertTrue(e.getTargetException() instanceof NoSuchMethodException);
+      }
+      server.unregisterMBean(name);
+   }
+}
@@ -0,0 +1,163 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import com.bluesky.common.SubscriberDatabase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+* OnlineGroups Tester.
+*
+* @version 1.0
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class OnlineGroupsTest {
+
+   @Mock
+   SubscriberDatabase database;
+
+   long su1 = 10;
+   long su2 = 20;
+   long su3 = 30;
+   long grp = 100;
+   long grp2 = 200;
+   InetSocketAddress addr1 = new InetSocketAddress("10.0.0.1", 100);
+   InetSocketAddress addr2 = new InetSocketAddress("10.0.0.2", 200);
+   InetSocketAddress addr3 = new InetSocketAddress("10.0.0.3", 300);
+
+   OnlineGroups groups;
+
+   @Before
+   public void before() {
+      // su1 is online at start, su1/su2 are members of grp, su3 of grp2
+      Mockito.when(database.getOnlineMembers(grp)).thenReturn(
+              Arrays.asList(new SubscriberDatabase.OnlineRecord(su1, addr1)));
+      Mockito.when(database.isGroupMember(su1, grp)).thenReturn(true);
+      Mockito.when(database.isGroupMember(su2, grp)).thenReturn(true);
+      Mockito.when(database.isGroupMember(su3, grp2)).thenReturn(true);
+      groups = new OnlineGroups(database);
+   }
+
+   /** view is seeded from database, once */
+   @Test
+   public void testViewOf() {
+      OnlineGroups.View view = groups.viewOf(grp);
+      assertSame(view, groups.viewOf(grp));
+      assertEquals(1, view.members().size());
+      assertEquals(addr1, view.members().get(0).addr);
+      verify(database, times(1)).getOnlineMembers(grp);
+   }
+
+   /** su registering after the view was created shows up, in its own groups only */
+   @Test
+   public void testOnline() {
+      OnlineGroups.View view = groups.viewOf(grp);
+      List<SubscriberDatabase.OnlineRecord> before = view.members();
+
+      groups.online(su2, addr2);
+      groups.online(su3, addr3);
+
+      verify(database, times(1)).online(su2, addr2);
+      assertEquals(2, view.members().size());
+      assertEquals(su2, view.members().get(1).su_id.longValue());
+
+      // snapshot held by a reader stays as it was
+      assertEquals(1, before.size());
+   }
+
+   /** su moving to a new address is updated in place, not duplicated */
+   @Test
+   public void testReOnline() {
+      OnlineGroups.View view = groups.viewOf(grp);
+      groups.online(su1, addr3);
+      assertEquals(1, view.members().size());
+      assertEquals(addr3, view.members().get(0).addr);
+
+      // same address, snapshot is kept
+      List<SubscriberDatabase.OnlineRecord> snapshot = view.members();
+      groups.online(su1, addr3);
+      assertSame(snapshot, view.members());
+   }
+
+   /** batch of registrations, each su lands in its own groups */
+   @Test
+   public void testOnlineBatch() {
+      OnlineGroups.View view = groups.viewOf(grp);
+      OnlineGroups.View view2 = groups.viewOf(grp2);
+
+      long[] sus = {su2, su3, 0};
+      InetSocketAddress[] addrs = {addr2, addr3, null};
+      groups.online(sus, addrs, 2);
+
+      verify(database, times(1)).online(su2, addr2);
+      verify(database, times(1)).online(su3, addr3);
+      assertEquals(2, view.members().size());
+      assertEquals(1, view2.members().size());
+      assertEquals(addr3, view2.members().get(0).addr);
+   }
+
+   @Test
+   public void testOffline() {
+      OnlineGroups.View view = groups.viewOf(grp);
+      groups.online(su2, addr2);
+      groups.offline(su1);
+
+      verify(database, times(1)).offline(su1);
+      assertEquals(1, view.members().size());
+      assertEquals(su2, view.members().get(0).su_id.longValue());
+   }
+
+   @Test(expected = UnsupportedOperationException.class)
+   public void testSnapshotUnmodifiable() {
+      groups.viewOf(grp).members().clear();
+   }
+
+   /** with a snapshot database, an su is put into views of its own groups only */
+   @Test
+   public void testOnlineBySnapshot() throws Exception {
+      SnapshotDatabase snapshotDb = new SnapshotDatabase(SubscriberSnapshot.wrap(new SubscriberSnapshot.Builder()
+              .addGroup(grp).addGroup(grp2)
+              .addSubscriber(su1, new long[]{grp})
+              .addSubscriber(su2, new long[]{grp, grp2})
+              .build(null)));
+      OnlineGroups groups = new OnlineGroups(snapshotDb);
+      OnlineGroups.View view = groups.viewOf(grp);
+      OnlineGroups.View view2 = groups.viewOf(grp2);
+
+      long[] sus = {su1, su2};
+      InetSocketAddress[] addrs = {addr1, addr2};
+      groups.online(sus, addrs, 2);
+      assertEquals(2, view.members().size());
+      assertEquals(1, view2.members().size());
+      assertEquals(su2, view2.members().get(0).su_id.longValue());
+
+      groups.offline(su2);
+      assertEquals(1, view.members().size());
+      assertEquals(0, view2.members().size());
+   }
+
+   /** a view is shared while held, and dropped once released by all */
+   @Test
+   public void testRelease() {
+      OnlineGroups.View view = groups.viewOf(grp);
+      assertSame(view, groups.viewOf(grp));
+      groups.release(grp);
+      assertSame(view, groups.viewOf(grp));
+      groups.release(grp);
+      groups.release(grp);
+      assertNotSame(view, groups.viewOf(grp));
+   }
+}
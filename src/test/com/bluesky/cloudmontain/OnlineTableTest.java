@@ -0,0 +1,87 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.OnlineTable;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+* OnlineTable Tester.
+*
+* @version 1.0
+*/
+public class OnlineTableTest {
+
+   InetSocketAddress addr1 = new InetSocketAddress("10.0.0.1", 100);
+   InetSocketAddress addr2 = new InetSocketAddress("10.0.0.2", 200);
+
+   /** a row keeps su, address bytes, port and last-seen */
+   @Test
+   public void testOnline() throws Exception {
+      OnlineTable table = new OnlineTable();
+      int row1 = table.online(10, addr1, 1000);
+      InetSocketAddress addr6 = new InetSocketAddress(InetAddress.getByName("::1"), 300);
+      int row2 = table.online(20, addr6, 2000);
+
+      assertEquals(2, table.size());
+      assertEquals(row1, table.rowOf(10));
+      assertEquals(10, table.suIdAt(row1));
+      assertEquals(100, table.portAt(row1));
+      assertEquals(1000, table.lastSeenAt(row1));
+      assertEquals(addr1, table.addressAt(row1));
+
+      byte[] ip = new byte[16];
+      assertEquals(4, table.addressBytesAt(row1, ip));
+      assertEquals(10, ip[0]);
+      assertEquals(1, ip[3]);
+      assertEquals(16, table.addressBytesAt(row2, ip));
+      assertEquals(1, ip[15]);
+
+      // moving keeps the row
+      assertEquals(row1, table.online(10, addr2, 3000));
+      assertEquals(addr2, table.addressAt(row1));
+      assertEquals(-1, table.rowOf(30));
+   }
+
+   /** a member whose row got recycled is skipped, not sent to the new owner */
+   @Test
+   public void testStaleMember() {
+      OnlineTable table = new OnlineTable();
+      OnlineTable.Members members = new OnlineTable.Members(table);
+      members = members.with(10, table.online(10, addr1, 0));
+      members = members.with(20, table.online(20, addr2, 0));
+      assertSame(members, members.with(10, table.rowOf(10)));
+
+      table.offline(10);
+      int row = table.online(30, addr1, 0);
+      assertEquals(table.rowOf(30), row);
+
+      assertEquals(2, members.size());
+      assertNull(members.address(0));
+      assertEquals(addr2, members.address(1));
+
+      OnlineTable.Members rest = members.without(10);
+      assertEquals(1, rest.size());
+      assertEquals(20, rest.suId(0));
+      assertEquals(2, members.size());
+   }
+
+   @Test
+   public void testGrow() {
+      OnlineTable table = new OnlineTable(4);
+      for(int i = 0; i < 1000; ++i){
+         table.online(i, new InetSocketAddress("10.0.0.1", 1000 + i), i);
+      }
+      for(int i = 0; i < 1000; i += 2){
+         table.offline(i);
+      }
+      assertEquals(500, table.size());
+      for(int i = 1; i < 1000; i += 2){
+         assertEquals(1000 + i, table.portAt(table.rowOf(i)));
+      }
+      assertEquals(-1, table.rowOf(0));
+   }
+}
@@ -0,0 +1,56 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.PacketHeader;
+import com.bluesky.protocol.CallData;
+import com.bluesky.protocol.CallInit;
+import com.bluesky.protocol.CallTerm;
+import com.bluesky.protocol.ProtocolBase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+* PacketHeader Tester.
+*
+* @version 1.0
+*/
+public class PacketHeaderTest {
+
+   long su = 20;
+   long grp = 100;
+   short seq = 1234;
+
+   private ByteBuffer serialize(ProtocolBase proto){
+      ByteBuffer payload = ByteBuffer.allocate(proto.getSize());
+      proto.serialize(payload);
+      payload.clear();
+      return payload;
+   }
+
+   private void verifyHeader(ProtocolBase proto){
+      ByteBuffer raw = serialize(proto);
+      assertTrue(PacketHeader.hasHeader(raw));
+      assertEquals(proto.getType(), PacketHeader.peepType(raw));
+      assertEquals(grp, PacketHeader.peepTarget(raw));
+      assertEquals(su, PacketHeader.peepSource(raw));
+      assertEquals(seq, PacketHeader.peepSequence(raw));
+      // peeping leaves the buffer untouched
+      assertEquals(0, raw.position());
+      assertEquals(proto.getSize(), raw.limit());
+   }
+
+   @Test
+   public void testPeepCallPackets() throws Exception {
+      verifyHeader(new CallInit(grp, su, seq));
+      verifyHeader(new CallData(grp, su, seq, ByteBuffer.allocate(10)));
+      verifyHeader(new CallTerm(grp, su, seq, (short)20));
+   }
+
+   @Test
+   public void testRuntPacket() throws Exception {
+      ByteBuffer runt = ByteBuffer.allocate(2);
+      assertFalse(PacketHeader.hasHeader(runt));
+   }
+}
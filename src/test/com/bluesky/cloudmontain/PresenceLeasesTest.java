@@ -0,0 +1,64 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.PresenceLeases;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+* PresenceLeases Tester.
+*
+* @version 1.0
+*/
+public class PresenceLeasesTest {
+
+   private static long ms(long ms){
+      return TimeUnit.MILLISECONDS.toNanos(ms);
+   }
+
+   /** su expires within a tick after its lease, not before */
+   @Test
+   public void testExpire() {
+      PresenceLeases leases = new PresenceLeases(10000, 1000);
+      long t0 = ms(1000000);
+      leases.refresh(10, t0);
+      leases.refresh(20, t0 + ms(3000));
+      assertEquals(2, leases.size());
+
+      assertEquals(0, leases.expire(t0 + ms(9999)));
+      assertEquals(1, leases.expire(t0 + ms(11000)));
+      assertEquals(10, leases.expired()[0]);
+      assertEquals(0, leases.expire(t0 + ms(12000)));
+      assertEquals(1, leases.expire(t0 + ms(14000)));
+      assertEquals(20, leases.expired()[0]);
+      assertEquals(0, leases.size());
+   }
+
+   /** registration pushes expiry out, the stale wheel entry is skipped */
+   @Test
+   public void testRefresh() {
+      PresenceLeases leases = new PresenceLeases(10000, 1000);
+      long t0 = ms(1000000);
+      leases.refresh(10, t0);
+      leases.refresh(10, t0 + ms(5000));
+
+      assertEquals(0, leases.expire(t0 + ms(11000)));
+      assertEquals(1, leases.size());
+      assertEquals(1, leases.expire(t0 + ms(16000)));
+   }
+
+   /** sweeper which fell behind catches up, over more than a lap */
+   @Test
+   public void testLateSweep() {
+      PresenceLeases leases = new PresenceLeases(10000, 1000);
+      long t0 = ms(1000000);
+      leases.expire(t0);
+      for(int i = 0; i < 100; ++i){
+         leases.refresh(i, t0 + ms(i * 100));
+      }
+      assertEquals(100, leases.expire(t0 + ms(60000)));
+      assertEquals(0, leases.size());
+   }
+}
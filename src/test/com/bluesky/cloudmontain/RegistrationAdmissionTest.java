@@ -0,0 +1,46 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.RegistrationAdmission;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+* RegistrationAdmission Tester.
+*
+* @version 1.0
+*/
+public class RegistrationAdmissionTest {
+
+   InetAddress addr1 = InetAddress.getLoopbackAddress();
+
+   /** burst goes through, then one per interval */
+   @Test
+   public void testBurstThenRate() {
+      RegistrationAdmission admission = new RegistrationAdmission(1000, 3, 1024);
+      long now = System.nanoTime();
+
+      assertTrue(admission.admit(addr1, 100, now));
+      assertTrue(admission.admit(addr1, 100, now));
+      assertTrue(admission.admit(addr1, 100, now));
+      assertFalse(admission.admit(addr1, 100, now));
+
+      // other sources have their own bucket
+      assertTrue(admission.admit(addr1, 200, now));
+
+      long later = now + TimeUnit.MILLISECONDS.toNanos(1000);
+      assertTrue(admission.admit(addr1, 100, later));
+      assertFalse(admission.admit(addr1, 100, later));
+   }
+
+   @Test
+   public void testDisabled() {
+      RegistrationAdmission admission = new RegistrationAdmission(0, 1, 16);
+      for(int i = 0; i < 100; ++i){
+         assertTrue(admission.admit(addr1, 100));
+      }
+   }
+}
@@ -8,6 +8,7 @@ import com.bluesky.protocol.CallData;
 import com.bluesky.protocol.CallInit;
 import com.bluesky.protocol.CallTerm;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import static org.mockito.Mockito.*;
@@ -15,6 +16,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import org.junit.runner.RunWith;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 
 import java.net.InetSocketAddress;
@@ -93,4 +95,72 @@ public void repeatTest1() {
 
 }
 
-} 
+@Test
+public void forwardTest() {
+    List<SubscriberDatabase.OnlineRecord> onlines = new LinkedList<SubscriberDatabase.OnlineRecord>();
+    long su1 = 10;
+    long su2 = 20;
+    long grp = 100;
+    InetSocketAddress addr1 = new InetSocketAddress("host1", 100);
+    InetSocketAddress addr2 = new InetSocketAddress("host2", 200);
+    onlines.add(new SubscriberDatabase.OnlineRecord(su1, addr1));
+    onlines.add(new SubscriberDatabase.OnlineRecord(su2, addr2));
+
+    Repeator rptr = new Repeator(udpSvcMock);
+    CallInformation callInfo = new CallInformation();
+    callInfo.mSourceId = su2;
+
+    // raw call data is forwarded to others, excluding the sender
+    CallData callData = new CallData(grp, su2, (short)0, ByteBuffer.allocate(1));
+    ByteBuffer raw = ByteBuffer.allocate(callData.getSize());
+    callData.serialize(raw);
+    raw.clear();
+    rptr.forward(onlines, callInfo, raw);
+
+    Mockito.verify(udpSvcMock, times(1)).send(eq(addr1), isA(ByteBuffer.class));
+    Mockito.verify(udpSvcMock, times(0)).send(eq(addr2), isA(ByteBuffer.class));
+
+    // raw call term goes to all, including the sender
+    Mockito.reset(udpSvcMock);
+    CallTerm callTerm = new CallTerm(grp, su2, (short)0, (short)20);
+    raw = ByteBuffer.allocate(callTerm.getSize());
+    callTerm.serialize(raw);
+    raw.clear();
+    rptr.forward(onlines, callInfo, raw);
+
+    Mockito.verify(udpSvcMock, times(1)).send(eq(addr1), isA(ByteBuffer.class));
+    Mockito.verify(udpSvcMock, times(1)).send(eq(addr2), isA(ByteBuffer.class));
+}
+
+/** a slice of a bigger receive buffer, see RxPacket.wrap(), is copied out, as UDPService
+ *  sends the whole backing array */
+@Test
+public void forwardSliceTest() {
+    List<SubscriberDatabase.OnlineRecord> onlines = new LinkedList<SubscriberDatabase.OnlineRecord>();
+    long su1 = 10;
+    long su2 = 20;
+    long grp = 100;
+    InetSocketAddress addr1 = new InetSocketAddress("host1", 100);
+    onlines.add(new SubscriberDatabase.OnlineRecord(su1, addr1));
+
+    Repeator rptr = new Repeator(udpSvcMock);
+    CallInformation callInfo = new CallInformation();
+    callInfo.mSourceId = su2;
+
+    CallData callData = new CallData(grp, su2, (short)0, ByteBuffer.allocate(1));
+    byte[] rxBuffer = new byte[1500];
+    ByteBuffer frame = ByteBuffer.wrap(rxBuffer, 0, callData.getSize());
+    callData.serialize(frame);
+    ByteBuffer raw = ByteBuffer.wrap(rxBuffer, 0, callData.getSize()).slice();
+    rptr.forward(onlines, callInfo, raw);
+
+    ArgumentCaptor<ByteBuffer> sent = ArgumentCaptor.forClass(ByteBuffer.class);
+    Mockito.verify(udpSvcMock, times(1)).send(eq(addr1), sent.capture());
+    ByteBuffer image = sent.getValue();
+    assertEquals(callData.getSize(), image.array().length);
+    for(int i = 0; i < callData.getSize(); ++i){
+        assertEquals(rxBuffer[i], image.array()[i]);
+    }
+}
+
+}
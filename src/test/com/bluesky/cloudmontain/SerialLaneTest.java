@@ -0,0 +1,79 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.LaneScheduler;
+import com.bluesky.cloudmontain.repeator.SerialLane;
+import com.bluesky.common.OLog;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+* SerialLane Tester.
+*
+* @version 1.0
+*/
+public class SerialLaneTest {
+
+   /** tasks of a lane run in order, never concurrently, while several lanes share 2 workers */
+   @Test
+   public void testSerialPerLane() throws Exception {
+      LaneScheduler scheduler = new LaneScheduler(2, mock(OLog.class));
+      final int lanes = 8;
+      final int tasks = 1000;
+      final CountDownLatch done = new CountDownLatch(lanes * tasks);
+      final AtomicInteger violations = new AtomicInteger(0);
+
+      for(int l = 0; l < lanes; ++l){
+         final SerialLane lane = scheduler.newLane();
+         final AtomicInteger running = new AtomicInteger(0);
+         final int[] next = {0};
+         for(int t = 0; t < tasks; ++t){
+            final int seq = t;
+            lane.execute(new Runnable() {
+               @Override
+               public void run() {
+                  if(running.incrementAndGet() != 1 || next[0] != seq){
+                     violations.incrementAndGet();
+                  }
+                  ++next[0];
+                  running.decrementAndGet();
+                  done.countDown();
+               }
+            });
+         }
+      }
+
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, violations.get());
+      scheduler.shutdown();
+   }
+
+   /** a failing task doesn't stall the lane */
+   @Test
+   public void testLaneSurvivesException() throws Exception {
+      LaneScheduler scheduler = new LaneScheduler(1, mock(OLog.class));
+      SerialLane lane = scheduler.newLane();
+      final CountDownLatch done = new CountDownLatch(1);
+      lane.execute(new Runnable() {
+         @Override
+         public void run() {
+            throw new IllegalStateException("test");
+         }
+      });
+      lane.execute(new Runnable() {
+         @Override
+         public void run() {
+            done.countDown();
+         }
+      });
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      Thread.sleep(50);
+      assertTrue(lane.isIdle());
+      scheduler.shutdown();
+   }
+}
@@ -0,0 +1,105 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SnapshotDiff;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+* SnapshotDiff Tester.
+*
+* @version 1.0
+*/
+public class SnapshotDiffTest {
+
+   InetSocketAddress addr1 = new InetSocketAddress("10.0.0.1", 100);
+   InetSocketAddress addr2 = new InetSocketAddress("10.0.0.2", 200);
+   InetSocketAddress addr3 = new InetSocketAddress("10.0.0.3", 300);
+
+   /**      before                  after
+    *  su1  grp1, grp2              grp2, grp3
+    *  su2  grp1                    -
+    *  su3  -                       grp1
+    */
+   SubscriberSnapshot before() throws Exception {
+      return SubscriberSnapshot.wrap(new SubscriberSnapshot.Builder()
+              .addGroup(1000).addGroup(2000)
+              .addSubscriber(10, new long[]{1000, 2000})
+              .addSubscriber(20, new long[]{1000})
+              .build(null));
+   }
+
+   SubscriberSnapshot after() throws Exception {
+      return SubscriberSnapshot.wrap(new SubscriberSnapshot.Builder()
+              .addGroup(1000).addGroup(2000).addGroup(3000)
+              .addSubscriber(10, new long[]{2000, 3000})
+              .addSubscriber(30, new long[]{1000})
+              .build(null));
+   }
+
+   @Test
+   public void testDiff() throws Exception {
+      SnapshotDiff diff = SnapshotDiff.between(before(), after());
+
+      assertArrayEquals(new long[]{30}, diff.addedSubscribers());
+      assertArrayEquals(new long[]{20}, diff.removedSubscribers());
+      assertArrayEquals(new long[]{3000}, diff.addedGroups());
+      assertEquals(0, diff.removedGroups().length);
+
+      // su1 left grp1, su2 left grp1
+      assertEquals(2, diff.leaveCount());
+      assertEquals(10, diff.leftSu(0));
+      assertEquals(1000, diff.leftGroup(0));
+      assertEquals(20, diff.leftSu(1));
+      assertEquals(1000, diff.leftGroup(1));
+      // su1 joined grp3, su3 joined grp1
+      assertEquals(2, diff.joinCount());
+      assertEquals(10, diff.joinedSu(0));
+      assertEquals(3000, diff.joinedGroup(0));
+      assertEquals(30, diff.joinedSu(1));
+      assertEquals(1000, diff.joinedGroup(1));
+   }
+
+   @Test
+   public void testSame() throws Exception {
+      assertTrue(SnapshotDiff.between(before(), before()).isEmpty());
+   }
+
+   /** reload patches views held by cps, instead of building them again */
+   @Test
+   public void testReload() throws Exception {
+      SnapshotDatabase database = new SnapshotDatabase(before());
+      OnlineGroups groups = new OnlineGroups(database);
+      groups.online(10, addr1);
+      groups.online(20, addr2);
+      OnlineGroups.View grp1 = groups.viewOf(1000);
+      OnlineGroups.View grp3 = groups.viewOf(3000);
+      assertEquals(2, grp1.members().size());
+      assertEquals(0, grp3.members().size());
+
+      // diffed beforehand, as TrunkManager.reload() does
+      SubscriberSnapshot next = after();
+      SnapshotDiff diff = SnapshotDiff.between(database.snapshot(), next);
+      assertSame(diff, database.reload(next, diff));
+      groups.apply(diff);
+
+      // su1 left grp1, su2 is gone
+      assertEquals(0, grp1.members().size());
+      assertFalse(database.hasSubscriber(20));
+      assertEquals(-1, groups.table().rowOf(20));
+      // su1 is online, and joined grp3
+      assertEquals(1, grp3.members().size());
+      assertEquals(addr1, grp3.members().address(0));
+
+      // su3 is new, its registration is legitimate now
+      assertTrue(database.hasSubscriber(30));
+      groups.online(30, addr3);
+      assertEquals(1, grp1.members().size());
+      assertEquals(addr3, grp1.members().address(0));
+   }
+}
@@ -0,0 +1,110 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.SnapshotDatabase;
+import com.bluesky.cloudmontain.database.SubscriberLoader;
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+* SubscriberLoader Tester.
+*
+* @version 1.0
+*/
+public class SubscriberLoaderTest {
+
+   static final String CONFIG = "{\n" +
+           "  \"_comment\" : \"definition of all groups and subscribers in system\",\n" +
+           "  \"groups\" : [\n" +
+           "    { \"name\": \"group1\", \"id\" : 1000 },\n" +
+           "    { \"name\": \"group2\", \"id\" : 2000 },\n" +
+           "    { \"name\": \"grp \\\"3\\\"\", \"id\" : 3000, \"extra\": {\"a\": [1, true, null]} }\n" +
+           "  ],\n" +
+           "  \"subscribers\" : [\n" +
+           "    { \"name\": \"sub1\", \"id\" : 100, \"belongs\" : [1000, 3000]},\n" +
+           "    { \"name\": \"sub2\", \"id\" : 200, \"belongs\" : [2000, 3000, 1000]},\n" +
+           "    { \"name\": \"sub3\", \"id\" : 300, \"belongs\" : []}\n" +
+           "  ]\n" +
+           "}";
+
+   /** ids and membership streamed, other keys skipped */
+   @Test
+   public void testLoad() throws Exception {
+      SubscriberLoader loader = new SubscriberLoader(null);
+      SnapshotDatabase database = loader.load(new StringReader(CONFIG));
+      SubscriberSnapshot snapshot = database.snapshot();
+
+      assertEquals(3, snapshot.subscriberCount());
+      assertEquals(3, snapshot.groupCount());
+      assertTrue(database.hasSubscriber(300));
+      assertTrue(database.hasGroup(3000));
+      assertTrue(database.isGroupMember(200, 2000));
+      assertFalse(database.isGroupMember(100, 2000));
+      assertArrayEquals(new long[]{100, 200}, snapshot.membersOf(3000));
+      assertEquals(0, snapshot.groupsOf(300).length);
+      assertTrue(loader.loadMs() >= 0);
+   }
+
+   @Test
+   public void testMalformed() throws Exception {
+      String[] configs = {
+              "",
+              "{ \"groups\": [ { \"id\": 1000 } }",
+              "{ \"groups\": [ { \"name\": \"no id\" } ] }",
+              "{ \"subscribers\": [ { \"id\": 1.5 } ] }",
+              "{ \"subscribers\": [ { \"id\": \"100\" } ] }",
+      };
+      for(String config : configs){
+         try {
+            new SubscriberLoader(null).load(new StringReader(config));
+            fail("loaded: " + config);
+         } catch (IOException e){
+            // expected
+         }
+      }
+   }
+
+   /** index built in parallel partitions is the same as the one built on one thread */
+   @Test
+   public void testParallelBuild() throws Exception {
+      SubscriberSnapshot.Builder builder = new SubscriberSnapshot.Builder();
+      Random random = new Random(1);
+      for(int g = 0; g < 1000; ++g){
+         builder.addGroup(10000 + g);
+      }
+      long[] belongs = new long[4];
+      for(int s = 0; s < 200000; ++s){
+         for(int i = 0; i < belongs.length; ++i){
+            belongs[i] = 10000 + random.nextInt(1100);
+         }
+         // out of order, as configs may be
+         builder.addSubscriber((s * 7919L) % 200003, belongs);
+      }
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+         ByteBuffer parallel = builder.build(pool);
+         ByteBuffer sequential = builder.build(null);
+         assertEquals(sequential, parallel);
+
+         SubscriberSnapshot snapshot = SubscriberSnapshot.wrap(parallel);
+         long[] subs = snapshot.subscribers();
+         for(int i = 1; i < subs.length; ++i){
+            assertTrue(subs[i - 1] < subs[i]);
+         }
+         long[] members = snapshot.membersOf(10000);
+         for(int i = 1; i < members.length; ++i){
+            assertTrue(members[i - 1] < members[i]);
+         }
+      } finally {
+         pool.shutdown();
+      }
+   }
+}
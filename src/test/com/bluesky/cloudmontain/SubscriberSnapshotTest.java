@@ -0,0 +1,151 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.SubscriberSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+* SubscriberSnapshot Tester.
+*
+* @version 1.0
+*/
+public class SubscriberSnapshotTest {
+
+   File file;
+
+   @Before
+   public void before() throws Exception {
+      file = File.createTempFile("subscribers", ".snap");
+   }
+
+   @After
+   public void after() throws Exception {
+      file.delete();
+   }
+
+   /** ids and membership read back from the map, in both directions */
+   @Test
+   public void testWriteAndOpen() throws Exception {
+      new SubscriberSnapshot.Builder()
+              .addGroup(3000).addGroup(1000).addGroup(2000)
+              .addSubscriber(300, new long[]{1000, 2000})
+              .addSubscriber(100, new long[]{3000, 1000})
+              .addSubscriber(200, new long[]{2000, 3000, 1000})
+              .write(file);
+
+      assertTrue(SubscriberSnapshot.isSnapshot(file));
+      SubscriberSnapshot snapshot = SubscriberSnapshot.open(file);
+      assertEquals(3, snapshot.subscriberCount());
+      assertEquals(3, snapshot.groupCount());
+      assertArrayEquals(new long[]{100, 200, 300}, snapshot.subscribers());
+
+      assertTrue(snapshot.hasSubscriber(200));
+      assertFalse(snapshot.hasSubscriber(400));
+      assertTrue(snapshot.hasGroup(2000));
+      assertFalse(snapshot.hasGroup(4000));
+
+      assertTrue(snapshot.isGroupMember(100, 3000));
+      assertFalse(snapshot.isGroupMember(100, 2000));
+      assertFalse(snapshot.isGroupMember(100, 4000));
+      assertFalse(snapshot.isGroupMember(400, 1000));
+
+      assertArrayEquals(new long[]{1000, 3000}, snapshot.groupsOf(100));
+      assertArrayEquals(new long[]{100, 200, 300}, snapshot.membersOf(1000));
+      assertArrayEquals(new long[]{200, 300}, snapshot.membersOf(2000));
+      assertEquals(2, snapshot.memberCount(3000));
+      assertEquals(0, snapshot.membersOf(4000).length);
+   }
+
+   /** groups which aren't defined are left out of membership */
+   @Test
+   public void testUnknownGroup() throws Exception {
+      new SubscriberSnapshot.Builder()
+              .addGroup(1000)
+              .addSubscriber(100, new long[]{1000, 9000})
+              .write(file);
+
+      SubscriberSnapshot snapshot = SubscriberSnapshot.open(file);
+      assertArrayEquals(new long[]{1000}, snapshot.groupsOf(100));
+      assertFalse(snapshot.isGroupMember(100, 9000));
+   }
+
+   /** ids are found through the hash index, well past its initial size, 0 and negative
+    *  ids included */
+   @Test
+   public void testManyIds() throws Exception {
+      SubscriberSnapshot.Builder builder = new SubscriberSnapshot.Builder();
+      for(long g = -5; g < 5; ++g){
+         builder.addGroup(g * 1000);
+      }
+      for(long su = -500; su < 500; ++su){
+         builder.addSubscriber(su, new long[]{(su % 5) * 1000, 4000});
+      }
+      builder.write(file);
+
+      SubscriberSnapshot snapshot = SubscriberSnapshot.open(file);
+      for(long su = -500; su < 500; ++su){
+         assertTrue(snapshot.hasSubscriber(su));
+         assertTrue(snapshot.isGroupMember(su, (su % 5) * 1000));
+         assertTrue(snapshot.isGroupMember(su, 4000));
+         assertFalse(snapshot.isGroupMember(su, 9000));
+      }
+      assertFalse(snapshot.hasSubscriber(500));
+      assertFalse(snapshot.hasSubscriber(Long.MIN_VALUE));
+      assertTrue(snapshot.hasGroup(0));
+      assertTrue(snapshot.hasGroup(-5000));
+      assertFalse(snapshot.hasGroup(5000));
+      assertEquals(1000, snapshot.memberCount(4000));
+   }
+
+   @Test
+   public void testEmpty() throws Exception {
+      new SubscriberSnapshot.Builder().write(file);
+
+      SubscriberSnapshot snapshot = SubscriberSnapshot.open(file);
+      assertEquals(0, snapshot.subscriberCount());
+      assertFalse(snapshot.hasSubscriber(100));
+      assertFalse(snapshot.hasGroup(1000));
+   }
+
+   @Test
+   public void testNotSnapshot() throws Exception {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write("{ \"groups\": [] }".getBytes("UTF-8"));
+      out.close();
+
+      assertFalse(SubscriberSnapshot.isSnapshot(file));
+      try {
+         SubscriberSnapshot.open(file);
+         fail("json opened as snapshot");
+      } catch (IOException e){
+         // expected
+      }
+   }
+
+   /** a truncated file is refused, not mapped */
+   @Test
+   public void testTruncated() throws Exception {
+      new SubscriberSnapshot.Builder()
+              .addGroup(1000)
+              .addSubscriber(100, new long[]{1000})
+              .write(file);
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.setLength(file.length() - 8);
+      raf.close();
+
+      try {
+         SubscriberSnapshot.open(file);
+         fail("truncated snapshot opened");
+      } catch (IOException e){
+         // expected
+      }
+   }
+}
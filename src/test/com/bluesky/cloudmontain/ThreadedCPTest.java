@@ -0,0 +1,139 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.repeator.HashedWheelTimer;
+import com.bluesky.cloudmontain.repeator.OnlineGroups;
+import com.bluesky.cloudmontain.repeator.Repeator;
+import com.bluesky.cloudmontain.repeator.RxPacket;
+import com.bluesky.cloudmontain.repeator.ThreadedCP;
+import com.bluesky.common.OLog;
+import com.bluesky.common.SubscriberDatabase;
+import com.bluesky.protocol.CallInit;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+* ThreadedCP Tester.
+*
+* @version 1.0
+*/
+public class ThreadedCPTest {
+
+   private ThreadedCP newCp(ExecutorService exec){
+      return new ThreadedCP(exec, 100, 10, mock(Repeator.class),
+              OnlineGroups.View.of(100, Collections.<SubscriberDatabase.OnlineRecord>emptyList()),
+              new HashedWheelTimer("test"), mock(OLog.class));
+   }
+
+   /** retirement runs in cp's context, after what's queued before it */
+   @Test
+   public void testRetireInContext() throws Exception {
+      final ExecutorService exec = Executors.newSingleThreadExecutor();
+      ThreadedCP cp = newCp(exec);
+      final CountDownLatch gate = new CountDownLatch(1);
+      exec.execute(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               gate.await();
+            } catch (InterruptedException e){
+               // test fails on timeout
+            }
+         }
+      });
+      final Thread[] retiredIn = new Thread[1];
+      final CountDownLatch retired = new CountDownLatch(1);
+      cp.retire(new Runnable() {
+         @Override
+         public void run() {
+            retiredIn[0] = Thread.currentThread();
+            exec.shutdown();
+            retired.countDown();
+         }
+      });
+      // queued behind the blocked task
+      assertEquals(1, retired.getCount());
+      gate.countDown();
+      assertTrue(retired.await(1, TimeUnit.SECONDS));
+      assertNotSame(Thread.currentThread(), retiredIn[0]);
+   }
+
+   /** packets coming after the executor is released are dropped, not thrown */
+   @Test
+   public void testRxAfterRelease() throws Exception {
+      final ExecutorService exec = Executors.newSingleThreadExecutor();
+      ThreadedCP cp = newCp(exec);
+      final CountDownLatch retired = new CountDownLatch(1);
+      cp.retire(new Runnable() {
+         @Override
+         public void run() {
+            exec.shutdown();
+            retired.countDown();
+         }
+      });
+      assertTrue(retired.await(1, TimeUnit.SECONDS));
+
+      cp.packetReceived(RxPacket.allocate(64));
+      // retire again, e.g. on stop, runs in caller's context then
+      cp.retire();
+   }
+
+   /** a call init queued ahead of eviction starts a call, cp is kept, not retired */
+   @Test
+   public void testCallInitAheadOfRetire() throws Exception {
+      ExecutorService exec = Executors.newSingleThreadExecutor();
+      ThreadedCP cp = newCp(exec);
+      assertTrue(cp.isParked());
+      final CountDownLatch gate = new CountDownLatch(1);
+      exec.execute(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               gate.await();
+            } catch (InterruptedException e){
+               // test fails on timeout
+            }
+         }
+      });
+
+      // found parked by the sweeper, while a call init is queued to it
+      CallInit callInit = new CallInit(100, 10, (short)0);
+      ByteBuffer payload = ByteBuffer.allocate(callInit.getSize());
+      callInit.serialize(payload);
+      DatagramPacket pkt = new DatagramPacket(payload.array(), payload.capacity());
+      pkt.setSocketAddress(new InetSocketAddress("10.0.0.1", 100));
+      cp.packetReceived(RxPacket.wrap(pkt));
+
+      final AtomicBoolean retired = new AtomicBoolean(false);
+      final CountDownLatch done = new CountDownLatch(1);
+      cp.retireIfParked(new Runnable() {
+         @Override
+         public void run() {
+            retired.set(true);
+            done.countDown();
+         }
+      }, new Runnable() {
+         @Override
+         public void run() {
+            done.countDown();
+         }
+      });
+      gate.countDown();
+      assertTrue(done.await(1, TimeUnit.SECONDS));
+      assertFalse(retired.get());
+      assertFalse(cp.isParked());
+      assertNotNull(cp.activeCall());
+      exec.shutdown();
+   }
+}
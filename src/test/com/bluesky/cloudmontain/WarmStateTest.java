@@ -0,0 +1,110 @@
+package test.com.bluesky.cloudmontain;
+
+import com.bluesky.cloudmontain.database.OnlineTable;
+import com.bluesky.cloudmontain.repeator.CallProcessor;
+import com.bluesky.cloudmontain.repeator.WarmState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+* WarmState Tester.
+*
+* @version 1.0
+*/
+public class WarmStateTest {
+
+   InetSocketAddress addr1 = new InetSocketAddress("10.0.0.1", 100);
+   InetSocketAddress addr2;
+   File path;
+
+   @Before
+   public void before() throws Exception {
+      addr2 = new InetSocketAddress(InetAddress.getByName("::1"), 200);
+      path = File.createTempFile("warm", "");
+      path.delete();
+   }
+
+   @After
+   public void after() throws Exception {
+      new File(path.getPath() + ".0").delete();
+      new File(path.getPath() + ".1").delete();
+   }
+
+   /** presence and calls come back as saved, last-seen in wall clock */
+   @Test
+   public void testSaveAndLoad() throws Exception {
+      assertNull(WarmState.load(path));
+
+      OnlineTable table = new OnlineTable();
+      long nanoNow = System.nanoTime();
+      table.online(10, addr1, nanoNow - 3000000000L);
+      table.online(20, addr2, nanoNow);
+      table.online(30, addr1, nanoNow);
+      table.offline(30);
+      List<CallProcessor.ActiveCall> calls = Arrays.asList(new CallProcessor.ActiveCall(1000, 10, addr1, 40000));
+
+      new WarmState.Writer(path).save(table, calls, 50000, nanoNow);
+
+      WarmState state = WarmState.load(path);
+      assertEquals(50000, state.savedAt());
+      assertEquals(2, state.presenceCount());
+      assertEquals(10, state.suIdAt(0));
+      assertEquals(addr1, state.addressAt(0));
+      assertEquals(47000, state.lastSeenAt(0));
+      assertEquals(20, state.suIdAt(1));
+      assertEquals(addr2, state.addressAt(1));
+      assertEquals(50000, state.lastSeenAt(1));
+
+      assertEquals(1, state.callCount());
+      assertEquals(1000, state.callAt(0).mGrpId);
+      assertEquals(10, state.callAt(0).mSourceId);
+      assertEquals(addr1, state.callAt(0).mSender);
+      assertEquals(40000, state.callAt(0).mStartMs);
+   }
+
+   /** slots are written in turn, the latest one is loaded, a new writer goes on after it */
+   @Test
+   public void testLatestSlot() throws Exception {
+      OnlineTable table = new OnlineTable();
+      List<CallProcessor.ActiveCall> none = new ArrayList<CallProcessor.ActiveCall>();
+      WarmState.Writer writer = new WarmState.Writer(path);
+      writer.save(table, none, 1000, 0);
+      writer.save(table, none, 2000, 0);
+      assertEquals(2000, WarmState.load(path).savedAt());
+
+      new WarmState.Writer(path).save(table, none, 3000, 0);
+      assertEquals(3000, WarmState.load(path).savedAt());
+   }
+
+   /** a save cut short leaves the slot before it as the latest */
+   @Test
+   public void testTornSave() throws Exception {
+      OnlineTable table = new OnlineTable();
+      table.online(10, addr1, 0);
+      List<CallProcessor.ActiveCall> none = new ArrayList<CallProcessor.ActiveCall>();
+      WarmState.Writer writer = new WarmState.Writer(path);
+      writer.save(table, none, 1000, 0);
+      writer.save(table, none, 2000, 0);
+
+      // sequence of latest slot is cleared first, as a save in progress does
+      RandomAccessFile raf = new RandomAccessFile(path.getPath() + ".0", "rw");
+      raf.seek(8);
+      raf.writeLong(0);
+      raf.close();
+
+      WarmState state = WarmState.load(path);
+      assertEquals(1000, state.savedAt());
+      assertEquals(1, state.presenceCount());
+   }
+}